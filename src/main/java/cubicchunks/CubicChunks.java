@@ -40,6 +40,7 @@ import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
 import org.apache.logging.log4j.Logger;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -48,6 +49,7 @@ import cubicchunks.debug.DebugTools;
 import cubicchunks.debug.DebugWorldType;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.proxy.CommonProxy;
+import cubicchunks.server.chunkio.CompressionCodec;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.AddressTools;
 import cubicchunks.world.type.CustomCubicWorldType;
@@ -129,11 +131,29 @@ public class CubicChunks {
 		public static final int DEFAULT_VERTICAL_CUBE_LOAD_DISTANCE = 8;
 		public static final int DEFAULT_MIN_WORLD_HEIGHT = -4096;
 		public static final int DEFAULT_MAX_WORLD_HEIGHT = 4096;
+		public static final int DEFAULT_SAVE_COMPRESSION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+		public static final CompressionCodec DEFAULT_COMPRESSION_CODEC = CompressionCodec.LZ4;
+		public static final int DEFAULT_AUTOSAVE_TICK_BUDGET = 10;
+		public static final int DEFAULT_CUBE_DATA_CACHE_SIZE = 32;
+		public static final int DEFAULT_ASYNC_LOAD_TICK_BUDGET = 10;
+		public static final int DEFAULT_GENERATION_TICK_BUDGET = 40;
+		public static final int DEFAULT_CHUNK_GC_TICK_BUDGET = 5;
+		public static final int DEFAULT_CHUNK_GC_UNLOAD_DELAY = 200;
+		public static final int DEFAULT_CUBE_MEMORY_BUDGET = 0;
 		private int maxGeneratedCubesPerTick;
 		private int lightingTickBudget;
 		private int verticalCubeLoadDistance;
 		private int worldHeightLowerBound;
 		private int worldHeightUpperBound;
+		private int saveCompressionThreads;
+		private CompressionCodec compressionCodec;
+		private int autosaveTickBudget;
+		private int cubeDataCacheSize;
+		private int asyncLoadTickBudget;
+		private int generationTickBudget;
+		private int chunkGcTickBudget;
+		private int chunkGcUnloadDelay;
+		private int cubeMemoryBudget;
 		private Configuration configuration;
 
 		private Config(Configuration configuration) {
@@ -156,6 +176,25 @@ public class CubicChunks {
 				DEFAULT_MIN_WORLD_HEIGHT, AddressTools.MIN_BLOCK_Y, 0, "The lower boundary on the world. Blocks will not generate or load below this point.");
 			worldHeightUpperBound = configuration.getInt("worldHeightUpperBound", Configuration.CATEGORY_GENERAL,
 				DEFAULT_MAX_WORLD_HEIGHT, 256, AddressTools.MAX_BLOCK_Y, "The upper boundary on the world. Blocks will not generate or load above this point.");
+			saveCompressionThreads = configuration.getInt("saveCompressionThreads", Configuration.CATEGORY_GENERAL,
+				DEFAULT_SAVE_COMPRESSION_THREADS, 1, 64, "The number of threads used to compress cubes and columns before they are written to disk.");
+			compressionCodec = parseCodec(configuration.getString("compressionCodec", Configuration.CATEGORY_GENERAL,
+				DEFAULT_COMPRESSION_CODEC.name(), "Compression used for newly saved cubes and columns. Cubes saved with a different codec can still be loaded and are converted when saved again.",
+				codecNames()));
+			autosaveTickBudget = configuration.getInt("autosaveTickBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_AUTOSAVE_TICK_BUDGET, 1, Integer.MAX_VALUE, "The maximum amount of time in milliseconds per tick to spend saving cubes during autosave. Shutdown and /save-all always save everything at once.");
+			cubeDataCacheSize = configuration.getInt("cubeDataCacheSize", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CUBE_DATA_CACHE_SIZE, 0, 4096, "The size in megabytes of the per-dimension cache of recently saved and loaded cubes, so that cubes that are loaded again soon after unloading aren't read from disk.");
+			asyncLoadTickBudget = configuration.getInt("asyncLoadTickBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_ASYNC_LOAD_TICK_BUDGET, 1, Integer.MAX_VALUE, "The maximum amount of time in milliseconds per tick to spend adding asynchronously loaded cubes and columns to the world. The rest is done in the next ticks.");
+			generationTickBudget = configuration.getInt("generationTickBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_GENERATION_TICK_BUDGET, 1, Integer.MAX_VALUE, "The maximum amount of time in milliseconds per tick to spend generating, populating and lighting cubes for players. The rest is done in the next ticks.");
+			chunkGcTickBudget = configuration.getInt("chunkGcTickBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CHUNK_GC_TICK_BUDGET, 1, Integer.MAX_VALUE, "The maximum amount of time in milliseconds per tick to spend unloading cubes and columns that are no longer used. The rest is done in the next ticks.");
+			chunkGcUnloadDelay = configuration.getInt("chunkGcUnloadDelay", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CHUNK_GC_UNLOAD_DELAY, 0, Integer.MAX_VALUE, "How many ticks a cube or column has to be unused before it's unloaded. Cubes that are used again in the meantime, for example when a player comes back, stay loaded.");
+			cubeMemoryBudget = configuration.getInt("cubeMemoryBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CUBE_MEMORY_BUDGET, 0, Integer.MAX_VALUE, "Soft limit in megabytes for the estimated memory used by the loaded cubes of all worlds together. When it's exceeded, unused cubes are unloaded without waiting for the unload delay, and new cubes are generated slower. 0 means a quarter of the maximum heap size.");
 
 			if (configuration.hasChanged()) configuration.save();
 		}
@@ -185,5 +224,60 @@ public class CubicChunks {
 		public int getWorldHeightUpperBound() {
 			return worldHeightUpperBound;
 		}
+
+		public int getSaveCompressionThreads() {
+			return saveCompressionThreads;
+		}
+
+		public CompressionCodec getCompressionCodec() {
+			return compressionCodec;
+		}
+
+		public int getAutosaveTickBudget() {
+			return autosaveTickBudget;
+		}
+
+		public int getCubeDataCacheSize() {
+			return cubeDataCacheSize;
+		}
+
+		public int getAsyncLoadTickBudget() {
+			return asyncLoadTickBudget;
+		}
+
+		public int getGenerationTickBudget() {
+			return generationTickBudget;
+		}
+
+		public int getChunkGcTickBudget() {
+			return chunkGcTickBudget;
+		}
+
+		public int getChunkGcUnloadDelay() {
+			return chunkGcUnloadDelay;
+		}
+
+		public int getCubeMemoryBudget() {
+			return cubeMemoryBudget;
+		}
+
+		private static CompressionCodec parseCodec(String name) {
+			CompressionCodec codec = CompressionCodec.byName(name);
+			if (codec == null) {
+				LOGGER.warn("Unknown compressionCodec \"{}\", using {}. Valid values are {}", name, DEFAULT_COMPRESSION_CODEC,
+					Arrays.toString(codecNames()));
+				return DEFAULT_COMPRESSION_CODEC;
+			}
+			return codec;
+		}
+
+		private static String[] codecNames() {
+			CompressionCodec[] codecs = CompressionCodec.values();
+			String[] names = new String[codecs.length];
+			for (int i = 0; i < codecs.length; i++) {
+				names[i] = codecs[i].name();
+			}
+			return names;
+		}
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.asm.mixin.core.common;
+
+import net.minecraft.server.MinecraftServer;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import cubicchunks.server.CubeProviderServer;
+
+/**
+ * Lets cubic worlds tell periodic autosaves apart from full saves.
+ * <p>
+ * The periodic autosave is the only place that calls {@code saveAllWorlds(true)}. Server shutdown and pausing the
+ * integrated server call it with {@code false}, and {@code /save-all} saves the worlds directly.
+ */
+@Mixin(MinecraftServer.class)
+public abstract class MixinMinecraftServer_Autosave {
+
+	@Inject(method = "saveAllWorlds", at = @At("HEAD"))
+	private void onSaveAllWorldsStart(boolean isSilent, CallbackInfo ci) {
+		CubeProviderServer.setAutosaveInProgress(isSilent);
+	}
+
+	@Inject(method = "saveAllWorlds", at = @At("RETURN"))
+	private void onSaveAllWorldsEnd(boolean isSilent, CallbackInfo ci) {
+		CubeProviderServer.setAutosaveInProgress(false);
+	}
+}
@@ -62,6 +62,7 @@ import cubicchunks.CubicChunks;
 import cubicchunks.IConfigUpdateListener;
 import cubicchunks.lighting.LightingManager;
 import cubicchunks.util.AddressTools;
+import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
@@ -227,17 +228,20 @@ public abstract class MixinWorld implements ICubicWorld, IConfigUpdateListener {
 		int maxCubeY = end.getY();
 		int maxCubeZ = end.getZ();
 
-		for (int cubeX = minCubeX; cubeX <= maxCubeX; cubeX++) {
-			for (int cubeY = minCubeY; cubeY <= maxCubeY; cubeY++) {
-				for (int cubeZ = minCubeZ; cubeZ <= maxCubeZ; cubeZ++) {
-					Cube cube = this.getCubeCache().getLoadedCube(cubeX, cubeY, cubeZ);
-					if (!cubeAllowed.test(cube)) {
-						return false;
-					}
-				}
+		// one box scan instead of a lookup for each cube, the predicate is tested with null once for all missing cubes
+		int[] loaded = {0};
+		boolean[] allowed = {true};
+		this.getCubeCache().forEachLoadedInBox(new Box(minCubeX, minCubeY, minCubeZ, maxCubeX, maxCubeY, maxCubeZ), cube -> {
+			loaded[0]++;
+			if (allowed[0] && !cubeAllowed.test(cube)) {
+				allowed[0] = false;
 			}
+		});
+		if (!allowed[0]) {
+			return false;
 		}
-		return true;
+		long volume = (long) (maxCubeX - minCubeX + 1)*(maxCubeY - minCubeY + 1)*(maxCubeZ - minCubeZ + 1);
+		return loaded[0] >= volume || cubeAllowed.test(null);
 	}
 
 	// TODO: this method is just plain stupid (remove it)
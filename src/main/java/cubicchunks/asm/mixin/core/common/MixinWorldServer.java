@@ -80,7 +80,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 		this.lightingManager = new LightingManager(this);
 
 		this.thePlayerManager = new PlayerCubeMap(this);
-		this.chunkGc = new ChunkGc(getCubeCache());
+		this.chunkGc = getCubeCache().getChunkGc();
 
 		this.saveHandler = new CubicSaveHandler(this, this.getSaveHandler());
 
@@ -41,7 +41,7 @@ public class WorldEncoder {
 		out.writeBoolean(cube.isEmpty());
 
 		if (!cube.isEmpty()) {
-			ExtendedBlockStorage storage = cube.getStorage();
+			ExtendedBlockStorage storage = cube.getReadableStorage();
 
 			// 2. block IDs and metadata
 			storage.getData().write(out);
@@ -113,7 +113,7 @@ public class WorldEncoder {
 		int size = 0;
 		size++;//isEmpty
 		if (!cube.isEmpty()) {
-			ExtendedBlockStorage storage = cube.getStorage();
+			ExtendedBlockStorage storage = cube.getReadableStorage();
 			size += storage.getData().getSerializedSize();
 			size += storage.getBlocklightArray().getData().length;
 			if (!cube.getCubicWorld().getProvider().getHasNoSky()) {
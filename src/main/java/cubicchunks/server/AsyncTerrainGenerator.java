@@ -0,0 +1,181 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+import cubicchunks.worldgen.generator.ICubePrimer;
+
+/**
+ * Generates the terrain of cubes on worker threads, ahead of the server thread needing them. Only the
+ * {@link ICubePrimer} is made here, creating the cube from it and everything else stays on the server thread.
+ * <p>
+ * Only used for cubes the generator {@link ICubeGenerator#prepareAsyncGeneration(int, int, int) prepares} for it,
+ * all other terrain is generated on the server thread when it's needed.
+ */
+class AsyncTerrainGenerator {
+
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+	private final ICubeGenerator generator;
+	private final int dimension;
+	// only accessed from the server thread
+	private final Map<CubePos, GenerationTask> tasks = new HashMap<>();
+	// created when the first cube is prepared, the generator may not support it at all
+	@Nullable private ThreadPoolExecutor pool;
+
+	AsyncTerrainGenerator(ICubeGenerator generator, int dimension) {
+		this.generator = generator;
+		this.dimension = dimension;
+	}
+
+	/**
+	 * Start generating the terrain of a cube on a worker thread, unless it's already generating. Server thread
+	 * only.
+	 */
+	void prefetch(int cubeX, int cubeY, int cubeZ) {
+		CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+		if (tasks.containsKey(pos)) {
+			return;
+		}
+		Supplier<ICubePrimer> supplier = generator.prepareAsyncGeneration(cubeX, cubeY, cubeZ);
+		if (supplier == null) {
+			return;
+		}
+		if (pool == null) {
+			pool = createPool();
+		}
+		GenerationTask task = new GenerationTask(supplier);
+		tasks.put(pos, task);
+		pool.execute(task);
+	}
+
+	/**
+	 * Forget about a cube that isn't needed anymore. It's not generated if no worker started it yet. Server thread
+	 * only.
+	 */
+	void cancel(int cubeX, int cubeY, int cubeZ) {
+		if (pool == null) {
+			return;
+		}
+		GenerationTask task = tasks.remove(new CubePos(cubeX, cubeY, cubeZ));
+		if (task != null && task.tryStart()) {
+			pool.remove(task);
+		}
+	}
+
+	/**
+	 * Get the terrain of a cube. Uses the prefetched result if there is one, waiting for the worker if it's still
+	 * generating, otherwise it's generated on the calling thread. Server thread only.
+	 *
+	 * @return the generated terrain
+	 */
+	@Nonnull
+	ICubePrimer generate(int cubeX, int cubeY, int cubeZ) {
+		GenerationTask task = pool == null ? null : tasks.remove(new CubePos(cubeX, cubeY, cubeZ));
+		if (task == null) {
+			return generator.generateCube(cubeX, cubeY, cubeZ);
+		}
+		if (task.tryStart()) {
+			// no worker got to it yet, faster to do it here than to wait for the queue
+			pool.remove(task);
+			return task.supplier.get();
+		}
+		try {
+			return task.result.join();
+		} catch (CompletionException e) {
+			CubicChunks.LOGGER.error("Async terrain generation failed for cube at ({}, {}, {}), retrying on the server thread",
+				cubeX, cubeY, cubeZ, e.getCause());
+			return generator.generateCube(cubeX, cubeY, cubeZ);
+		}
+	}
+
+	/**
+	 * @return number of cubes waiting to be generated or taken
+	 */
+	int getPendingCount() {
+		return tasks.size();
+	}
+
+	void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+			tasks.clear();
+		}
+	}
+
+	private ThreadPoolExecutor createPool() {
+		AtomicInteger threadCounter = new AtomicInteger();
+		return new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(),
+			r -> {
+				Thread thread = new Thread(r, "Cube Generation Thread DIM" + dimension + " #" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+	}
+
+	private static class GenerationTask implements Runnable {
+		final Supplier<ICubePrimer> supplier;
+		private final AtomicBoolean started = new AtomicBoolean();
+		final CompletableFuture<ICubePrimer> result = new CompletableFuture<>();
+
+		GenerationTask(Supplier<ICubePrimer> supplier) {
+			this.supplier = supplier;
+		}
+
+		/**
+		 * Claim the task, so that only one thread generates the cube
+		 */
+		boolean tryStart() {
+			return started.compareAndSet(false, true);
+		}
+
+		@Override public void run() {
+			if (!tryStart()) {
+				return; // cancelled or taken by the server thread
+			}
+			try {
+				result.complete(supplier.get());
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		}
+	}
+}
@@ -23,47 +23,265 @@
  */
 package cubicchunks.server;
 
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Instead of checking every loaded cube, it keeps candidates: cubes that lost their last ticket or were loaded
+ * without one, and columns that were loaded without cubes. A candidate is unloaded once it's been unused for the
+ * unload delay, so cubes that are used again shortly after, for example when a player turns back, stay loaded.
+ * Candidates are handled oldest first, within a time budget per tick. A column is unloaded together with its last
+ * cube.
+ * <p>
+ * The estimated memory of all loaded cubes is tracked as well. The memory budget is shared by all worlds. While the
+ * cubes of all worlds together are above it, candidates are evicted without waiting for the unload delay, least
+ * recently used first, and {@link #isOverMemoryBudget()} tells others to slow down loading cubes that aren't needed
+ * right away. Cubes of a single block state are compacted when
+ * they are loaded and when they become unused, see {@link Cube#compactStorage()}.
+ * <p>
+ * Statistics are registered as {@code cubicchunks:type=ChunkGc,dimension=<id>} in the platform MBean server.
  */
-public class ChunkGc {
-	// GC every 10 seconds by default
-	private static final int GC_INTERVAL = 20*10;
+public class ChunkGc implements IConfigUpdateListener, ChunkGcMXBean {
 
 	private final CubeProviderServer cubeCache;
 
-	private int tick = 0;
+	// candidates in the order they became unused, with the tick when that happened
+	private final Map<Cube, Long> cubeCandidates = new LinkedHashMap<>();
+	private final Map<Column, Long> columnCandidates = new LinkedHashMap<>();
+	// estimated memory of each loaded cube, updated when it's loaded and when it loses its tickets
+	private final Map<Cube, Integer> cubeSizes = new HashMap<>();
+	private long cubeMemory = 0;
+	// of all worlds, they all tick on the main thread
+	private static long totalCubeMemory = 0;
+	private long memoryBudget;
+
+	private long tick = 0;
+	private long tickBudgetNanos;
+	private int unloadDelay;
+
+	// statistics, only written on the main thread
+	private volatile int cubeCandidateCount;
+	private volatile int columnCandidateCount;
+	private volatile int lastTickCubes;
+	private volatile int lastTickColumns;
+	private volatile long lastTickNanos;
+	private volatile long totalCubes;
+	private volatile long totalColumns;
+	private volatile long totalNanos;
+	private volatile long totalEvicted;
+	private volatile long cubeMemoryStat;
+
+	@Nullable private ObjectName mbeanName;
 
-	public ChunkGc(CubeProviderServer cubeCache) {
+	public ChunkGc(CubeProviderServer cubeCache, int dimension) {
 		this.cubeCache = cubeCache;
+		CubicChunks.addConfigChangeListener(this);
+		registerMBean(dimension);
+	}
+
+	@Override public void onConfigUpdate(CubicChunks.Config config) {
+		this.tickBudgetNanos = config.getChunkGcTickBudget()*1000000L;
+		this.unloadDelay = config.getChunkGcUnloadDelay();
+		int budgetMegabytes = config.getCubeMemoryBudget();
+		this.memoryBudget = budgetMegabytes == 0 ? Runtime.getRuntime().maxMemory()/4 : budgetMegabytes*1024L*1024L;
+	}
+
+	/**
+	 * Start tracking a cube that was added to the world. Main thread only.
+	 */
+	public void onCubeLoaded(Cube cube) {
+		cube.compactStorage();
+		int size = cube.estimateMemoryUsage();
+		Integer old = cubeSizes.put(cube, size);
+		addCubeMemory(size - (old == null ? 0 : old));
+		if (cube.getTickets().canUnload()) {
+			addCandidate(cube); // unloaded unless something takes it soon
+		}
+	}
+
+	/**
+	 * Consider unloading a cube, because it has no tickets. Main thread only.
+	 */
+	public void addCandidate(Cube cube) {
+		Integer old = cubeSizes.get(cube);
+		if (old == null) {
+			return; // it's not loaded anymore
+		}
+		// it may have changed while it was used
+		cube.compactStorage();
+		int size = cube.estimateMemoryUsage();
+		cubeSizes.put(cube, size);
+		addCubeMemory(size - old);
+
+		// if it's already there, it starts waiting again
+		cubeCandidates.remove(cube);
+		cubeCandidates.put(cube, tick);
+	}
+
+	/**
+	 * @return true if the loaded cubes of all worlds use more memory than they should. Loads that aren't needed right
+	 * away should wait then.
+	 */
+	public boolean isOverMemoryBudget() {
+		return totalCubeMemory > memoryBudget;
+	}
+
+	private void addCubeMemory(long bytes) {
+		cubeMemory += bytes;
+		totalCubeMemory += bytes;
+	}
+
+	/**
+	 * Consider unloading a column, because it may have no cubes. Main thread only.
+	 */
+	public void addCandidate(Column column) {
+		columnCandidates.remove(column);
+		columnCandidates.put(column, tick);
 	}
 
 	public void tick() {
 		tick++;
-		if (tick > GC_INTERVAL) {
-			tick = 0;
-			chunkGc();
+		long start = System.nanoTime();
+		long deadline = start + tickBudgetNanos;
+		int cubes = 0;
+		int columns = 0;
+		int evicted = 0;
+
+		Iterator<Map.Entry<Cube, Long>> cubeIt = cubeCandidates.entrySet().iterator();
+		while (cubeIt.hasNext() && System.nanoTime() < deadline) {
+			Map.Entry<Cube, Long> entry = cubeIt.next();
+			boolean early = tick - entry.getValue() < unloadDelay;
+			if (early && !isOverMemoryBudget()) {
+				break; // all the others became unused later
+			}
+			cubeIt.remove();
+			Cube cube = entry.getKey();
+			if (!cubeCache.tryUnloadCube(cube)) {
+				continue; // it's used again, it comes back when it loses its tickets
+			}
+			addCubeMemory(-cubeSizes.remove(cube));
+			cubes++;
+			if (early) {
+				evicted++;
+			}
+			Column column = cube.getColumn();
+			if (cubeCache.tryUnloadColumn(column)) {
+				columnCandidates.remove(column);
+				columns++;
+			}
+		}
+
+		Iterator<Map.Entry<Column, Long>> columnIt = columnCandidates.entrySet().iterator();
+		while (columnIt.hasNext() && System.nanoTime() < deadline) {
+			Map.Entry<Column, Long> entry = columnIt.next();
+			if (tick - entry.getValue() < unloadDelay) {
+				break;
+			}
+			columnIt.remove();
+			if (cubeCache.tryUnloadColumn(entry.getKey())) {
+				columns++;
+			}
 		}
+
+		long nanos = System.nanoTime() - start;
+		cubeCandidateCount = cubeCandidates.size();
+		columnCandidateCount = columnCandidates.size();
+		lastTickCubes = cubes;
+		lastTickColumns = columns;
+		lastTickNanos = nanos;
+		totalCubes += cubes;
+		totalColumns += columns;
+		totalNanos += nanos;
+		totalEvicted += evicted;
+		cubeMemoryStat = cubeMemory;
 	}
 
-	private void chunkGc() {
-		Iterator<Cube> cubeIt = cubeCache.cubesIterator();
-		while (cubeIt.hasNext()) {
-			if (cubeCache.tryUnloadCube(cubeIt.next())) {
-				cubeIt.remove();
+	/**
+	 * Stop tracking statistics and the memory of this world. Called when the world is unloaded.
+	 */
+	public void shutdown() {
+		addCubeMemory(-cubeMemory);
+		cubeSizes.clear();
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (Exception e) {
+				CubicChunks.LOGGER.warn("Unable to unregister chunk GC statistics", e);
 			}
+			mbeanName = null;
 		}
+	}
 
-		Iterator<Column> columnIt = cubeCache.columnsIterator();
-		while (columnIt.hasNext()) {
-			if (cubeCache.tryUnloadColumn(columnIt.next())) {
-				columnIt.remove();
+	private void registerMBean(int dimension) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("cubicchunks:type=ChunkGc,dimension=" + dimension);
+			// the world may have been unloaded without unregistering it, for example after a crash
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
 			}
+			server.registerMBean(this, name);
+			this.mbeanName = name;
+		} catch (Exception e) {
+			CubicChunks.LOGGER.warn("Unable to register chunk GC statistics for dimension " + dimension, e);
 		}
 	}
+
+	@Override public int getCubeCandidates() {
+		return cubeCandidateCount;
+	}
+
+	@Override public int getColumnCandidates() {
+		return columnCandidateCount;
+	}
+
+	@Override public int getLastTickUnloadedCubes() {
+		return lastTickCubes;
+	}
+
+	@Override public int getLastTickUnloadedColumns() {
+		return lastTickColumns;
+	}
+
+	@Override public long getLastTickNanos() {
+		return lastTickNanos;
+	}
+
+	@Override public long getTotalUnloadedCubes() {
+		return totalCubes;
+	}
+
+	@Override public long getTotalUnloadedColumns() {
+		return totalColumns;
+	}
+
+	@Override public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	@Override public long getTotalEvictedCubes() {
+		return totalEvicted;
+	}
+
+	@Override public long getEstimatedCubeMemory() {
+		return cubeMemoryStat;
+	}
+
+	@Override public long getCubeMemoryBudget() {
+		return memoryBudget;
+	}
 }
@@ -0,0 +1,74 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+/**
+ * Statistics of the chunk garbage collector of one dimension, registered as
+ * {@code cubicchunks:type=ChunkGc,dimension=<id>} in the platform MBean server.
+ */
+public interface ChunkGcMXBean {
+
+	/**
+	 * @return number of cubes without tickets waiting to be unloaded
+	 */
+	int getCubeCandidates();
+
+	/**
+	 * @return number of columns waiting to be unloaded
+	 */
+	int getColumnCandidates();
+
+	int getLastTickUnloadedCubes();
+
+	int getLastTickUnloadedColumns();
+
+	/**
+	 * @return time in nanoseconds spent unloading in the last tick
+	 */
+	long getLastTickNanos();
+
+	long getTotalUnloadedCubes();
+
+	long getTotalUnloadedColumns();
+
+	/**
+	 * @return total time in nanoseconds spent unloading
+	 */
+	long getTotalNanos();
+
+	/**
+	 * @return number of cubes unloaded before the unload delay, because the memory budget was exceeded
+	 */
+	long getTotalEvictedCubes();
+
+	/**
+	 * @return estimated memory in bytes used by the loaded cubes
+	 */
+	long getEstimatedCubeMemory();
+
+	/**
+	 * @return memory in bytes the loaded cubes should stay below
+	 */
+	long getCubeMemoryBudget();
+}
@@ -41,7 +41,6 @@ import cubicchunks.CubicChunks;
 import cubicchunks.network.PacketColumn;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.network.PacketUnloadColumn;
-import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XZAddressable;
 import cubicchunks.world.column.Column;
@@ -103,8 +102,8 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
 			this.getPlayers().remove(player);
 			if (this.getPlayers().isEmpty()) {
 				if (isLoading()) {
-					AsyncWorldIOExecutor.dropQueuedColumnLoad(
-						playerCubeMap.getWorld(), getPos().chunkXPos, getPos().chunkZPos, (c) -> loadedRunnable.run());
+					playerCubeMap.getWorld().getCubeCache().getAsyncIOExecutor().dropQueuedColumnLoad(
+						getPos().chunkXPos, getPos().chunkZPos, (c) -> loadedRunnable.run());
 				}
 				this.playerCubeMap.removeEntry(this);
 			}
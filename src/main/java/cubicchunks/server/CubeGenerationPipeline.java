@@ -0,0 +1,384 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.Box;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ICancellationToken;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Brings cubes to the {@link Requirement} they were requested with over the next ticks, instead of recursively
+ * generating everything needed at once.
+ * <p>
+ * Each requested cube waits in the queue of the stage it needs next: generation, population or initial lighting. A
+ * stage can only run when the cubes it depends on, the population requirement of the generator or the cubes
+ * around it for lighting, are loaded. Missing ones are requested as well, and the cube is tried again later. Every
+ * tick the queues are worked through in stage order, each stage getting an equal share of the tick budget that the
+ * stages before it didn't use. Loading from disk and terrain generation happen on other threads, so they don't count
+ * against the budget.
+ * <p>
+ * Requests can be cancelled with a token. Cubes that neither a request nor a cube depending on them still want are
+ * dropped at the start of the next tick, together with their queued load and terrain generation.
+ * <p>
+ * A request holds a ticket on its own cube once it's loaded and on the loaded cubes it depends on, so they aren't
+ * unloaded before it's done with them. The tickets are released when the request finishes or is dropped.
+ * <p>
+ * Server thread only.
+ */
+class CubeGenerationPipeline {
+
+	/**
+	 * Cubes that are loaded by {@link CubeProviderServer#calculateDiffuseSkylight(Cube)}
+	 */
+	private static final Box LIGHTING_REQUIREMENT = new Box(-2, -2, -2, 2, 2, 2);
+
+	private final CubeProviderServer cache;
+
+	private final Map<CubePos, Request> requests = new HashMap<>();
+	private final ArrayDeque<Request> toGenerate = new ArrayDeque<>();
+	private final ArrayDeque<Request> toPopulate = new ArrayDeque<>();
+	private final ArrayDeque<Request> toLight = new ArrayDeque<>();
+
+	private long tickBudgetNanos;
+
+	CubeGenerationPipeline(CubeProviderServer cache) {
+		this.cache = cache;
+	}
+
+	void setTickBudget(int millis) {
+		this.tickBudgetNanos = millis*1000000L;
+	}
+
+	/**
+	 * Request a cube to reach a stage, calling the callback once it's there
+	 *
+	 * @param req the stage to reach, at least {@link Requirement#GENERATE}
+	 * @param callback called with the cube when it's done
+	 * @param priority priority of loading the cube, see {@link CubeProviderServer#asyncGetCube(int, int, int,
+	 * Requirement, Consumer, DoubleSupplier)}
+	 * @param token cancels the request when the cube isn't wanted anymore, null if it can't be cancelled
+	 */
+	void request(int cubeX, int cubeY, int cubeZ, Requirement req, Consumer<Cube> callback,
+		@Nullable DoubleSupplier priority, @Nullable ICancellationToken token) {
+		CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+		Request request = requests.get(pos);
+		if (request == null) {
+			request = new Request(pos, req, priority);
+			requests.put(pos, request);
+			request.callbacks.add(new Callback(callback, token));
+			schedule(request);
+			return;
+		}
+		// it's waiting at a lower stage, raising the target makes it continue from there
+		if (req.compareTo(request.target) > 0) {
+			request.target = req;
+		}
+		request.callbacks.add(new Callback(callback, token));
+	}
+
+	/**
+	 * Request generating a cube that another one depends on. It's wanted for as long as the cube depending on it is.
+	 */
+	private void requestDependency(int cubeX, int cubeY, int cubeZ, Request dependent) {
+		CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+		Request request = requests.get(pos);
+		if (request == null) {
+			request = new Request(pos, Requirement.GENERATE, dependent.priority);
+			requests.put(pos, request);
+			request.dependents.add(dependent);
+			schedule(request);
+			return;
+		}
+		if (!request.dependents.contains(dependent)) {
+			request.dependents.add(dependent);
+		}
+	}
+
+	/**
+	 * @return number of cubes that didn't reach their stage yet
+	 */
+	int getPendingCount() {
+		return requests.size();
+	}
+
+	/**
+	 * Work through the stage queues, until the tick budget is used
+	 */
+	void tick() {
+		dropUnwanted();
+		long end = System.nanoTime() + tickBudgetNanos;
+		runStage(toGenerate, Requirement.GENERATE, System.nanoTime() + (end - System.nanoTime())/3);
+		runStage(toPopulate, Requirement.POPULATE, System.nanoTime() + (end - System.nanoTime())/2);
+		runStage(toLight, Requirement.LIGHT, end);
+	}
+
+	/**
+	 * Forget the requests nobody wants anymore. Their queued load is cancelled by its token, and they are skipped
+	 * when their stage queue gets to them.
+	 */
+	private void dropUnwanted() {
+		// decide for all of them first, dropping a request can make the cubes it depends on unwanted
+		List<Request> unwanted = new ArrayList<>();
+		for (Request request : requests.values()) {
+			if (!isWanted(request)) {
+				unwanted.add(request);
+			}
+		}
+		for (Request request : unwanted) {
+			requests.remove(request.pos);
+			release(request);
+			if (request.loadState == LoadState.NOT_STORED) {
+				CubePos pos = request.pos;
+				cache.cancelCubeTerrain(pos.getX(), pos.getY(), pos.getZ());
+			}
+		}
+	}
+
+	private boolean isWanted(Request request) {
+		if (request.hasLiveCallback()) {
+			return true;
+		}
+		// cubes are only dependencies of cubes that are requested for population or lighting, which have callbacks
+		for (Request dependent : request.dependents) {
+			if (requests.get(dependent.pos) == dependent && dependent.hasLiveCallback()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void runStage(ArrayDeque<Request> queue, Requirement stage, long deadline) {
+		// requests that get blocked again go back to the end, only look at each one once per tick
+		int count = queue.size();
+		while (count-- > 0 && System.nanoTime() < deadline) {
+			Request request = queue.poll();
+			if (requests.get(request.pos) != request) {
+				continue; // already finished
+			}
+			if (!advance(request, stage)) {
+				queue.add(request);
+			}
+		}
+	}
+
+	/**
+	 * Put the request in the queue of the next stage it needs, or start loading the cube
+	 */
+	private void schedule(Request request) {
+		Cube cube = cache.getLoadedCube(request.pos);
+		if (cube == null) {
+			if (request.loadState == LoadState.NOT_STORED) {
+				toGenerate.add(request);
+			} else if (request.loadState != LoadState.LOADING) {
+				load(request); // not loaded yet, or unloaded again
+			}
+			return;
+		}
+		if (request.target.compareTo(Requirement.GENERATE) > 0 && !cube.isFullyPopulated()) {
+			hold(request, cube);
+			toPopulate.add(request);
+			return;
+		}
+		if (request.target == Requirement.LIGHT && !cube.isInitialLightingDone()) {
+			hold(request, cube);
+			toLight.add(request);
+			return;
+		}
+		finish(request, cube);
+	}
+
+	private void load(Request request) {
+		CubePos pos = request.pos;
+		request.loadState = LoadState.LOADING;
+		cache.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.LOAD, cube -> {
+			if (requests.get(pos) != request) {
+				return; // dropped, the load just couldn't be cancelled anymore
+			}
+			request.loadState = cube == null ? LoadState.NOT_STORED : LoadState.LOADED;
+			if (cube == null) {
+				// start with the terrain meanwhile
+				cache.prefetchCubeTerrain(pos.getX(), pos.getY(), pos.getZ());
+			}
+			schedule(request);
+		}, request.priority, () -> requests.get(pos) != request);
+	}
+
+	/**
+	 * Do the work of a stage for a request, and schedule the next stage
+	 *
+	 * @return false if the stage can't run yet
+	 */
+	private boolean advance(Request request, Requirement stage) {
+		CubePos pos = request.pos;
+		Cube cube = cache.getLoadedCube(pos);
+		if (stage == Requirement.GENERATE) {
+			if (cube == null) {
+				Column column = cache.getLoadedColumn(pos.getX(), pos.getZ());
+				if (column == null) {
+					if (!request.columnLoading) {
+						request.columnLoading = true;
+						cache.asyncGetColumn(pos.getX(), pos.getZ(), Requirement.LIGHT, c -> request.columnLoading = false,
+							() -> requests.get(pos) != request);
+					}
+					return false;
+				}
+				cache.generateCube(pos.getX(), pos.getY(), pos.getZ(), column);
+			}
+		} else if (cube == null) {
+			// unloaded in the meantime, schedule loads it again
+		} else if (stage == Requirement.POPULATE) {
+			if (!cube.isFullyPopulated()) {
+				if (!requireLoaded(request, cache.getCubeGenerator().getPopulationRequirement(cube))) {
+					return false;
+				}
+				cache.populateCube(cube);
+			}
+		} else if (stage == Requirement.LIGHT) {
+			if (!cube.isInitialLightingDone()) {
+				if (!requireLoaded(request, LIGHTING_REQUIREMENT)) {
+					return false;
+				}
+				cache.calculateDiffuseSkylight(cube);
+			}
+		}
+		schedule(request);
+		return true;
+	}
+
+	/**
+	 * Check that all cubes in the box around a cube are loaded, and request generating the missing ones
+	 *
+	 * @return true if all of them are loaded
+	 */
+	private boolean requireLoaded(Request request, Box box) {
+		CubePos pos = request.pos;
+		boolean[] allLoaded = {true};
+		box.forEachPoint((x, y, z) -> {
+			int cubeX = pos.getX() + x, cubeY = pos.getY() + y, cubeZ = pos.getZ() + z;
+			Cube cube = cache.getLoadedCube(cubeX, cubeY, cubeZ);
+			if (cube == null) {
+				allLoaded[0] = false;
+				requestDependency(cubeX, cubeY, cubeZ, request);
+			} else {
+				hold(request, cube);
+			}
+		});
+		return allLoaded[0];
+	}
+
+	private void finish(Request request, Cube cube) {
+		requests.remove(request.pos);
+		// the cubes waiting for this one keep it loaded until they are done
+		for (Request dependent : request.dependents) {
+			if (requests.get(dependent.pos) == dependent) {
+				hold(dependent, cube);
+			}
+		}
+		for (Callback callback : request.callbacks) {
+			if (!callback.isCancelled()) {
+				callback.consumer.accept(cube);
+			}
+		}
+		// after the callbacks, they may take their own tickets
+		release(request);
+	}
+
+	private static void hold(Request request, Cube cube) {
+		if (!cube.getTickets().contains(request)) {
+			cube.getTickets().add(request);
+			request.held.add(cube);
+		}
+	}
+
+	private static void release(Request request) {
+		for (Cube cube : request.held) {
+			cube.getTickets().remove(request);
+		}
+		request.held.clear();
+	}
+
+	private enum LoadState {
+		NOT_LOADED, LOADING, LOADED, NOT_STORED
+	}
+
+	private static class Request implements ITicket {
+		final CubePos pos;
+		final List<Callback> callbacks = new ArrayList<>(1);
+		// requests that wait for this cube to be generated
+		final List<Request> dependents = new ArrayList<>(1);
+		// cubes this request has a ticket on
+		final List<Cube> held = new ArrayList<>(0);
+		@Nullable final DoubleSupplier priority;
+		Requirement target;
+		LoadState loadState = LoadState.NOT_LOADED;
+		boolean columnLoading = false;
+
+		Request(CubePos pos, Requirement target, @Nullable DoubleSupplier priority) {
+			this.pos = pos;
+			this.target = target;
+			this.priority = priority;
+		}
+
+		boolean hasLiveCallback() {
+			for (Callback callback : callbacks) {
+				if (!callback.isCancelled()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override public boolean shouldTick() {
+			return false;
+		}
+	}
+
+	private static class Callback {
+		final Consumer<Cube> consumer;
+		@Nullable final ICancellationToken token;
+
+		Callback(Consumer<Cube> consumer, @Nullable ICancellationToken token) {
+			this.consumer = consumer;
+			this.token = token;
+		}
+
+		boolean isCancelled() {
+			return token != null && token.isCancelled();
+		}
+	}
+}
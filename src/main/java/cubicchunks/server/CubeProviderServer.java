@@ -34,19 +34,31 @@ import net.minecraft.world.gen.ChunkProviderServer;
 
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 
 import javax.annotation.Detainted;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+import cubicchunks.server.chunkio.CubeDataCache;
 import cubicchunks.server.chunkio.CubeIO;
+import cubicchunks.server.chunkio.CubeMetaIndex;
+import cubicchunks.server.chunkio.SaveMetrics;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
+import cubicchunks.util.ICancellationToken;
+import cubicchunks.util.RegionTable;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
@@ -64,17 +76,36 @@ import cubicchunks.worldgen.generator.ICubePrimer;
  * (there may be some entities that are not in any Cube yet).
  * * dropChunk method is not supported. Columns are unloaded automatically when the last cube is unloaded
  */
-public class CubeProviderServer extends ChunkProviderServer implements ICubeProvider, IProviderExtras {
+public class CubeProviderServer extends ChunkProviderServer implements ICubeProvider, IProviderExtras, IConfigUpdateListener {
 
 	private static final Logger log = CubicChunks.LOGGER;
 
+	/**
+	 * True while the periodic autosave is running, set from MinecraftServer
+	 */
+	private static boolean autosaveInProgress = false;
+
 	private ICubicWorldServer worldServer;
 	private CubeIO cubeIO;
+	private AsyncWorldIOExecutor asyncIOExecutor;
 
-	// TODO: Use a better hash map!
-	private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+	// Loaded columns and cubes. Columns are also kept in vanilla's id2ChunkMap, for vanilla code that uses it directly
+	private RegionTable<Column, Cube> loadedTable = new RegionTable<>(256);
 
 	private ICubeGenerator cubeGen;
+	private AsyncTerrainGenerator terrainGen;
+	private CubeGenerationPipeline generationPipeline;
+	private ChunkGc chunkGc;
+
+	// Incremental autosave. Cubes are added to dirtyCubes when they become modified and removed when saved.
+	// Autosave only starts a pass over the cubes that are dirty at that time, the pass is done in unloadQueuedChunks
+	// over the next ticks, within autosaveTickBudget milliseconds per tick.
+	private final Set<Cube> dirtyCubes = new LinkedHashSet<>();
+	// cubes with entities may need saving without being modified, vanilla saves them on every autosave
+	private final Set<Cube> entityCubes = new HashSet<>();
+	private final Deque<Column> columnsToAutosave = new ArrayDeque<>();
+	private int cubesToAutosave = 0;
+	private int autosaveTickBudget;
 
 	public CubeProviderServer(ICubicWorldServer worldServer, ICubeGenerator cubeGen) {
 		super((WorldServer) worldServer,
@@ -82,9 +113,20 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			null); // safe to null out IChunkGenerator (Note: lets hope mods don't touch it, ik its public)
 
 		this.cubeGen = cubeGen;
+		this.terrainGen = new AsyncTerrainGenerator(cubeGen, worldServer.getProvider().getDimension());
 
 		this.worldServer = worldServer;
 		this.cubeIO = new CubeIO(worldServer);
+		this.asyncIOExecutor = new AsyncWorldIOExecutor(worldServer, cubeIO, this);
+		this.generationPipeline = new CubeGenerationPipeline(this);
+		this.chunkGc = new ChunkGc(this, worldServer.getProvider().getDimension());
+
+		CubicChunks.addConfigChangeListener(this);
+	}
+
+	@Override public void onConfigUpdate(CubicChunks.Config config) {
+		this.autosaveTickBudget = config.getAutosaveTickBudget();
+		this.generationPipeline.setTickBudget(config.getGenerationTickBudget());
 	}
 
 	@Override
@@ -105,7 +147,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	@Override
 	@Nullable
 	public Column getLoadedColumn(int columnX, int columnZ) {
-		return (Column) this.id2ChunkMap.get(ChunkPos.asLong(columnX, columnZ));
+		return this.loadedTable.getColumn(columnX, columnZ);
 	}
 
 	@Override
@@ -154,35 +196,141 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		return provideColumn(cubeX, cubeZ);
 	}
 
+	/**
+	 * Saves modified cubes and columns. The periodic autosave only starts an incremental save that is spread over the
+	 * next ticks, all other saves (shutdown, /save-all) queue everything for saving immediately. The IO thread writes
+	 * the queue, {@link #saveExtraData()} waits for it.
+	 */
 	@Override
 	public boolean saveChunks(boolean alwaysTrue) {
-		for (Cube cube : cubeMap) { // save cubes
+		if (autosaveInProgress) {
+			startIncrementalSave();
+		} else {
+			saveAll(alwaysTrue);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes everything queued for saving to disk before returning. Called by /save-all flush, on shutdown the storage
+	 * is closed by {@link #flush()} instead.
+	 */
+	@Override
+	public void saveExtraData() {
+		this.cubeIO.writeAll();
+	}
+
+	private void saveAll(boolean alwaysTrue) {
+		this.loadedTable.forEachCube(cube -> { // save cubes
 			if (cube.needsSaving()) {
 				this.cubeIO.saveCube(cube);
 			}
-		}
-		for (Chunk chunk : id2ChunkMap.values()) { // save columns
-			Column column = (Column) chunk;
-			// save the column
+		});
+		this.loadedTable.forEachColumn(column -> { // save columns
 			if (column.needsSaving(alwaysTrue)) {
 				this.cubeIO.saveColumn(column);
 			}
+		});
+		// everything is saved now
+		this.dirtyCubes.clear();
+		this.columnsToAutosave.clear();
+		this.cubesToAutosave = 0;
+	}
+
+	private void startIncrementalSave() {
+		// entity cubes go at the end, modified cubes are more important
+		this.dirtyCubes.addAll(this.entityCubes);
+		this.entityCubes.clear();
+		this.cubesToAutosave = this.dirtyCubes.size();
+
+		// checking columns is cheap, only saving them isn't
+		this.columnsToAutosave.clear();
+		this.loadedTable.forEachColumn(column -> {
+			if (column.needsSaving(true)) {
+				this.columnsToAutosave.add(column);
+			}
+		});
+	}
+
+	private void tickIncrementalSave() {
+		if (this.cubesToAutosave <= 0 && this.columnsToAutosave.isEmpty()) {
+			return;
 		}
+		if (this.worldServer.getDisableLevelSaving()) {
+			// saving has been disabled in the meantime, /save-off
+			this.cubesToAutosave = 0;
+			this.columnsToAutosave.clear();
+			return;
+		}
+		long timeStop = System.currentTimeMillis() + this.autosaveTickBudget;
 
-		return true;
+		while (!this.columnsToAutosave.isEmpty() && System.currentTimeMillis() < timeStop) {
+			Column column = this.columnsToAutosave.poll();
+			// it may have been unloaded or saved since the autosave started
+			if (getLoadedColumn(column.getX(), column.getZ()) == column && column.needsSaving(true)) {
+				this.cubeIO.saveColumn(column);
+			}
+		}
+
+		Iterator<Cube> it = this.dirtyCubes.iterator();
+		while (this.cubesToAutosave > 0 && it.hasNext() && System.currentTimeMillis() < timeStop) {
+			Cube cube = it.next();
+			it.remove();
+			this.cubesToAutosave--;
+			if (loadedTable.getCube(cube.getX(), cube.getY(), cube.getZ()) != cube) {
+				continue; // not loaded
+			}
+			if (cube.needsSaving()) {
+				this.cubeIO.saveCube(cube);
+			}
+			if (cube.getEntityContainer().hasActiveEntities()) {
+				this.entityCubes.add(cube);
+			}
+		}
+		if (!it.hasNext()) {
+			this.cubesToAutosave = 0;
+		}
+	}
+
+	/**
+	 * Called by cubes when they become modified
+	 */
+	public void onCubeModified(Cube cube) {
+		this.dirtyCubes.add(cube);
+	}
+
+	/**
+	 * Called by cubes when they have been saved, or loaded from disk
+	 */
+	public void onCubeSaved(Cube cube) {
+		this.dirtyCubes.remove(cube);
+	}
+
+	public static void setAutosaveInProgress(boolean autosave) {
+		autosaveInProgress = autosave;
 	}
 
 	@Override
 	public boolean unloadQueuedChunks() {
 		// NOTE: the return value is completely ignored
-		// NO-OP, This is called by WorldServer's tick() method every tick
+		// This is called by WorldServer's tick() method every tick, ChunkGc unloads cubes
+		worldServer.getProfiler().startSection("cubeGeneration");
+		generationPipeline.tick();
+		worldServer.getProfiler().endSection();
+		tickIncrementalSave();
 		return false;
 	}
 
 	@Override
 	public String makeString() {
-		return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
-			+ this.cubeMap.getSize() + " cubes";
+		return "CubeProviderServer: " + this.loadedTable.getColumnCount() + " columns, "
+			+ this.loadedTable.getCubeCount() + " cubes, "
+			+ this.cubeIO.getSaveMetrics().getQueuedCubes() + " cubes queued for saving, "
+			+ this.asyncIOExecutor.getFinishedBacklog() + " loads waiting to finish, "
+			+ this.terrainGen.getPendingCount() + " cubes generating, "
+			+ this.generationPipeline.getPendingCount() + " cubes waiting for generation stages, "
+			+ this.chunkGc.getCubeCandidates() + " cubes waiting to unload, "
+			+ this.chunkGc.getEstimatedCubeMemory()/(1024*1024) + " MB estimated cube memory";
 	}
 
 	@Override
@@ -199,7 +347,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
 	@Override
 	public boolean chunkExists(int cubeX, int cubeZ) {
-		return this.id2ChunkMap.get(ChunkPos.asLong(cubeX, cubeZ)) != null;
+		return this.loadedTable.getColumn(cubeX, cubeZ) != null;
 	}
 
 	//==============================
@@ -218,7 +366,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
 	@Override
 	public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
-		return cubeMap.get(cubeX, cubeY, cubeZ);
+		return loadedTable.getCube(cubeX, cubeY, cubeZ);
 	}
 
 	@Override
@@ -226,6 +374,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
 	}
 
+	@Override
+	public void forEachLoadedInBox(Box box, Consumer<Cube> consumer) {
+		loadedTable.forEachCubeInBox(box.getX1(), box.getY1(), box.getZ1(), box.getX2(), box.getY2(), box.getZ2(), consumer);
+	}
+
 	/**
 	 * Load a cube, asynchronously. The work done to retrieve the column is specified by the
 	 * {@link Requirement} <code>req</code>
@@ -240,22 +393,56 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	 * @see #getCube(int, int, int, Requirement) for the synchronous equivalent to this method
 	 */
 	public void asyncGetCube(int cubeX, int cubeY, int cubeZ, @Nonnull Requirement req, @Nonnull Consumer<Cube> callback) {
+		asyncGetCube(cubeX, cubeY, cubeZ, req, callback, null);
+	}
+
+	/**
+	 * Load a cube asynchronously like {@link #asyncGetCube(int, int, int, Requirement, Consumer)}, loading cubes with
+	 * lower priority values first.
+	 * <p>
+	 * Generation, population and lighting are done in stages over the next ticks, within the generation tick budget.
+	 * Unlike {@link #getCube(int, int, int, Requirement)}, this doesn't generate the surrounding cubes all at once.
+	 *
+	 * @param priority supplies the priority of the load, called on the main thread. For example the squared distance
+	 * to the closest player.
+	 */
+	public void asyncGetCube(int cubeX, int cubeY, int cubeZ, @Nonnull Requirement req, @Nonnull Consumer<Cube> callback,
+		@Nullable DoubleSupplier priority) {
+		asyncGetCube(cubeX, cubeY, cubeZ, req, callback, priority, null);
+	}
+
+	/**
+	 * Load a cube asynchronously like {@link #asyncGetCube(int, int, int, Requirement, Consumer, DoubleSupplier)},
+	 * until the token is cancelled. Loading, generation, population and lighting that nothing else waits for are
+	 * skipped after that, and the callback isn't called.
+	 *
+	 * @param token cancels the request when the cube isn't wanted anymore, null if it can't be cancelled
+	 */
+	public void asyncGetCube(int cubeX, int cubeY, int cubeZ, @Nonnull Requirement req, @Nonnull Consumer<Cube> callback,
+		@Nullable DoubleSupplier priority, @Nullable ICancellationToken token) {
 		Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
 		if (req == Requirement.GET_CACHED || (cube != null && req.compareTo(Requirement.GENERATE) <= 0)) {
 			callback.accept(cube);
 			return;
 		}
 
-		if (cube == null) {
-			AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, loaded -> {
-				Column col = getLoadedColumn(cubeX, cubeZ);
-				if (col != null) {
-					onCubeLoaded(loaded, col);
-				}
-				loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, req);
-				callback.accept(loaded);
-			});
+		if (req.compareTo(Requirement.LOAD) > 0) {
+			generationPipeline.request(cubeX, cubeY, cubeZ, req, callback, priority, token);
+			return;
 		}
+
+		if (cube == null && !cubeIO.getCubeMetaIndex().mightExist(cubeX, cubeY, cubeZ)) {
+			callback.accept(null);
+			return;
+		}
+
+		asyncIOExecutor.queueCubeLoad(cubeX, cubeY, cubeZ, loaded -> {
+			Column col = getLoadedColumn(cubeX, cubeZ);
+			if (col != null) {
+				onCubeLoaded(loaded, col);
+			}
+			callback.accept(loaded);
+		}, priority, token);
 	}
 
 	@Override
@@ -274,8 +461,12 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			return cube; // Column did not reach req, so Cube also does not
 		}
 
+		if (cube == null && req == Requirement.LOAD && !cubeIO.getCubeMetaIndex().mightExist(cubeX, cubeY, cubeZ)) {
+			return null; // not stored, no need to try reading it
+		}
+
 		if (cube == null) {
-			cube = AsyncWorldIOExecutor.syncCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ);
+			cube = asyncIOExecutor.syncCubeLoad(cubeX, cubeY, cubeZ);
 			onCubeLoaded(cube, column);
 		}
 
@@ -290,7 +481,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	 */
 	private void onCubeLoaded(@Nullable Cube cube, @Nonnull Column column) {
 		if (cube != null) {
-			cubeMap.put(cube); // cache the Cube
+			loadedTable.putCube(cube); // cache the Cube
 			//synchronous loading may cause it to be called twice when async loading has been already queued
 			//because AsyncWorldIOExecutor only executes one task for one cube and because only saving a cube
 			//can modify one that is being loaded, it's impossible to end up with 2 versions of the same cube
@@ -298,6 +489,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			if (!column.getLoadedCubes().contains(cube)) {
 				column.addCube(cube);
 				cube.onLoad(); // init the Cube
+				cube.getTickets().setEmptyListener(() -> chunkGc.addCandidate(cube));
+				chunkGc.onCubeLoaded(cube);
 			}
 		}
 	}
@@ -357,8 +550,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	 * @return The generated cube
 	 */
 	@Nonnull
-	private Cube generateCube(int cubeX, int cubeY, int cubeZ, @Nonnull Column column) {
-		ICubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+	Cube generateCube(int cubeX, int cubeY, int cubeZ, @Nonnull Column column) {
+		ICubePrimer primer = terrainGen.generate(cubeX, cubeY, cubeZ);
 		Cube cube = new Cube(column, cubeY, primer);
 
 		this.worldServer.getFirstLightProcessor()
@@ -367,18 +560,46 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		return cube;
 	}
 
+	/**
+	 * Start generating the terrain of a cube on another thread, if it's neither loaded nor stored and the generator
+	 * supports it. Generating the cube later only has to wait for the result.
+	 *
+	 * @param cubeX Cube x position
+	 * @param cubeY Cube y position
+	 * @param cubeZ Cube z position
+	 */
+	public void prefetchCubeTerrain(int cubeX, int cubeY, int cubeZ) {
+		if (getLoadedCube(cubeX, cubeY, cubeZ) != null || cubeIO.getCubeMetaIndex().mightExist(cubeX, cubeY, cubeZ)) {
+			return;
+		}
+		terrainGen.prefetch(cubeX, cubeY, cubeZ);
+	}
+
+	/**
+	 * Drop the prefetched terrain of a cube that isn't needed anymore
+	 */
+	public void cancelCubeTerrain(int cubeX, int cubeY, int cubeZ) {
+		terrainGen.cancel(cubeX, cubeY, cubeZ);
+	}
+
 	/**
 	 * Populate a cube at the specified position, generating surrounding cubes as necessary
 	 *
 	 * @param cube The cube to populate
 	 */
-	private void populateCube(@Nonnull Cube cube) {
+	void populateCube(@Nonnull Cube cube) {
 		int cubeX = cube.getX();
 		int cubeY = cube.getY();
 		int cubeZ = cube.getZ();
 
-		cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
-			Cube popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
+		Box requirement = cubeGen.getPopulationRequirement(cube);
+		Cube[] loaded = findLoadedCubes(requirement, cubeX, cubeY, cubeZ);
+		requirement.forEachPoint((x, y, z) -> {
+			// populating may load more cubes, getCube finds them. The order has to stay the same, it changes the terrain
+			Cube popcube = loaded[boxIndex(requirement, x, y, z)];
+			if (popcube == null) {
+				popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
+			}
 			if (!popcube.isPopulated()) {
 				cubeGen.populate(popcube);
 				popcube.setPopulated(true);
@@ -387,20 +608,42 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		cube.setFullyPopulated(true);
 	}
 
+	/**
+	 * Find the loaded cubes in a box relative to the given cube position with one box scan
+	 *
+	 * @return the cubes, indexed by {@link #boxIndex(Box, int, int, int)}
+	 */
+	private Cube[] findLoadedCubes(Box box, int cubeX, int cubeY, int cubeZ) {
+		Cube[] loaded = new Cube[(box.getX2() - box.getX1() + 1)*(box.getY2() - box.getY1() + 1)*(box.getZ2() - box.getZ1() + 1)];
+		forEachLoadedInBox(new Box(
+				box.getX1() + cubeX, box.getY1() + cubeY, box.getZ1() + cubeZ,
+				box.getX2() + cubeX, box.getY2() + cubeY, box.getZ2() + cubeZ),
+			c -> loaded[boxIndex(box, c.getX() - cubeX, c.getY() - cubeY, c.getZ() - cubeZ)] = c);
+		return loaded;
+	}
+
+	private static int boxIndex(Box box, int x, int y, int z) {
+		int sizeY = box.getY2() - box.getY1() + 1;
+		int sizeZ = box.getZ2() - box.getZ1() + 1;
+		return ((x - box.getX1())*sizeY + y - box.getY1())*sizeZ + z - box.getZ1();
+	}
+
 	/**
 	 * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
 	 *
 	 * @param cube The cube to light up
 	 */
-	private void calculateDiffuseSkylight(@Nonnull Cube cube) {
+	void calculateDiffuseSkylight(@Nonnull Cube cube) {
 		int cubeX = cube.getX();
 		int cubeY = cube.getY();
 		int cubeZ = cube.getZ();
 
+		Box box = new Box(-2, -2, -2, 2, 2, 2);
+		Cube[] loaded = findLoadedCubes(box, cubeX, cubeY, cubeZ);
 		for (int x = -2; x <= 2; x++) {
 			for (int z = -2; z <= 2; z++) {
 				for (int y = 2; y >= -2; y--) {
-					if (x != 0 || y != 0 || z != 0) {
+					if ((x != 0 || y != 0 || z != 0) && loaded[boxIndex(box, x, y, z)] == null) {
 						getCube(x + cubeX, y + cubeY, z + cubeZ);
 					}
 				}
@@ -423,16 +666,27 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	 * @see CubeProviderServer#getColumn(int, int, Requirement) for the synchronous variant of this method
 	 */
 	public void asyncGetColumn(int columnX, int columnZ, Requirement req, Consumer<Column> callback) {
+		asyncGetColumn(columnX, columnZ, req, callback, null);
+	}
+
+	/**
+	 * Retrieve a column asynchronously like {@link #asyncGetColumn(int, int, Requirement, Consumer)}, until the token
+	 * is cancelled
+	 *
+	 * @param token cancels the request when the column isn't wanted anymore, null if it can't be cancelled
+	 */
+	public void asyncGetColumn(int columnX, int columnZ, Requirement req, Consumer<Column> callback,
+		@Nullable ICancellationToken token) {
 		Column column = getLoadedColumn(columnX, columnZ);
 		if (column != null || req == Requirement.GET_CACHED) {
 			callback.accept(column);
 			return;
 		}
 
-		AsyncWorldIOExecutor.queueColumnLoad(worldServer, cubeIO, columnX, columnZ, col -> {
+		asyncIOExecutor.queueColumnLoad(columnX, columnZ, col -> {
 			col = postProcessColumn(columnX, columnZ, col, req);
 			callback.accept(col);
-		});
+		}, token);
 	}
 
 
@@ -444,7 +698,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			return column;
 		}
 
-		column = AsyncWorldIOExecutor.syncColumnLoad(worldServer, cubeIO, columnX, columnZ);
+		column = asyncIOExecutor.syncColumnLoad(columnX, columnZ);
 		column = postProcessColumn(columnX, columnZ, column, req);
 
 		return column;
@@ -463,9 +717,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	@Nullable
 	private Column postProcessColumn(int columnX, int columnZ, Column column, Requirement req) {
 		if (column != null) {
+			loadedTable.putColumn(column);
 			id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), column);
 			column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
 			column.onChunkLoad();
+			chunkGc.addCandidate(column);
 			return column;
 		} else if (req == Requirement.LOAD) {
 			return null;
@@ -474,9 +730,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		column = new Column(this, worldServer, columnX, columnZ);
 		cubeGen.generateColumn(column);
 
+		loadedTable.putColumn(column);
 		id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), column);
 		column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
 		column.onChunkLoad();
+		chunkGc.addCandidate(column);
 		return column;
 	}
 
@@ -507,19 +765,49 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	}
 
 	public void flush() {
+		this.asyncIOExecutor.shutdown();
+		this.terrainGen.shutdown();
+		this.chunkGc.shutdown();
 		this.cubeIO.flush();
 	}
 
-	Iterator<Cube> cubesIterator() {
-		return cubeMap.iterator();
+	/**
+	 * @return the executor that loads cubes and columns of this world asynchronously
+	 */
+	public AsyncWorldIOExecutor getAsyncIOExecutor() {
+		return this.asyncIOExecutor;
 	}
 
-	@SuppressWarnings("unchecked")
-	Iterator<Column> columnsIterator() {
-		return (Iterator<Column>) (Object) id2ChunkMap.values().iterator();
+	/**
+	 * @return the garbage collector that unloads unused cubes and columns of this world
+	 */
+	public ChunkGc getChunkGc() {
+		return this.chunkGc;
+	}
+
+	ICubeGenerator getCubeGenerator() {
+		return this.cubeGen;
+	}
+
+	public SaveMetrics getSaveMetrics() {
+		return this.cubeIO.getSaveMetrics();
+	}
+
+	public CubeDataCache getCubeDataCache() {
+		return this.cubeIO.getCubeDataCache();
+	}
+
+	/**
+	 * @return status of the stored cubes, to check if a cube exists, is populated or lit without loading it
+	 */
+	public CubeMetaIndex getCubeMetaIndex() {
+		return this.cubeIO.getCubeMetaIndex();
 	}
 
 	boolean tryUnloadCube(Cube cube) {
+		if (loadedTable.getCube(cube.getX(), cube.getY(), cube.getZ()) != cube) {
+			return false; // already unloaded
+		}
 		if (!cube.getTickets().canUnload()) {
 			return false; // There are tickets
 		}
@@ -530,12 +818,19 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		if (cube.needsSaving()) { // save the Cube, if it needs saving
 			this.cubeIO.saveCube(cube);
 		}
+		this.dirtyCubes.remove(cube);
+		this.entityCubes.remove(cube);
 
 		cube.getColumn().removeCube(cube.getY());
+		cube.getTickets().setEmptyListener(null);
+		loadedTable.removeCube(cube.getX(), cube.getY(), cube.getZ());
 		return true;
 	}
 
 	boolean tryUnloadColumn(Column column) {
+		if (getLoadedColumn(column.getX(), column.getZ()) != column) {
+			return false; // already unloaded
+		}
 		if (column.hasLoadedCubes()) {
 			return false; // It has loaded Cubes in it
 			// (Cubes are to Columns, as tickets are to Cubes... in a way)
@@ -548,6 +843,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		if (column.needsSaving(true)) { // save the Column, if it needs saving
 			this.cubeIO.saveColumn(column);
 		}
+		loadedTable.removeColumn(column.getX(), column.getZ());
+		id2ChunkMap.remove(ChunkPos.asLong(column.getX(), column.getZ()));
 		return true;
 	}
 }
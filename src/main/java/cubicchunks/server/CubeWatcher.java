@@ -48,9 +48,9 @@ import cubicchunks.network.PacketCube;
 import cubicchunks.network.PacketCubeBlockChange;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.network.PacketUnloadCube;
-import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
+import cubicchunks.util.ICancellationToken;
 import cubicchunks.util.XYZAddressable;
 import cubicchunks.util.ticket.ITicket;
 import cubicchunks.world.ICubicWorld;
@@ -77,6 +77,10 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 	private long previousWorldTime = 0;
 	private boolean sentToPlayers = false;
 	private boolean loading = true;
+	private boolean generating = false;
+	// set once no player watches the cube anymore, cancels its load and generation
+	private boolean invalid = false;
+	private final ICancellationToken cancellation = () -> this.invalid;
 
 	// CHECKED: 1.10.2-12.18.1.2092
 	public CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
@@ -85,7 +89,9 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 		this.cubeCache.asyncGetCube(
 			cubePos.getX(), cubePos.getY(), cubePos.getZ(),
 			IProviderExtras.Requirement.LOAD,
-			consumer);
+			consumer,
+			this::getClosestPlayerDistance,
+			cancellation);
 		this.cubePos = cubePos;
 	}
 
@@ -116,10 +122,11 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 			this.players.remove(player.getEntityId());
 
 			if (this.players.isEmpty()) {
+				this.invalid = true;
 				if (loading) {
-					AsyncWorldIOExecutor.dropQueuedCubeLoad(this.playerCubeMap.getWorld(),
+					this.cubeCache.getAsyncIOExecutor().dropQueuedCubeLoad(
 						cubePos.getX(), cubePos.getY(), cubePos.getZ(),
-						c -> this.cube = c);
+						consumer);
 				}
 				playerCubeMap.removeEntry(this);
 			}
@@ -135,13 +142,14 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 		//net.minecraftforge.common.MinecraftForge.EVENT_BUS.post(new net.minecraftforge.event.world.ChunkWatchEvent.UnWatch(this.pos, player));
 
 		if (this.players.isEmpty()) {
+			this.invalid = true;
 			playerCubeMap.removeEntry(this);
 		}
 	}
 
 	// CHECKED: 1.10.2-12.18.1.2092
 	public boolean providePlayerCube(boolean canGenerate) {
-		if (loading) {
+		if (loading || generating) {
 			return false;
 		}
 		if (this.cube != null && (!canGenerate || (cube.isFullyPopulated() && cube.isInitialLightingDone()))) {
@@ -153,16 +161,39 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 
 		playerCubeMap.getWorld().getProfiler().startSection("getCube");
 		if (canGenerate) {
-			this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT);
+			// generated, populated and lit in stages over the next ticks
+			this.generating = true;
+			this.cubeCache.asyncGetCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT, c -> {
+				this.generating = false;
+				this.cube = c;
+				if (this.cube != null) {
+					this.cube.getTickets().add(this);
+				}
+			}, this::getClosestPlayerDistance, cancellation);
 		} else {
 			this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LOAD);
-		}
-		if (this.cube != null) {
-			this.cube.getTickets().add(this);
+			if (this.cube != null) {
+				this.cube.getTickets().add(this);
+			}
 		}
 		playerCubeMap.getWorld().getProfiler().endSection();
 
-		return this.cube != null;
+		return this.cube != null && !this.generating
+			&& (!canGenerate || (cube.isFullyPopulated() && cube.isInitialLightingDone()));
+	}
+
+	/**
+	 * @return true while the cube is being loaded from storage
+	 */
+	public boolean isLoading() {
+		return loading;
+	}
+
+	/**
+	 * @return true while the cube is waiting to be generated, populated or lit
+	 */
+	public boolean isGenerating() {
+		return generating;
 	}
 
 	public boolean isSentToPlayers() {
@@ -285,8 +285,25 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 		if (!this.cubesToGenerate.isEmpty()) {
 			getWorld().getProfiler().startSection("cubes");
 
+			// while loaded cubes use too much memory, only the nearest cubes are generated, slowly
+			boolean overMemoryBudget = this.cubeCache.getChunkGc().isOverMemoryBudget();
+
+			getWorld().getProfiler().startSection("prefetch");
+			// the terrain of the nearest cubes is generated on other threads meanwhile, when the generator supports it
+			int cubesToPrefetch = overMemoryBudget ? 0 : maxGeneratedCubesPerTick*2;
+			for (CubeWatcher watcher : this.cubesToGenerate) {
+				if (--cubesToPrefetch < 0) {
+					break;
+				}
+				if (watcher.getCube() == null && !watcher.isLoading() && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+					CubePos pos = watcher.getCubePos();
+					this.cubeCache.prefetchCubeTerrain(pos.getX(), pos.getY(), pos.getZ());
+				}
+			}
+			getWorld().getProfiler().endSection(); // prefetch
+
 			long stopTime = System.nanoTime() + 50000000L;
-			int chunksToGenerate = maxGeneratedCubesPerTick;
+			int chunksToGenerate = overMemoryBudget ? Math.max(1, maxGeneratedCubesPerTick/4) : maxGeneratedCubesPerTick;
 			Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
 
 			while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
@@ -646,6 +663,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 	private void setNeedSort() {
 		this.toGenerateNeedSort = true;
 		this.toSendToClientNeedSort = true;
+		// queued cube loads are ordered by distance too
+		this.cubeCache.getAsyncIOExecutor().markPrioritiesChanged();
 	}
 
 	@Override
@@ -672,6 +691,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 		this.cubesToSendToClients.remove(cubeWatcher);
 		if (cubeWatcher.getCube() != null) {
 			cubeWatcher.getCube().getTickets().remove(cubeWatcher); // remove the ticket, so this Cube can unload
+		} else {
+			this.cubeCache.cancelCubeTerrain(cubePos.getX(), cubePos.getY(), cubePos.getZ());
 		}
 		//don't unload, ChunkGc unloads chunks
 	}
@@ -0,0 +1,298 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.Coords;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Binary cube format, written directly from and read directly into {@link ExtendedBlockStorage}. Only entities, tile
+ * entities and scheduled ticks are stored as NBT.
+ * <p>
+ * Layout (version 2):
+ * <pre>
+ * byte    FORMAT_ID
+ * byte    version
+ * int     x, y, z
+ * byte    flags
+ * if FLAG_HAS_BLOCKS:
+ *   block state palette and indices, see {@link BlockPaletteCodec}
+ *   if FLAG_UNIFORM_BLOCKLIGHT: byte light value, else byte[2048] block light
+ *   if FLAG_HAS_SKYLIGHT:
+ *     if FLAG_UNIFORM_SKYLIGHT: byte light value, else byte[2048] sky light
+ * int     last height map length, int[] last height map
+ * NBT     compound with Entities, TileEntities and TileTicks
+ * </pre>
+ * Version 1 stored the blocks as byte[4096] block ids, byte[2048] block metadata and, if FLAG_HAS_ADD is set,
+ * byte[2048] block id high bits, followed by both light arrays in full.
+ * <p>
+ * Uncompressed NBT always starts with the compound tag id, so both formats can be stored side by side.
+ */
+@SuppressWarnings("deprecation") // Block.BLOCK_STATE_IDS
+class BinaryCubeFormat {
+
+	private static final byte FORMAT_ID = (byte) 0xCC;
+	private static final byte VERSION = 2;
+
+	private static final int FLAG_POPULATED = 1;
+	private static final int FLAG_FULLY_POPULATED = 1 << 1;
+	private static final int FLAG_INIT_LIGHT_DONE = 1 << 2;
+	private static final int FLAG_HAS_BLOCKS = 1 << 3;
+	private static final int FLAG_HAS_ADD = 1 << 4; // version 1 only
+	private static final int FLAG_HAS_SKYLIGHT = 1 << 5;
+	private static final int FLAG_UNIFORM_BLOCKLIGHT = 1 << 6;
+	private static final int FLAG_UNIFORM_SKYLIGHT = 1 << 7;
+
+	private static final int BLOCK_COUNT = Cube.SIZE*Cube.SIZE*Cube.SIZE;
+	private static final int HEIGHT_MAP_LENGTH = Cube.SIZE*Cube.SIZE;
+
+	private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+	private BinaryCubeFormat() {
+		throw new RuntimeException();
+	}
+
+	/**
+	 * @param raw uncompressed cube data
+	 *
+	 * @return true if the data is in binary format, false if it's NBT
+	 */
+	static boolean isBinary(byte[] raw) {
+		return raw.length > 0 && raw[0] == FORMAT_ID;
+	}
+
+	/**
+	 * Reads only the flags from the header, without reading the rest of the cube
+	 *
+	 * @param raw uncompressed cube data in binary format
+	 *
+	 * @return the {@link CubeMetaIndex} status bits of the cube
+	 */
+	static int readStatus(byte[] raw) throws IOException {
+		// FORMAT_ID, version and position come before the flags
+		final int flagsOffset = 2 + 3*4;
+		if (!isBinary(raw) || raw.length <= flagsOffset) {
+			throw new IOException("Not a binary cube");
+		}
+		int flags = raw[flagsOffset];
+		return CubeMetaIndex.EXISTS
+			| ((flags & FLAG_POPULATED) != 0 ? CubeMetaIndex.POPULATED : 0)
+			| ((flags & FLAG_FULLY_POPULATED) != 0 ? CubeMetaIndex.FULLY_POPULATED : 0)
+			| ((flags & FLAG_INIT_LIGHT_DONE) != 0 ? CubeMetaIndex.INITIAL_LIGHTING_DONE : 0);
+	}
+
+	/**
+	 * Serializes the snapshot. Can be called from any thread.
+	 */
+	static byte[] write(CubeSnapshot cube) throws IOException {
+		int flags = 0;
+		if (cube.populated) {
+			flags |= FLAG_POPULATED;
+		}
+		if (cube.fullyPopulated) {
+			flags |= FLAG_FULLY_POPULATED;
+		}
+		if (cube.initLightDone) {
+			flags |= FLAG_INIT_LIGHT_DONE;
+		}
+		if (cube.hasBlocks) {
+			flags |= FLAG_HAS_BLOCKS;
+			if (isUniform(cube.blockLight)) {
+				flags |= FLAG_UNIFORM_BLOCKLIGHT;
+			}
+			if (cube.skyLight != null) {
+				flags |= FLAG_HAS_SKYLIGHT;
+				if (isUniform(cube.skyLight)) {
+					flags |= FLAG_UNIFORM_SKYLIGHT;
+				}
+			}
+		}
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(cube.hasBlocks ? 8192 : 2048);
+		DataOutputStream out = new DataOutputStream(buf);
+		out.writeByte(FORMAT_ID);
+		out.writeByte(VERSION);
+		out.writeInt(cube.x);
+		out.writeInt(cube.y);
+		out.writeInt(cube.z);
+		out.writeByte(flags);
+
+		if (cube.hasBlocks) {
+			BlockPaletteCodec.write(cube.getBlockIds(), out);
+			writeLight(cube.blockLight, (flags & FLAG_UNIFORM_BLOCKLIGHT) != 0, out);
+			if (cube.skyLight != null) {
+				writeLight(cube.skyLight, (flags & FLAG_UNIFORM_SKYLIGHT) != 0, out);
+			}
+		}
+
+		out.writeInt(cube.lastHeightMap.length);
+		for (int height : cube.lastHeightMap) {
+			out.writeInt(height);
+		}
+
+		CompressedStreamTools.write(cube.nbt, out);
+
+		out.flush();
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Reads everything that can be read outside of the main thread
+	 *
+	 * @return the partially read cube, or null if the data is corrupted and the cube should be regenerated
+	 */
+	@Nullable
+	static CubeIO.PartialCubeData readAsyncPart(Column column, int cubeX, int cubeY, int cubeZ, byte[] raw) throws IOException {
+		if (column.getX() != cubeX || column.getZ() != cubeZ) {
+			throw new IllegalArgumentException(String.format("Invalid column (%d, %d) for cube at (%d, %d, %d)",
+				column.getX(), column.getZ(), cubeX, cubeY, cubeZ));
+		}
+		ICubicWorld world = column.getCubicWorld();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+		if (in.readByte() != FORMAT_ID) {
+			throw new IOException("Not a binary cube");
+		}
+		byte version = in.readByte();
+		if (version != 1 && version != 2) {
+			throw new IllegalArgumentException("Cube has wrong version! " + version);
+		}
+
+		// check the coordinates
+		int xCheck = in.readInt();
+		int yCheck = in.readInt();
+		int zCheck = in.readInt();
+		if (xCheck != cubeX || yCheck != cubeY || zCheck != cubeZ) {
+			CubicChunks.LOGGER.error(String.format("Cube is corrupted! Expected (%d,%d,%d) but got (%d,%d,%d). Cube will be regenerated.", cubeX, cubeY, cubeZ, xCheck, yCheck, zCheck));
+			return null;
+		}
+
+		int flags = in.readUnsignedByte();
+
+		Cube cube = new Cube(column, cubeY);
+		cube.setPopulated((flags & FLAG_POPULATED) != 0);
+		cube.setFullyPopulated((flags & FLAG_FULLY_POPULATED) != 0);
+		cube.setInitialLightingDone((flags & FLAG_INIT_LIGHT_DONE) != 0);
+
+		if ((flags & FLAG_HAS_BLOCKS) != 0) {
+			ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), !world.getProvider().getHasNoSky());
+
+			if (version == 1) {
+				byte[] blocks = readBytes(in, BLOCK_COUNT);
+				NibbleArray meta = new NibbleArray(readBytes(in, BLOCK_COUNT/2));
+				NibbleArray add = (flags & FLAG_HAS_ADD) != 0 ? new NibbleArray(readBytes(in, BLOCK_COUNT/2)) : null;
+				ebs.getData().setDataFromNBT(blocks, meta, add);
+			} else {
+				setBlockIds(ebs.getData(), BlockPaletteCodec.read(in, BLOCK_COUNT));
+			}
+
+			ebs.setBlocklightArray(new NibbleArray(readLight(in, version == 2 && (flags & FLAG_UNIFORM_BLOCKLIGHT) != 0)));
+			if ((flags & FLAG_HAS_SKYLIGHT) != 0) {
+				NibbleArray skyLight = new NibbleArray(readLight(in, version == 2 && (flags & FLAG_UNIFORM_SKYLIGHT) != 0));
+				if (!world.getProvider().getHasNoSky()) {
+					ebs.setSkylightArray(skyLight);
+				}
+			}
+
+			ebs.removeInvalidBlocks();
+			cube.setStorage(ebs);
+		}
+
+		int heightMapLength = in.readInt();
+		if (heightMapLength != HEIGHT_MAP_LENGTH) {
+			throw new IOException("Invalid height map length " + heightMapLength);
+		}
+		int[] lastHeightMap = new int[heightMapLength];
+		for (int i = 0; i < lastHeightMap.length; i++) {
+			lastHeightMap[i] = in.readInt();
+		}
+
+		NBTTagCompound nbt = CompressedStreamTools.read(in);
+		return new CubeIO.PartialCubeData(cube, nbt, lastHeightMap);
+	}
+
+	private static void setBlockIds(BlockStateContainer container, int[] ids) {
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			if (ids[i] == 0) {
+				continue; // air is the default
+			}
+			IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ids[i]);
+			container.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state == null ? AIR : state);
+		}
+	}
+
+	private static boolean isUniform(byte[] data) {
+		byte first = data[0];
+		for (byte b : data) {
+			if (b != first) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeLight(byte[] data, boolean uniform, DataOutputStream out) throws IOException {
+		if (uniform) {
+			out.writeByte(data[0]);
+		} else {
+			out.write(data);
+		}
+	}
+
+	private static byte[] readLight(DataInputStream in, boolean uniform) throws IOException {
+		if (uniform) {
+			byte[] data = new byte[BLOCK_COUNT/2];
+			Arrays.fill(data, in.readByte());
+			return data;
+		}
+		return readBytes(in, BLOCK_COUNT/2);
+	}
+
+	private static byte[] readBytes(DataInputStream in, int count) throws IOException {
+		byte[] data = new byte[count];
+		in.readFully(data);
+		return data;
+	}
+}
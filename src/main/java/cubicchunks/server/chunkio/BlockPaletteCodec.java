@@ -0,0 +1,135 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes block state ids as a palette of distinct ids followed by bit-packed palette indices. When all blocks are the
+ * same, only the palette with a single entry is written.
+ * <p>
+ * Layout:
+ * <pre>
+ * short   palette size
+ * int[]   palette
+ * if palette size > 1:
+ *   byte    bits per index
+ *   long[]  indices, packed from the lowest bits, values don't cross long boundaries
+ * </pre>
+ */
+public class BlockPaletteCodec {
+
+	private BlockPaletteCodec() {
+		throw new RuntimeException();
+	}
+
+	public static void write(int[] ids, DataOutput out) throws IOException {
+		IntIntHashMap paletteIndex = new IntIntHashMap();
+		int[] palette = new int[16];
+		int paletteSize = 0;
+		int[] indices = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			int id = ids[i];
+			int index = paletteIndex.getOrDefault(id, -1);
+			if (index < 0) {
+				index = paletteSize++;
+				paletteIndex.put(id, index);
+				if (index == palette.length) {
+					int[] newPalette = new int[palette.length*2];
+					System.arraycopy(palette, 0, newPalette, 0, palette.length);
+					palette = newPalette;
+				}
+				palette[index] = id;
+			}
+			indices[i] = index;
+		}
+
+		out.writeShort(paletteSize);
+		for (int i = 0; i < paletteSize; i++) {
+			out.writeInt(palette[i]);
+		}
+		if (paletteSize <= 1) {
+			return;
+		}
+
+		int bits = bitsFor(paletteSize);
+		int valuesPerLong = 64/bits;
+		out.writeByte(bits);
+		for (int start = 0; start < indices.length; start += valuesPerLong) {
+			long packed = 0;
+			int end = Math.min(indices.length, start + valuesPerLong);
+			for (int i = start; i < end; i++) {
+				packed |= (long) indices[i] << ((i - start)*bits);
+			}
+			out.writeLong(packed);
+		}
+	}
+
+	public static int[] read(DataInput in, int count) throws IOException {
+		int paletteSize = in.readUnsignedShort();
+		if (paletteSize == 0 || paletteSize > count) {
+			throw new IOException("Invalid block palette size " + paletteSize);
+		}
+		int[] palette = new int[paletteSize];
+		for (int i = 0; i < paletteSize; i++) {
+			palette[i] = in.readInt();
+		}
+
+		int[] ids = new int[count];
+		if (paletteSize == 1) {
+			if (palette[0] != 0) {
+				Arrays.fill(ids, palette[0]);
+			}
+			return ids;
+		}
+
+		int bits = in.readUnsignedByte();
+		if (bits < bitsFor(paletteSize) || bits > 32) {
+			throw new IOException("Invalid bits per block " + bits + " for palette size " + paletteSize);
+		}
+		int valuesPerLong = 64/bits;
+		long mask = (1L << bits) - 1;
+		for (int start = 0; start < count; start += valuesPerLong) {
+			long packed = in.readLong();
+			int end = Math.min(count, start + valuesPerLong);
+			for (int i = start; i < end; i++) {
+				int index = (int) ((packed >>> ((i - start)*bits)) & mask);
+				if (index >= paletteSize) {
+					throw new IOException("Block palette index " + index + " out of range, palette size " + paletteSize);
+				}
+				ids[i] = palette[index];
+			}
+		}
+		return ids;
+	}
+
+	private static int bitsFor(int paletteSize) {
+		return 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compression used for stored cubes and columns.
+ * <p>
+ * Compressed data starts with one byte identifying the codec. Data saved before codecs existed is plain GZIP without
+ * that byte, it's recognized by the GZIP magic number (the first byte of which is not a valid codec id) and rewritten
+ * with the current codec the next time the cube is saved.
+ */
+public enum CompressionCodec {
+	/**
+	 * No compression at all
+	 */
+	NONE(0) {
+		@Override
+		byte[] encode(byte[] raw) {
+			return raw;
+		}
+
+		@Override
+		byte[] decode(byte[] data, int offset, int length) {
+			byte[] raw = new byte[length];
+			System.arraycopy(data, offset, raw, 0, length);
+			return raw;
+		}
+	},
+	/**
+	 * The same compression as vanilla uses for NBT, slow but compresses well
+	 */
+	GZIP(1) {
+		@Override
+		byte[] encode(byte[] raw) throws IOException {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(raw.length/4 + 16);
+			try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+				out.write(raw);
+			}
+			return buf.toByteArray();
+		}
+
+		@Override
+		byte[] decode(byte[] data, int offset, int length) throws IOException {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(length*4);
+			try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data, offset, length))) {
+				byte[] tmp = new byte[4096];
+				int read;
+				while ((read = in.read(tmp)) >= 0) {
+					buf.write(tmp, 0, read);
+					// a few corrupted bytes can inflate to gigabytes
+					if (buf.size() > MAX_RAW_LENGTH) {
+						throw new IOException("GZIP data is longer than " + MAX_RAW_LENGTH + " bytes");
+					}
+				}
+			}
+			return buf.toByteArray();
+		}
+	},
+	/**
+	 * LZ4, several times faster than GZIP in both directions. Cubes that are mostly one block compress almost as well.
+	 */
+	LZ4(2) {
+		@Override
+		byte[] encode(byte[] raw) {
+			LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+			byte[] out = new byte[4 + compressor.maxCompressedLength(raw.length)];
+			ByteBuffer.wrap(out).putInt(raw.length);
+			int length = compressor.compress(raw, 0, raw.length, out, 4);
+			byte[] trimmed = new byte[4 + length];
+			System.arraycopy(out, 0, trimmed, 0, trimmed.length);
+			return trimmed;
+		}
+
+		@Override
+		byte[] decode(byte[] data, int offset, int length) throws IOException {
+			if (length < 4) {
+				throw new IOException("Truncated LZ4 data");
+			}
+			int rawLength = ByteBuffer.wrap(data, offset, 4).getInt();
+			// the length is read before anything is checked, corrupted data mustn't make it allocate gigabytes
+			if (rawLength < 0 || rawLength > MAX_RAW_LENGTH) {
+				throw new IOException("Invalid LZ4 data length " + rawLength);
+			}
+			// unlike the fast one, it never reads past the compressed data
+			LZ4SafeDecompressor decompressor = LZ4_FACTORY.safeDecompressor();
+			byte[] raw = new byte[rawLength];
+			try {
+				int decoded = decompressor.decompress(data, offset + 4, length - 4, raw, 0, rawLength);
+				if (decoded != rawLength) {
+					throw new IOException("LZ4 data decoded to " + decoded + " bytes, expected " + rawLength);
+				}
+			} catch (LZ4Exception e) {
+				throw new IOException("Corrupted LZ4 data", e);
+			}
+			return raw;
+		}
+	};
+
+	private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+	/**
+	 * Largest uncompressed cube or column accepted when decompressing. Blocks and light of a cube are less than 40 KB,
+	 * this leaves plenty of room for entities and tile entities.
+	 */
+	static final int MAX_RAW_LENGTH = 16*1024*1024;
+
+	private static final byte GZIP_MAGIC_0 = (byte) 0x1f;
+	private static final byte GZIP_MAGIC_1 = (byte) 0x8b;
+
+	private static final CompressionCodec[] BY_ID = new CompressionCodec[values().length];
+
+	static {
+		for (CompressionCodec codec : values()) {
+			BY_ID[codec.id] = codec;
+		}
+	}
+
+	private final byte id;
+
+	CompressionCodec(int id) {
+		this.id = (byte) id;
+	}
+
+	abstract byte[] encode(byte[] raw) throws IOException;
+
+	abstract byte[] decode(byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Compresses the data and adds the codec header
+	 *
+	 * @param raw the uncompressed data
+	 *
+	 * @return the compressed data, with codec header
+	 *
+	 * @throws IOException if compression fails
+	 */
+	public byte[] compress(byte[] raw) throws IOException {
+		byte[] encoded = encode(raw);
+		byte[] out = new byte[encoded.length + 1];
+		out[0] = id;
+		System.arraycopy(encoded, 0, out, 1, encoded.length);
+		return out;
+	}
+
+	/**
+	 * Decompresses data written by any codec, or by GZIP before codec headers existed.
+	 *
+	 * @param data the compressed data
+	 *
+	 * @return the uncompressed data
+	 *
+	 * @throws IOException if the data is corrupted or uses unknown codec
+	 */
+	public static byte[] decompress(byte[] data) throws IOException {
+		if (data.length == 0) {
+			throw new IOException("Empty data");
+		}
+		if (data.length >= 2 && data[0] == GZIP_MAGIC_0 && data[1] == GZIP_MAGIC_1) {
+			return GZIP.decode(data, 0, data.length);
+		}
+		return getCodec(data).decode(data, 1, data.length - 1);
+	}
+
+	/**
+	 * @param name name of the codec, in any case
+	 *
+	 * @return the codec, or null if there is none with that name
+	 */
+	@Nullable
+	public static CompressionCodec byName(String name) {
+		for (CompressionCodec codec : values()) {
+			if (codec.name().equalsIgnoreCase(name.trim())) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param data compressed data
+	 *
+	 * @return the codec the data is compressed with
+	 *
+	 * @throws IOException if the data uses unknown codec
+	 */
+	public static CompressionCodec getCodec(byte[] data) throws IOException {
+		if (data.length >= 2 && data[0] == GZIP_MAGIC_0 && data[1] == GZIP_MAGIC_1) {
+			return GZIP;
+		}
+		int id = data[0] & 0xFF;
+		if (id >= BY_ID.length) {
+			throw new IOException("Unknown compression codec " + id);
+		}
+		return BY_ID[id];
+	}
+}
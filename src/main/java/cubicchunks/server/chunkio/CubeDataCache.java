@@ -0,0 +1,155 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Size bounded LRU cache of compressed cube data, keyed by cube address. Used by {@link CubeIO} so that cubes that are
+ * unloaded and loaded again shortly after don't have to be read from disk.
+ * <p>
+ * Data read from disk can race with writes of the same cube, so it's only added if nothing has been written since the
+ * read started, see {@link #getWriteCount()} and {@link #putRead(long, byte[], long)}.
+ */
+public class CubeDataCache {
+
+	private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(256, 0.75f, true);
+
+	private long maxBytes;
+	private long bytes;
+
+	private long writeCount;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public CubeDataCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@Nullable
+	public synchronized byte[] get(long address) {
+		byte[] data = cache.get(address);
+		if (data == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return data;
+	}
+
+	/**
+	 * Adds data that has just been written
+	 */
+	public synchronized void putWritten(long address, byte[] data) {
+		writeCount++;
+		put(address, data);
+	}
+
+	/**
+	 * Adds data that has been read from disk, unless any data has been written since the read started.
+	 *
+	 * @param address the cube address
+	 * @param data the data read from disk
+	 * @param writeCountBeforeRead value of {@link #getWriteCount()} before the data was read
+	 */
+	public synchronized void putRead(long address, byte[] data, long writeCountBeforeRead) {
+		if (writeCount != writeCountBeforeRead) {
+			return;
+		}
+		put(address, data);
+	}
+
+	public synchronized long getWriteCount() {
+		return writeCount;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized void clear() {
+		cache.clear();
+		bytes = 0;
+	}
+
+	public synchronized int getSize() {
+		return cache.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private void put(long address, byte[] data) {
+		if (data.length > maxBytes) {
+			// too big to ever fit, and it shouldn't evict everything else
+			byte[] old = cache.remove(address);
+			if (old != null) {
+				bytes -= old.length;
+			}
+			return;
+		}
+		byte[] old = cache.put(address, data);
+		if (old != null) {
+			bytes -= old.length;
+		}
+		bytes += data.length;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<Long, byte[]>> it = cache.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().length;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		long total = hits + misses;
+		return String.format("%d cubes (%dk of %dk), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+			cache.size(), bytes/1024, maxBytes/1024, hits, misses, total == 0 ? 0 : hits*100.0/total, evictions);
+	}
+}
@@ -23,26 +23,33 @@
  */
 package cubicchunks.server.chunkio;
 
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
-import net.minecraft.world.WorldProvider;
 import net.minecraft.world.storage.IThreadedFileIO;
 import net.minecraft.world.storage.ThreadedFileIOBase;
 
 import org.apache.logging.log4j.Logger;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
-import org.mapdb.Serializer;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Nullable;
+
 import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+import cubicchunks.server.chunkio.storage.CubeStorages;
+import cubicchunks.server.chunkio.storage.ICubeStorage;
+import cubicchunks.server.chunkio.storage.JournaledCubeStorage;
+import cubicchunks.server.chunkio.storage.MapDBToRegionConverter;
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorldServer;
@@ -53,61 +60,64 @@ import static cubicchunks.util.AddressTools.getX;
 import static cubicchunks.util.AddressTools.getY;
 import static cubicchunks.util.AddressTools.getZ;
 
-public class CubeIO implements IThreadedFileIO {
+public class CubeIO implements IThreadedFileIO, IConfigUpdateListener {
 
-	private static final long kB = 1024;
-	private static final long MB = kB*1024;
 	private static final Logger LOGGER = CubicChunks.LOGGER;
 
-	private static class SaveEntry {
+	/**
+	 * When more cubes than this are waiting to be saved, save statistics are logged
+	 */
+	private static final int SAVE_QUEUE_WARNING_SIZE = 10000;
+	private static final long SAVE_QUEUE_WARNING_INTERVAL = 30*1000;
+
+	private static class SaveEntry<T> {
 
 		private long address;
-		private NBTTagCompound nbt;
+		private T data;
 
-		public SaveEntry(long address, NBTTagCompound nbt) {
+		public SaveEntry(long address, T data) {
 			this.address = address;
-			this.nbt = nbt;
+			this.data = data;
 		}
 	}
 
-	private static DB initializeDBConnection(final File saveFile, final WorldProvider dimension) {
-		// init database connection
-		LOGGER.info("Initializing db connection...");
-
-		File file = new File(saveFile, String.format("cubes.dim%d.db", dimension.getDimension()));
-
-		LOGGER.info("Connected to db at {}", file);
-
-		file.getParentFile().mkdirs();
-
-		DB db = DBMaker.
-			fileDB(file).
-			fileMmapEnable().
-			allocateStartSize(5*MB).
-			allocateIncrement(1*MB).
-			make();
-		return db;
-		// NOTE: could set different cache settings
-		// the default is a hash map cache with 32768 entries
-		// see: http://www.mapdb.org/features.html
+	private static ICubeStorage initializeStorage(final File saveFile, final int dimension) {
+		LOGGER.info("Opening cube storage for dimension {} in {}", dimension, saveFile);
+		try {
+			JournaledCubeStorage storage = CubeStorages.open(saveFile, dimension);
+			if (!(storage.getStorage() instanceof RegionCubeStorage)) {
+				LOGGER.warn("Dimension {} still uses the old MapDB cube storage, use {} to convert it to region files",
+					dimension, MapDBToRegionConverter.class.getName());
+			}
+			return storage;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open cube storage for dimension " + dimension, e);
+		}
 	}
 
 	private ICubicWorldServer world;
 
-	private final DB db;
-	private ConcurrentMap<Long, byte[]> columns;
-	private ConcurrentMap<Long, byte[]> cubes;
-	private ConcurrentMap<ChunkPos, SaveEntry> columnsToSave;
-	private ConcurrentMap<CubePos, SaveEntry> cubesToSave;
+	private final ICubeStorage storage;
+	private ConcurrentMap<ChunkPos, SaveEntry<NBTTagCompound>> columnsToSave;
+	private ConcurrentMap<CubePos, SaveEntry<CubeSnapshot>> cubesToSave;
+
+	private final SaveMetrics saveMetrics = new SaveMetrics();
+	// recently read and written cubes, cubes waiting in cubesToSave are newer than anything in it
+	private final CubeDataCache cubeDataCache = new CubeDataCache(CubicChunks.Config.DEFAULT_CUBE_DATA_CACHE_SIZE*1024L*1024L);
+	private final CubeMetaIndex cubeMetaIndex;
+	private long lastSaveQueueWarning = 0;
 
 	private final Thread theShutdownHook;
 
 	public CubeIO(ICubicWorldServer world) {
 		this.world = world;
 
-		this.db = initializeDBConnection(this.world.getSaveHandler().getWorldDirectory(), this.world.getProvider());
-		//we can't use closeOnJvmShutdown() because Minecraft saves all unsaved things on shutdown
-		//so the DB will be closed while we are still saving.
+		File worldDirectory = this.world.getSaveHandler().getWorldDirectory();
+		int dimension = this.world.getProvider().getDimension();
+		this.storage = initializeStorage(worldDirectory, dimension);
+		this.cubeMetaIndex = CubeMetaIndex.open(this.storage, CubeStorages.getIndexFile(worldDirectory, dimension));
+		//we can't close the storage on JVM shutdown directly because Minecraft saves all unsaved things on shutdown
+		//so the storage would be closed while we are still saving.
 		//also we need to save the thread into field because in client environment we need to remove the shutdown hook
 		Runtime.getRuntime().addShutdownHook(theShutdownHook = new Thread() {
 			public void run() {
@@ -116,19 +126,20 @@ public class CubeIO implements IThreadedFileIO {
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				} finally {
-					if (!CubeIO.this.db.isClosed()) {
-						CubeIO.this.db.close();
-					}
+					closeStorage();
 				}
 
 			}
 		});
-		this.columns = this.db.hashMap("columns", Serializer.LONG_PACKED, Serializer.BYTE_ARRAY).createOrOpen();
-		this.cubes = this.db.hashMap("chunks", Serializer.LONG, Serializer.BYTE_ARRAY).createOrOpen();
-
 		// init chunk save queue
 		this.columnsToSave = new ConcurrentHashMap<>();
 		this.cubesToSave = new ConcurrentHashMap<>();
+
+		CubicChunks.addConfigChangeListener(this);
+	}
+
+	@Override public void onConfigUpdate(CubicChunks.Config config) {
+		this.cubeDataCache.setMaxBytes(config.getCubeDataCacheSize()*1024L*1024L);
 	}
 
 	public void flush() {
@@ -142,59 +153,155 @@ public class CubeIO implements IThreadedFileIO {
 			while (this.writeNextIO()) ;
 		}
 
-		if (!this.db.isClosed()) {
-			this.db.close();
-		} else {
-			err("DB already closed!");
+		if (this.storage.isClosed()) {
+			err("Cube storage already closed!");
+		}
+		closeStorage();
+	}
+
+	private void closeStorage() {
+		if (this.storage.isClosed()) {
+			return;
+		}
+		// the index has to be on disk before the storage applies the last cubes
+		try {
+			this.cubeMetaIndex.close();
+		} catch (IOException e) {
+			err("Unable to close cube index", e);
+		}
+		try {
+			this.storage.close();
+		} catch (IOException e) {
+			err("Unable to close cube storage", e);
 		}
 	}
 
 	public Column loadColumn(int chunkX, int chunkZ) throws IOException {
 		NBTTagCompound nbt;
-		SaveEntry saveEntry;
+		SaveEntry<NBTTagCompound> saveEntry;
 		if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
-			nbt = saveEntry.nbt;
+			nbt = saveEntry.data;
 		} else {
 			// does the database have the column?
-			long address = AddressTools.getAddress(chunkX, chunkZ);
-			byte[] data = this.columns.get(address);
+			byte[] data = this.storage.readColumn(chunkX, chunkZ);
 			if (data == null) {
 				// returning null tells the world to generate a new column
 				return null;
 			}
 
 			// read the NBT
-			nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
+			nbt = IONbtReader.readNbtBytes(data);
 		}
 
 		// restore the column
 		return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
 	}
 
+	@Nullable
 	public PartialCubeData loadCubeAsyncPart(Column column, int cubeY) throws IOException {
 		// TODO address is due for refactor
 		long address = AddressTools.getAddress(column.getX(), cubeY, column.getZ());
 
-		NBTTagCompound nbt;
-		SaveEntry saveEntry;
+		byte[] raw;
+		SaveEntry<CubeSnapshot> saveEntry;
 		if ((saveEntry = this.cubesToSave.get(new CubePos(address))) != null) {
-			nbt = saveEntry.nbt;
+			raw = BinaryCubeFormat.write(saveEntry.data);
 		} else {
-			// does the database have the cube?
-			byte[] data = this.cubes.get(address);
+			byte[] data = this.cubeDataCache.get(address);
 			if (data == null) {
-				return null;
+				// does the database have the cube?
+				long writeCount = this.cubeDataCache.getWriteCount();
+				data = this.storage.readCube(column.getX(), cubeY, column.getZ());
+				if (data == null) {
+					return null;
+				}
+				this.cubeDataCache.putRead(address, data, writeCount);
+			}
+			raw = CompressionCodec.decompress(data);
+		}
+		return readCubeAsyncPart(column, cubeY, raw);
+	}
+
+	/**
+	 * Loads many cubes of one column at once. Cubes that have to be read from storage are read together in the order
+	 * they are stored on disk, and decompressed in parallel.
+	 *
+	 * @param column the column of the cubes
+	 * @param cubeYs y positions of the cubes to load
+	 *
+	 * @return the partially loaded cubes, in the same order as cubeYs. Cubes that don't exist or can't be read are null.
+	 *
+	 * @throws IOException if reading fails
+	 */
+	public PartialCubeData[] loadCubesAsyncPart(Column column, int[] cubeYs) throws IOException {
+		final int x = column.getX();
+		final int z = column.getZ();
+
+		byte[][] raw = new byte[cubeYs.length][];
+		byte[][] stored = new byte[cubeYs.length][];
+		Map<Integer, Integer> toRead = new HashMap<>();
+		for (int i = 0; i < cubeYs.length; i++) {
+			long address = AddressTools.getAddress(x, cubeYs[i], z);
+			SaveEntry<CubeSnapshot> saveEntry;
+			if ((saveEntry = this.cubesToSave.get(new CubePos(address))) != null) {
+				raw[i] = BinaryCubeFormat.write(saveEntry.data);
+			} else if ((stored[i] = this.cubeDataCache.get(address)) == null) {
+				toRead.put(cubeYs[i], i);
+			}
+		}
+
+		if (!toRead.isEmpty()) {
+			long[] addresses = new long[toRead.size()];
+			int n = 0;
+			for (int cubeY : toRead.keySet()) {
+				addresses[n++] = AddressTools.getAddress(x, cubeY, z);
+			}
+			long writeCount = this.cubeDataCache.getWriteCount();
+			this.storage.readCubes(addresses, (cubeX, cubeY, cubeZ, data) -> {
+				stored[toRead.get(cubeY)] = data;
+				this.cubeDataCache.putRead(AddressTools.getAddress(cubeX, cubeY, cubeZ), data, writeCount);
+			});
+		}
+
+		// decompressing takes more time than reading, spread it over the compression threads
+		List<CompletableFuture<byte[]>> decompressed = new ArrayList<>(cubeYs.length);
+		for (byte[] data : stored) {
+			decompressed.add(data == null ? null : SaveCompressionPool.decompress(data));
+		}
+
+		PartialCubeData[] cubes = new PartialCubeData[cubeYs.length];
+		for (int i = 0; i < cubeYs.length; i++) {
+			try {
+				if (decompressed.get(i) != null) {
+					raw[i] = decompressed.get(i).join();
+				}
+				if (raw[i] != null) {
+					cubes[i] = readCubeAsyncPart(column, cubeYs[i], raw[i]);
+				}
+			} catch (Throwable t) {
+				LOGGER.error(String.format("Unable to read cube %d, %d, %d", x, cubeYs[i], z), t);
 			}
-			nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
 		}
+		return cubes;
+	}
 
+	@Nullable
+	private PartialCubeData readCubeAsyncPart(Column column, int cubeY, byte[] raw) throws IOException {
 		// restore the cube - async part
+		if (BinaryCubeFormat.isBinary(raw)) {
+			return BinaryCubeFormat.readAsyncPart(column, column.getX(), cubeY, column.getZ(), raw);
+		}
+		// cubes saved before the binary format was added
+		NBTTagCompound nbt = IONbtReader.readRawNbtBytes(raw);
 		Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt);
-		return new PartialCubeData(cube, nbt);
+		if (cube == null) {
+			return null;
+		}
+		return new PartialCubeData(cube, nbt, IONbtReader.readLastHeightMap(nbt));
 	}
 
 	public void loadCubeSyncPart(PartialCubeData info) {
-		IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
+		IONbtReader.readCubeSyncPart(info.cube, world, info.nbt, info.lastHeightMap);
 	}
 
 	public void saveColumn(Column column) {
@@ -204,7 +311,7 @@ public class CubeIO implements IThreadedFileIO {
 		// with concurrent access to world data structures
 
 		// add the column to the save queue
-		this.columnsToSave.put(column.getChunkCoordIntPair(), new SaveEntry(AddressTools.getAddress(column.getX(), column.getZ()), IONbtWriter.write(column)));
+		this.columnsToSave.put(column.getChunkCoordIntPair(), new SaveEntry<>(AddressTools.getAddress(column.getX(), column.getZ()), IONbtWriter.write(column)));
 		column.markSaved();
 
 		// signal the IO thread to process the save queue
@@ -213,21 +320,44 @@ public class CubeIO implements IThreadedFileIO {
 
 	public void saveCube(Cube cube) {
 		// NOTE: this function blocks the world thread, so make it fast
+		// only take a snapshot here, it's serialized and compressed on the IO and compression threads
 
-		this.cubesToSave.put(cube.getCoords(), new SaveEntry(cube.getAddress(), IONbtWriter.write(cube)));
+		CubeSnapshot snapshot = CubeSnapshot.of(cube);
+		// recorded before the IO thread can see the cube, so that the index never misses a stored cube
+		this.cubeMetaIndex.put(cube.getAddress(), CubeMetaIndex.getStatus(snapshot));
+		this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(cube.getAddress(), snapshot));
 		cube.markSaved();
 
 		// signal the IO thread to process the save queue
 		ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
 	}
 
+	/**
+	 * Writes all queued columns and cubes and commits them to disk, without closing the storage. Blocks until it's
+	 * done, used by /save-all flush.
+	 */
+	public synchronized void writeAll() {
+		while (this.writeNextIO()) ;
+		try {
+			this.storage.flush();
+		} catch (IOException e) {
+			err("Unable to flush cube storage", e);
+		}
+	}
+
+	/**
+	 * Writes the next batch of columns and cubes. Synchronized, because {@link #writeAll()} also writes from the server
+	 * thread.
+	 */
 	@Override
-	public boolean writeNextIO() {
+	public synchronized boolean writeNextIO() {
 		try {
 			// NOTE: return true to redo this call (used for batching)
 
-			final int ColumnsBatchSize = 25;
-			final int CubesBatchSize = 250;
+			// compression runs in parallel, make the batches big enough to keep all compression threads busy
+			final int compressionThreads = SaveCompressionPool.getThreads();
+			final int ColumnsBatchSize = 25*compressionThreads;
+			final int CubesBatchSize = 250*compressionThreads;
 
 			int numColumnsSaved = 0;
 			int numColumnsRemaining = 0;
@@ -237,59 +367,90 @@ public class CubeIO implements IThreadedFileIO {
 			int numCubeBytesSaved = 0;
 			long start = System.currentTimeMillis();
 
-			// save a batch of columns
-			Iterator<SaveEntry> it = columnsToSave.values().iterator();
-			for (SaveEntry entry; it.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-				entry = it.next();
+			// start compressing a batch of columns and cubes
+			List<Map.Entry<ChunkPos, SaveEntry<NBTTagCompound>>> columnBatch = new ArrayList<>();
+			List<CompletableFuture<byte[]>> columnData = new ArrayList<>();
+			Iterator<Map.Entry<ChunkPos, SaveEntry<NBTTagCompound>>> columnIt = columnsToSave.entrySet().iterator();
+			while (columnIt.hasNext() && columnBatch.size() < ColumnsBatchSize) {
+				Map.Entry<ChunkPos, SaveEntry<NBTTagCompound>> entry = columnIt.next();
+				columnBatch.add(entry);
+				columnData.add(SaveCompressionPool.compress(entry.getValue().data));
+			}
+			boolean hasMoreColumns = columnIt.hasNext();
+
+			List<Map.Entry<CubePos, SaveEntry<CubeSnapshot>>> cubeBatch = new ArrayList<>();
+			List<CompletableFuture<byte[]>> cubeData = new ArrayList<>();
+			Iterator<Map.Entry<CubePos, SaveEntry<CubeSnapshot>>> cubeIt = cubesToSave.entrySet().iterator();
+			while (cubeIt.hasNext() && cubeBatch.size() < CubesBatchSize) {
+				Map.Entry<CubePos, SaveEntry<CubeSnapshot>> entry = cubeIt.next();
+				cubeBatch.add(entry);
+				cubeData.add(SaveCompressionPool.compress(entry.getValue().data));
+			}
+			boolean hasMoreCubes = cubeIt.hasNext();
+
+			// all cubes of the batch are in the index, it has to be on disk before the storage can have any of them
+			this.cubeMetaIndex.flush();
+
+			// and write them from this thread as they become ready
+			for (int i = 0; i < columnBatch.size(); i++) {
+				Map.Entry<ChunkPos, SaveEntry<NBTTagCompound>> mapEntry = columnBatch.get(i);
+				SaveEntry<?> entry = mapEntry.getValue();
 				try {
 					// save the column
-					byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-					this.columns.put(entry.address, data);
+					byte[] data = columnData.get(i).join();
+					this.storage.writeColumn(getX(entry.address), getZ(entry.address), data);
 					//column can be removed from toSave queue only after writing to disk
-					//to avoid race conditions
-					it.remove();
+					//to avoid race conditions. If it has been saved again in the meantime, keep the new version
+					columnsToSave.remove(mapEntry.getKey(), entry);
+					numColumnsSaved++;
 					numColumnBytesSaved += data.length;
 				} catch (Throwable t) {
 					err(String.format("Unable to write column (%d, %d)", getX(entry.address), getZ(entry.address)), t);
 				}
 			}
 
-			boolean hasMoreColumns = it.hasNext();
-
-			it = cubesToSave.values().iterator();
-			// save a batch of cubes
-
-			for (SaveEntry entry; it.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-				entry = it.next();
+			for (int i = 0; i < cubeBatch.size(); i++) {
+				Map.Entry<CubePos, SaveEntry<CubeSnapshot>> mapEntry = cubeBatch.get(i);
+				SaveEntry<CubeSnapshot> entry = mapEntry.getValue();
 				try {
 					// save the cube
-					byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
+					byte[] data = cubeData.get(i).join();
 					try {
-						this.cubes.put(entry.address, data);
+						this.storage.writeCube(getX(entry.address), getY(entry.address), getZ(entry.address), data);
+						// before removing it from cubesToSave, so that there is no window where an older version could be loaded
+						this.cubeDataCache.putWritten(entry.address, data);
 					} finally {
 						//cube can be removed from toSave queue only after writing to disk
-						//to avoid race conditions
-						it.remove();
+						//to avoid race conditions. If it has been saved again in the meantime, keep the new version
+						cubesToSave.remove(mapEntry.getKey(), entry);
 					}
-
+					numCubesSaved++;
 					numCubeBytesSaved += data.length;
 				} catch (Throwable t) {
 					err(String.format("Unable to write cube %d, %d, %d", getX(entry.address), getY(entry.address), getZ(entry.address)), t);
 				}
 			}
-			boolean hasMoreCubes = it.hasNext();
 
 			numColumnsRemaining = this.columnsToSave.size();
 			numCubesRemaining = this.cubesToSave.size();
 
 			// flush changes to disk
-			this.db.commit();
+			long commitStart = System.nanoTime();
+			this.storage.flush();
+			long commitTime = System.nanoTime() - commitStart;
+
+			this.saveMetrics.recordBatch(numCubesSaved, numColumnsSaved, numCubeBytesSaved + numColumnBytesSaved, commitTime);
+			this.saveMetrics.setQueueDepth(numCubesRemaining, numColumnsRemaining);
 
 			long diff = System.currentTimeMillis() - start;
 			LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms",
 				numColumnsSaved, numColumnsRemaining, numColumnBytesSaved/1024,
 				numCubesSaved, numCubesRemaining, numCubeBytesSaved/1024, diff
 			);
+			if (numCubesRemaining > SAVE_QUEUE_WARNING_SIZE && System.currentTimeMillis() - lastSaveQueueWarning > SAVE_QUEUE_WARNING_INTERVAL) {
+				lastSaveQueueWarning = System.currentTimeMillis();
+				LOGGER.info("Cube saving can't keep up: {}", this.saveMetrics);
+			}
 
 			return hasMoreColumns || hasMoreCubes;
 		} catch (Throwable t) {
@@ -298,6 +459,28 @@ public class CubeIO implements IThreadedFileIO {
 		}
 	}
 
+	/**
+	 * @return the status of all stored cubes, including the ones waiting to be saved
+	 */
+	public CubeMetaIndex getCubeMetaIndex() {
+		return this.cubeMetaIndex;
+	}
+
+	/**
+	 * @return the cache of recently read and written cubes, for statistics
+	 */
+	public CubeDataCache getCubeDataCache() {
+		return this.cubeDataCache;
+	}
+
+	/**
+	 * @return statistics of the save queue of this world
+	 */
+	public SaveMetrics getSaveMetrics() {
+		this.saveMetrics.setQueueDepth(this.cubesToSave.size(), this.columnsToSave.size());
+		return this.saveMetrics;
+	}
+
 
 	/**
 	 * Method that prints error message even when shutting down (ie. LOGGER is disabled)
@@ -329,9 +512,12 @@ public class CubeIO implements IThreadedFileIO {
 		final NBTTagCompound nbt;
 		final Cube cube;
 
-		PartialCubeData(Cube cube, NBTTagCompound nbt) {
+		final int[] lastHeightMap;
+
+		PartialCubeData(Cube cube, NBTTagCompound nbt, int[] lastHeightMap) {
 			this.cube = cube;
 			this.nbt = nbt;
+			this.lastHeightMap = lastHeightMap;
 		}
 
 		public Cube getCube() {
@@ -0,0 +1,536 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.storage.ICubeStorage;
+import cubicchunks.util.AddressTools;
+
+/**
+ * Index of the status of every stored cube, so that it's possible to check if a cube exists, is populated or lit
+ * without reading and decompressing it.
+ * <p>
+ * Each cube takes 4 status bits, kept in one bitmap per region of 16x16x16 cubes, so the index only grows with the
+ * number of regions that have stored cubes. The index file next to the cube storage starts with a snapshot of all
+ * bitmaps, and every status change is appended to it. It's written before the cubes are written to the storage, see
+ * {@link #flush()}, so after a crash it still knows about every stored cube. When the appended changes get bigger than
+ * the snapshot, the file is rewritten as a new snapshot.
+ * <p>
+ * If the file doesn't exist when opening the world (first start, or after pruning the storage), it's rebuilt from the
+ * storage in the background and nothing is known until that's finished.
+ */
+public class CubeMetaIndex {
+
+	private static final Logger LOGGER = CubicChunks.LOGGER;
+
+	/**
+	 * Returned by {@link #getStatus(int, int, int)} while the index is being rebuilt
+	 */
+	public static final int UNKNOWN = -1;
+
+	public static final int EXISTS = 1;
+	public static final int POPULATED = 1 << 1;
+	public static final int FULLY_POPULATED = 1 << 2;
+	public static final int INITIAL_LIGHTING_DONE = 1 << 3;
+
+	private static final int STATUS_BITS = 4;
+	private static final int STATUS_MASK = (1 << STATUS_BITS) - 1;
+
+	private static final int REGION_BITS = 4;
+	private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+	private static final int CUBES_PER_LONG = 64/STATUS_BITS;
+	private static final int LONGS_PER_REGION = (1 << 3*REGION_BITS)/CUBES_PER_LONG;
+
+	private static final int FILE_MAGIC = 0xCC1D0002;
+	private static final byte RECORD_REGION = 1;
+	private static final byte RECORD_CUBE = 2;
+	private static final int REGION_RECORD_BYTES = 1 + 8 + LONGS_PER_REGION*8;
+	private static final int CUBE_RECORD_BYTES = 1 + 8 + 1;
+	/**
+	 * Appended changes are never rewritten before they are this big
+	 */
+	private static final long MIN_COMPACT_BYTES = 1024*1024;
+
+	private final Path indexFile;
+	// status bitmaps by region address
+	private final LongObjectHashMap<long[]> regions = new LongObjectHashMap<>();
+	private int cubeCount = 0;
+	private volatile boolean ready = false;
+
+	// the open index file, null until the index is complete and after closing
+	@Nullable private FileChannel channel;
+	@Nullable private DataOutputStream log;
+	private long snapshotBytes = 0;
+	private long appendedBytes = 0;
+	// changes made while a new snapshot is written, they are appended to it
+	@Nullable private DataOutputStream compactBuffer;
+	@Nullable private ByteArrayOutputStream compactBufferBytes;
+	private boolean closed = false;
+
+	private CubeMetaIndex(Path indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Reads the index file, or starts rebuilding it from the storage
+	 *
+	 * @param storage the cube storage
+	 * @param indexFile the index file
+	 *
+	 * @return the index
+	 */
+	static CubeMetaIndex open(ICubeStorage storage, Path indexFile) {
+		CubeMetaIndex index = new CubeMetaIndex(indexFile);
+		if (Files.exists(indexFile)) {
+			try {
+				index.read();
+				index.ready = true;
+				index.compactIfNeeded();
+				return index;
+			} catch (IOException e) {
+				LOGGER.error("Unable to read cube index " + indexFile + ", rebuilding it", e);
+				index.closeFile();
+				synchronized (index) {
+					index.regions.clear();
+					index.cubeCount = 0;
+				}
+			}
+		}
+		Thread thread = new Thread(() -> index.rebuild(storage), "Cube Index Rebuild Thread");
+		thread.setDaemon(true);
+		thread.start();
+		return index;
+	}
+
+	/**
+	 * @return true if the index knows about all stored cubes
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+
+	/**
+	 * @param cubeX cube x position
+	 * @param cubeY cube y position
+	 * @param cubeZ cube z position
+	 *
+	 * @return the status bits of the cube, 0 if the cube isn't stored, or {@link #UNKNOWN} if the index isn't ready
+	 */
+	public int getStatus(int cubeX, int cubeY, int cubeZ) {
+		if (!ready) {
+			return UNKNOWN;
+		}
+		return get(AddressTools.getAddress(cubeX, cubeY, cubeZ));
+	}
+
+	/**
+	 * @return true if the index is ready and the cube has all of the given status bits
+	 */
+	public boolean hasStatus(int cubeX, int cubeY, int cubeZ, int status) {
+		int actual = getStatus(cubeX, cubeY, cubeZ);
+		return actual != UNKNOWN && (actual & status) == status;
+	}
+
+	/**
+	 * @return false only if it's known that the cube isn't stored
+	 */
+	public boolean mightExist(int cubeX, int cubeY, int cubeZ) {
+		return getStatus(cubeX, cubeY, cubeZ) != 0;
+	}
+
+	/**
+	 * @return number of stored cubes the index knows about
+	 */
+	public synchronized int size() {
+		return this.cubeCount;
+	}
+
+	/**
+	 * Record the new status of a cube. Called when a cube is queued for saving, before the storage can have it.
+	 *
+	 * @param address cube address
+	 * @param status status bits, {@link #EXISTS} is always added
+	 */
+	void put(long address, int status) {
+		status |= EXISTS;
+		synchronized (this) {
+			if (set(address, status) == status) {
+				return;
+			}
+			try {
+				if (this.log != null) {
+					writeCubeRecord(this.log, address, status);
+					this.appendedBytes += CUBE_RECORD_BYTES;
+				}
+				if (this.compactBuffer != null) {
+					writeCubeRecord(this.compactBuffer, address, status);
+				}
+			} catch (IOException e) {
+				writeFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes recorded so far to disk. Must be called before the cubes recorded since the last call are
+	 * written to the cube storage, so that the index never misses a stored cube. Rewrites the index file when the appended
+	 * changes got too big. Called from the IO thread.
+	 */
+	void flush() {
+		FileChannel channel;
+		synchronized (this) {
+			if (this.log == null) {
+				return;
+			}
+			try {
+				this.log.flush();
+			} catch (IOException e) {
+				writeFailed(e);
+				return;
+			}
+			channel = this.channel;
+		}
+		try {
+			// not holding the lock, the server thread may record saved cubes meanwhile
+			channel.force(false);
+		} catch (IOException e) {
+			writeFailed(e);
+			return;
+		}
+		try {
+			compactIfNeeded();
+		} catch (IOException e) {
+			// the old file is still complete
+			LOGGER.error("Unable to rewrite cube index " + indexFile, e);
+		}
+	}
+
+	/**
+	 * Writes the remaining changes and closes the index file. Must be called after the last write to the storage.
+	 */
+	void close() throws IOException {
+		flush();
+		synchronized (this) {
+			this.closed = true;
+			if (this.log != null) {
+				this.log.close();
+				this.log = null;
+				this.channel = null;
+			}
+		}
+	}
+
+	private synchronized int get(long address) {
+		long[] region = this.regions.get(regionKey(address));
+		if (region == null) {
+			return 0;
+		}
+		int index = cubeIndex(address);
+		return (int) (region[index/CUBES_PER_LONG] >>> shift(index)) & STATUS_MASK;
+	}
+
+	/**
+	 * @return the previous status
+	 */
+	private int set(long address, int status) {
+		long key = regionKey(address);
+		long[] region = this.regions.get(key);
+		if (region == null) {
+			region = new long[LONGS_PER_REGION];
+			this.regions.put(key, region);
+		}
+		int index = cubeIndex(address);
+		int shift = shift(index);
+		long bits = region[index/CUBES_PER_LONG];
+		int old = (int) (bits >>> shift) & STATUS_MASK;
+		region[index/CUBES_PER_LONG] = bits & ~((long) STATUS_MASK << shift) | (long) status << shift;
+		if (old == 0 && status != 0) {
+			this.cubeCount++;
+		} else if (old != 0 && status == 0) {
+			this.cubeCount--;
+		}
+		return old;
+	}
+
+	private void read() throws IOException {
+		long validLength = 4;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException("Not a cube index file");
+			}
+			synchronized (this) {
+				int tag;
+				while ((tag = in.read()) >= 0) {
+					// the last record may be incomplete if the server crashed while appending it
+					try {
+						if (tag == RECORD_REGION) {
+							long key = in.readLong();
+							long[] region = new long[LONGS_PER_REGION];
+							for (int i = 0; i < LONGS_PER_REGION; i++) {
+								region[i] = in.readLong();
+							}
+							putRegion(key, region);
+							validLength += REGION_RECORD_BYTES;
+							this.snapshotBytes += REGION_RECORD_BYTES;
+						} else if (tag == RECORD_CUBE) {
+							long address = in.readLong();
+							set(address, in.readUnsignedByte() & STATUS_MASK);
+							validLength += CUBE_RECORD_BYTES;
+							this.appendedBytes += CUBE_RECORD_BYTES;
+						} else {
+							throw new IOException("Unknown cube index record " + tag);
+						}
+					} catch (EOFException e) {
+						LOGGER.warn("Cube index " + indexFile + " ends with an incomplete record, it's dropped");
+						break;
+					}
+				}
+			}
+		}
+		FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE);
+		channel.truncate(validLength);
+		channel.position(validLength);
+		synchronized (this) {
+			this.channel = channel;
+			this.log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		}
+	}
+
+	private void putRegion(long key, long[] region) {
+		long[] old = this.regions.put(key, region);
+		if (old != null) {
+			this.cubeCount -= countCubes(old);
+		}
+		this.cubeCount += countCubes(region);
+	}
+
+	private void rebuild(ICubeStorage storage) {
+		long start = System.currentTimeMillis();
+		try {
+			storage.forEachCube((x, y, z, data) -> {
+				int status = readStatus(data);
+				long address = AddressTools.getAddress(x, y, z);
+				synchronized (this) {
+					// cubes saved in the meantime are newer than what was read
+					if (get(address) == 0) {
+						set(address, status | EXISTS);
+					}
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			if (!storage.isClosed()) {
+				LOGGER.error("Unable to rebuild cube index", e);
+			}
+			return;
+		}
+		this.ready = true;
+		LOGGER.info("Rebuilt cube index with {} cubes in {} ms", size(), System.currentTimeMillis() - start);
+		try {
+			compact();
+		} catch (IOException e) {
+			LOGGER.error("Unable to write cube index " + indexFile, e);
+		}
+	}
+
+	private void compactIfNeeded() throws IOException {
+		boolean compact;
+		synchronized (this) {
+			compact = this.appendedBytes > Math.max(MIN_COMPACT_BYTES, this.snapshotBytes);
+		}
+		if (compact) {
+			compact();
+		}
+	}
+
+	/**
+	 * Writes all bitmaps to a new index file, and continues appending to it. Changes made in the meantime are
+	 * appended to the new file before it replaces the old one.
+	 */
+	private void compact() throws IOException {
+		LongObjectHashMap<long[]> snapshot = new LongObjectHashMap<>();
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			for (LongObjectCursor<long[]> cursor : this.regions) {
+				snapshot.put(cursor.key, cursor.value.clone());
+			}
+			this.compactBufferBytes = new ByteArrayOutputStream();
+			this.compactBuffer = new DataOutputStream(this.compactBufferBytes);
+		}
+		Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			for (LongObjectCursor<long[]> cursor : snapshot) {
+				if (countCubes(cursor.value) == 0) {
+					continue;
+				}
+				out.writeByte(RECORD_REGION);
+				out.writeLong(cursor.key);
+				for (long bits : cursor.value) {
+					out.writeLong(bits);
+				}
+			}
+			synchronized (this) {
+				this.compactBuffer.flush();
+				this.compactBufferBytes.writeTo(out);
+				this.compactBuffer = null;
+				this.compactBufferBytes = null;
+				out.flush();
+				channel.force(false);
+				if (this.closed) {
+					out.close();
+					Files.delete(temp);
+					return;
+				}
+				closeFile();
+				Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				this.channel = channel;
+				this.log = out;
+				this.snapshotBytes = channel.size();
+				this.appendedBytes = 0;
+			}
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				this.compactBuffer = null;
+				this.compactBufferBytes = null;
+			}
+			out.close();
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	/**
+	 * The file may miss cubes from now on and can't be trusted anymore, it's rebuilt the next time the world is opened
+	 */
+	private synchronized void writeFailed(IOException e) {
+		LOGGER.error("Unable to write to cube index " + indexFile + ", it will be rebuilt next time", e);
+		closeFile();
+		deleteFile();
+	}
+
+	private synchronized void closeFile() {
+		if (this.log == null) {
+			return;
+		}
+		try {
+			this.log.close();
+		} catch (IOException e) {
+			LOGGER.error("Unable to close cube index " + indexFile, e);
+		}
+		this.log = null;
+		this.channel = null;
+	}
+
+	private void deleteFile() {
+		try {
+			Files.deleteIfExists(indexFile);
+		} catch (IOException e) {
+			LOGGER.error("Unable to delete cube index " + indexFile, e);
+		}
+	}
+
+	private static void writeCubeRecord(DataOutputStream out, long address, int status) throws IOException {
+		out.writeByte(RECORD_CUBE);
+		out.writeLong(address);
+		out.writeByte(status);
+	}
+
+	private static long regionKey(long address) {
+		return AddressTools.getAddress(
+			AddressTools.getX(address) >> REGION_BITS,
+			AddressTools.getY(address) >> REGION_BITS,
+			AddressTools.getZ(address) >> REGION_BITS);
+	}
+
+	private static int cubeIndex(long address) {
+		return (AddressTools.getX(address) & REGION_MASK) << 2*REGION_BITS
+			| (AddressTools.getY(address) & REGION_MASK) << REGION_BITS
+			| (AddressTools.getZ(address) & REGION_MASK);
+	}
+
+	private static int shift(int cubeIndex) {
+		return (cubeIndex%CUBES_PER_LONG)*STATUS_BITS;
+	}
+
+	private static int countCubes(long[] region) {
+		int count = 0;
+		for (long bits : region) {
+			for (int i = 0; i < CUBES_PER_LONG; i++) {
+				if ((bits >>> i*STATUS_BITS & STATUS_MASK) != 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the status bits from stored cube data
+	 *
+	 * @param data compressed cube data, as stored
+	 *
+	 * @return status bits of the cube
+	 */
+	static int readStatus(byte[] data) throws IOException {
+		byte[] raw = CompressionCodec.decompress(data);
+		if (BinaryCubeFormat.isBinary(raw)) {
+			return BinaryCubeFormat.readStatus(raw);
+		}
+		// cubes saved before the binary format was added
+		return IONbtReader.readStatus(IONbtReader.readRawNbtBytes(raw));
+	}
+
+	static int getStatus(CubeSnapshot cube) {
+		return EXISTS
+			| (cube.populated ? POPULATED : 0)
+			| (cube.fullyPopulated ? FULLY_POPULATED : 0)
+			| (cube.initLightDone ? INITIAL_LIGHTING_DONE : 0);
+	}
+}
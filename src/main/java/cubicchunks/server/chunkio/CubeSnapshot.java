@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.BlockStateContainerAccess;
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Immutable copy of everything that is saved for a cube. Taking it is cheap (a few array copies and the entity NBT) so
+ * that it can be done on the main thread, the rest of the serialization can then run on any thread.
+ */
+@SuppressWarnings("deprecation") // Block.BLOCK_STATE_IDS
+class CubeSnapshot {
+
+	private static final int BLOCK_COUNT = Cube.SIZE*Cube.SIZE*Cube.SIZE;
+	/**
+	 * Block state containers with more bits per block use the global block state registry as palette
+	 */
+	private static final int MAX_LOCAL_PALETTE_BITS = 8;
+
+	final int x, y, z;
+	final boolean populated;
+	final boolean fullyPopulated;
+	final boolean initLightDone;
+
+	final boolean hasBlocks;
+	// copy of the block state container internals, decoded when serializing
+	@Nullable private final long[] blockData;
+	@Nullable private final IBlockState[] palette;
+	@Nullable final byte[] blockLight;
+	@Nullable final byte[] skyLight;
+
+	final int[] lastHeightMap;
+	/**
+	 * Entities, tile entities and scheduled ticks, these can only be written on the main thread
+	 */
+	final NBTTagCompound nbt;
+
+	private CubeSnapshot(Cube cube) {
+		this.x = cube.getX();
+		this.y = cube.getY();
+		this.z = cube.getZ();
+		this.populated = cube.isPopulated();
+		this.fullyPopulated = cube.isFullyPopulated();
+		this.initLightDone = cube.isInitialLightingDone();
+
+		ExtendedBlockStorage ebs = cube.getReadableStorage();
+		this.hasBlocks = ebs != null;
+		if (ebs != null) {
+			BlockStateContainer container = ebs.getData();
+			this.blockData = BlockStateContainerAccess.getStorage(container).getBackingLongArray().clone();
+			int bits = this.blockData.length*64/BLOCK_COUNT;
+			if (bits <= MAX_LOCAL_PALETTE_BITS) {
+				IBlockStatePalette containerPalette = BlockStateContainerAccess.getPalette(container);
+				this.palette = new IBlockState[1 << bits];
+				for (int i = 0; i < this.palette.length; i++) {
+					this.palette[i] = containerPalette.getBlockState(i);
+				}
+			} else {
+				this.palette = null;
+			}
+			this.blockLight = ebs.getBlocklightArray().getData().clone();
+			this.skyLight = cube.getCubicWorld().getProvider().getHasNoSky() ? null : ebs.getSkylightArray().getData().clone();
+		} else {
+			this.blockData = null;
+			this.palette = null;
+			this.blockLight = null;
+			this.skyLight = null;
+		}
+
+		this.lastHeightMap = cube.getColumn().getHeightMap().clone();
+
+		this.nbt = new NBTTagCompound();
+		IONbtWriter.writeEntities(cube, this.nbt);
+		IONbtWriter.writeTileEntities(cube, this.nbt);
+		IONbtWriter.writeScheduledTicks(cube, this.nbt);
+	}
+
+	/**
+	 * Takes a snapshot of the cube. Must be called from the main thread.
+	 */
+	static CubeSnapshot of(Cube cube) {
+		return new CubeSnapshot(cube);
+	}
+
+	/**
+	 * Decodes the copied block data into global block state ids, in block state container order (y, z, x).
+	 * Can be called from any thread.
+	 */
+	int[] getBlockIds() {
+		assert this.blockData != null;
+		int bits = this.blockData.length*64/BLOCK_COUNT;
+		int[] paletteIds = null;
+		if (this.palette != null) {
+			paletteIds = new int[this.palette.length];
+			for (int i = 0; i < paletteIds.length; i++) {
+				paletteIds[i] = this.palette[i] == null ? 0 : Block.BLOCK_STATE_IDS.get(this.palette[i]);
+			}
+		}
+
+		// same layout as BitArray, values can span two longs
+		long mask = (1L << bits) - 1;
+		int[] ids = new int[BLOCK_COUNT];
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			int bitIndex = i*bits;
+			int start = bitIndex >> 6;
+			int end = ((i + 1)*bits - 1) >> 6;
+			int offset = bitIndex & 63;
+			long value = this.blockData[start] >>> offset;
+			if (start != end) {
+				value |= this.blockData[end] << (64 - offset);
+			}
+			int index = (int) (value & mask);
+			ids[i] = paletteIds == null ? index : paletteIds[index];
+		}
+		return ids;
+	}
+}
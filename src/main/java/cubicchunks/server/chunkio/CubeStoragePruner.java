@@ -0,0 +1,290 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.server.chunkio.storage.CubeStorages;
+import cubicchunks.server.chunkio.storage.ICubeStorage;
+import cubicchunks.server.chunkio.storage.JournaledCubeStorage;
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
+import cubicchunks.util.AddressTools;
+
+/**
+ * Offline tool that removes cubes from a dimension and writes the remaining cubes into new, compacted region files.
+ * <p>
+ * Usage: {@code java -cp <classpath> cubicchunks.server.chunkio.CubeStoragePruner <world directory> <dimension>
+ * [--unpopulated] [--older-than <days>] [--outside <minX> <minY> <minZ> <maxX> <maxY> <maxZ>] [--threads <n>]}
+ * <p>
+ * A cube is removed if it matches any of the given policies:
+ * <ul>
+ * <li>--unpopulated: neither the cube nor any of its 26 neighbours have been populated, so nothing but the terrain
+ * generator has touched it and it can be generated again exactly the same way</li>
+ * <li>--older-than: the region file of the cube hasn't been modified for the given number of days. The age is per
+ * region file of 16x16x16 cubes, not per cube: saving any cube of a region keeps all of its cubes. Only works with
+ * region files, and the new region files keep the modification time of the old ones.</li>
+ * <li>--outside: the cube is outside of the given box, in cube coordinates</li>
+ * </ul>
+ * Columns without any cubes left are removed too. The server must not be running. The old region directory is kept
+ * next to the new one with an .old suffix, a MapDB file is left untouched (like with the MapDB converter).
+ */
+public class CubeStoragePruner {
+
+	private static final int PROGRESS_INTERVAL = 100000;
+	private static final long MILLIS_PER_DAY = 24L*60*60*1000;
+
+	private boolean removeUnpopulated = false;
+	private long maxAgeMillis = -1;
+	@Nullable private int[] keepBox;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// only filled when removing unpopulated cubes
+	private final Set<Long> populatedCubes = ConcurrentHashMap.newKeySet();
+	private final Set<Long> keptColumns = ConcurrentHashMap.newKeySet();
+
+	public static void main(String[] args) throws IOException {
+		CubeStoragePruner pruner = args.length < 3 ? null : parseOptions(args, 2);
+		if (pruner == null) {
+			printUsage();
+			return;
+		}
+		pruner.prune(new File(args[0]), Integer.parseInt(args[1]));
+	}
+
+	/**
+	 * @param args command line arguments
+	 * @param start index of the first option
+	 *
+	 * @return pruner with the given policies, or null if the options are invalid
+	 */
+	@Nullable
+	static CubeStoragePruner parseOptions(String[] args, int start) {
+		CubeStoragePruner pruner = new CubeStoragePruner();
+		try {
+			for (int i = start; i < args.length; i++) {
+				switch (args[i]) {
+					case "--unpopulated":
+						pruner.removeUnpopulated = true;
+						break;
+					case "--older-than":
+						pruner.maxAgeMillis = Long.parseLong(args[++i])*MILLIS_PER_DAY;
+						break;
+					case "--outside":
+						pruner.keepBox = new int[6];
+						for (int j = 0; j < 6; j++) {
+							pruner.keepBox[j] = Integer.parseInt(args[++i]);
+						}
+						break;
+					case "--threads":
+						pruner.threads = Integer.parseInt(args[++i]);
+						break;
+					default:
+						return null;
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+		return pruner;
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: CubeStoragePruner <world directory> <dimension> [--unpopulated] [--older-than <days>] " +
+			"[--outside <minX> <minY> <minZ> <maxX> <maxY> <maxZ>] [--threads <n>]");
+		System.err.println("  --unpopulated  remove cubes that neither they nor their neighbours have been populated");
+		System.err.println("  --older-than   remove cubes of region files not modified for the given number of days. The");
+		System.err.println("                 age is per region of 16x16x16 cubes: one recently saved cube keeps its whole region");
+		System.err.println("  --outside      remove cubes outside of the box, in cube coordinates");
+		System.err.println("  --threads      number of threads reading cubes, the number of cpu cores by default");
+		System.exit(1);
+	}
+
+	private void prune(File worldDirectory, int dimension) throws IOException {
+		Path regionDirectory = CubeStorages.getRegionDirectory(worldDirectory, dimension);
+		Path tempDirectory = regionDirectory.resolveSibling(regionDirectory.getFileName() + ".pruning");
+		Path oldDirectory = regionDirectory.resolveSibling(regionDirectory.getFileName() + ".old");
+		if (Files.exists(tempDirectory) || Files.exists(oldDirectory)) {
+			throw new IOException(tempDirectory + " or " + oldDirectory + " already exists, remove it first");
+		}
+
+		// opening it replays the journal, so nothing is missed
+		boolean fromRegions;
+		try (JournaledCubeStorage source = CubeStorages.open(worldDirectory, dimension)) {
+			fromRegions = source.getStorage() instanceof RegionCubeStorage;
+			if (maxAgeMillis >= 0 && !fromRegions) {
+				throw new IOException("--older-than only works with region files, convert the MapDB file first");
+			}
+			try (RegionCubeStorage target = new RegionCubeStorage(tempDirectory)) {
+				copy(source, target);
+			}
+		}
+
+		if (fromRegions) {
+			copyModifiedTimes(regionDirectory, tempDirectory);
+			Files.move(regionDirectory, oldDirectory);
+			System.out.println("Old region files moved to " + oldDirectory);
+		}
+		Files.move(tempDirectory, regionDirectory);
+		// it still has the removed cubes
+		Files.deleteIfExists(CubeStorages.getIndexFile(worldDirectory, dimension));
+	}
+
+	/**
+	 * Copies the cubes that aren't removed and the columns that still have cubes
+	 *
+	 * @param source the storage to prune, region files when removing old cubes
+	 * @param target empty storage for the remaining cubes and columns
+	 */
+	void copy(ICubeStorage source, ICubeStorage target) throws IOException {
+		// the journal is applied when iterating it, the age of cubes comes from the region files below it
+		ICubeStorage regions = source instanceof JournaledCubeStorage ? ((JournaledCubeStorage) source).getStorage() : source;
+		if (removeUnpopulated) {
+			System.out.println("Finding populated cubes");
+			forEachCubeParallel(source, (x, y, z, data) -> {
+				if ((CubeMetaIndex.readStatus(data) & CubeMetaIndex.POPULATED) != 0) {
+					populatedCubes.add(AddressTools.getAddress(x, y, z));
+				}
+			});
+		}
+
+		AtomicInteger kept = new AtomicInteger();
+		AtomicInteger removed = new AtomicInteger();
+		System.out.println("Copying cubes");
+		forEachCubeParallel(source, (x, y, z, data) -> {
+			if (shouldRemove(regions, x, y, z)) {
+				removed.incrementAndGet();
+				return;
+			}
+			target.writeCube(x, y, z, data);
+			keptColumns.add(AddressTools.getAddress(x, z));
+			if (kept.incrementAndGet()%PROGRESS_INTERVAL == 0) {
+				System.out.println("Copied " + kept.get() + " cubes");
+			}
+		});
+		AtomicInteger columns = new AtomicInteger();
+		source.forEachColumn((x, z, data) -> {
+			if (keptColumns.contains(AddressTools.getAddress(x, z))) {
+				target.writeColumn(x, z, data);
+				columns.incrementAndGet();
+			}
+		});
+		target.flush();
+		System.out.println("Kept " + kept.get() + " cubes and " + columns.get() + " columns, removed " + removed.get() + " cubes");
+	}
+
+	private boolean shouldRemove(ICubeStorage source, int cubeX, int cubeY, int cubeZ) throws IOException {
+		if (keepBox != null && (cubeX < keepBox[0] || cubeY < keepBox[1] || cubeZ < keepBox[2]
+			|| cubeX > keepBox[3] || cubeY > keepBox[4] || cubeZ > keepBox[5])) {
+			return true;
+		}
+		if (maxAgeMillis >= 0) {
+			FileTime modified = ((RegionCubeStorage) source).getCubeRegionModifiedTime(cubeX, cubeY, cubeZ);
+			if (modified != null && System.currentTimeMillis() - modified.toMillis() > maxAgeMillis) {
+				return true;
+			}
+		}
+		if (removeUnpopulated) {
+			// populating a cube can change its neighbours too
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dz = -1; dz <= 1; dz++) {
+						if (populatedCubes.contains(AddressTools.getAddress(cubeX + dx, cubeY + dy, cubeZ + dz))) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads all cubes on this thread, and runs the consumer for them on the worker threads
+	 */
+	private void forEachCubeParallel(ICubeStorage storage, ICubeStorage.CubeConsumer consumer) throws IOException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+			// don't read much more than the workers can handle, the caller runs the rest
+			new ArrayBlockingQueue<>(threads*64), new ThreadPoolExecutor.CallerRunsPolicy());
+		AtomicReference<IOException> error = new AtomicReference<>();
+		try {
+			storage.forEachCube((x, y, z, data) -> {
+				if (error.get() != null) {
+					throw error.get();
+				}
+				executor.execute(() -> {
+					try {
+						consumer.accept(x, y, z, data);
+					} catch (IOException e) {
+						error.compareAndSet(null, e);
+					}
+				});
+			});
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+		if (error.get() != null) {
+			throw error.get();
+		}
+	}
+
+	/**
+	 * Gives every new region file the modification time of the old one, so that --older-than keeps working after
+	 * pruning
+	 */
+	private static void copyModifiedTimes(Path from, Path to) throws IOException {
+		Files.walkFileTree(to, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Path old = from.resolve(to.relativize(file));
+				if (Files.exists(old)) {
+					Files.setLastModifiedTime(file, Files.getLastModifiedTime(old));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
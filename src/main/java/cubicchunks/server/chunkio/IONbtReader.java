@@ -24,6 +24,7 @@
 package cubicchunks.server.chunkio;
 
 import net.minecraft.block.Block;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -33,6 +34,10 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
@@ -45,6 +50,24 @@ import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
 
 public class IONbtReader {
+	static NBTTagCompound readNbtBytes(byte[] data) throws IOException {
+		return readRawNbtBytes(CompressionCodec.decompress(data));
+	}
+
+	static NBTTagCompound readRawNbtBytes(byte[] raw) throws IOException {
+		return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(raw)));
+	}
+
+	/**
+	 * @return the {@link CubeMetaIndex} status bits of a cube stored as NBT
+	 */
+	static int readStatus(NBTTagCompound nbt) {
+		return CubeMetaIndex.EXISTS
+			| (nbt.getBoolean("populated") ? CubeMetaIndex.POPULATED : 0)
+			| (nbt.getBoolean("fullyPopulated") ? CubeMetaIndex.FULLY_POPULATED : 0)
+			| (nbt.getBoolean("initLightDone") ? CubeMetaIndex.INITIAL_LIGHTING_DONE : 0);
+	}
+
 	@Nullable
 	static Column readColumn(ICubicWorld world, int x, int z, NBTTagCompound nbt) {
 		Column column = readBaseColumn(world, x, z, nbt);
@@ -103,11 +126,15 @@ public class IONbtReader {
 		return cube;
 	}
 
-	static void readCubeSyncPart(Cube cube, ICubicWorldServer world, NBTTagCompound nbt) {
+	/**
+	 * Reads the parts of a cube that can only be read on the main thread. Cubes in binary format store entities, tile
+	 * entities and scheduled ticks the same way as NBT cubes do, but keep the last height map outside of NBT.
+	 */
+	static void readCubeSyncPart(Cube cube, ICubicWorldServer world, NBTTagCompound nbt, int[] lastHeightMap) {
 		readEntities(nbt, world, cube);
 		readTileEntities(nbt, world, cube);
 		readScheduledBlockTicks(nbt, world);
-		readLightingInfo(cube, nbt, world);
+		readLightingInfo(cube, lastHeightMap);
 
 		cube.markSaved(); // its exactly the same as on disk so its not modified
 	}
@@ -222,9 +249,12 @@ public class IONbtReader {
 		}
 	}
 
-	private static void readLightingInfo(Cube cube, NBTTagCompound nbt, ICubicWorldServer world) {
+	static int[] readLastHeightMap(NBTTagCompound nbt) {
 		NBTTagCompound lightingInfo = nbt.getCompoundTag("LightingInfo");
-		int[] lastHeightMap = lightingInfo.getIntArray("LastHeightMap"); // NO NO NO! TODO: Why is hightmap being stored in Cube's data?! kill it!
+		return lightingInfo.getIntArray("LastHeightMap"); // NO NO NO! TODO: Why is hightmap being stored in Cube's data?! kill it!
+	}
+
+	private static void readLightingInfo(Cube cube, int[] lastHeightMap) {
 		int[] currentHeightMap = cube.getColumn().getHeightMap();
 
 		// assume changes outside of this cube have no effect on this cube.
@@ -31,10 +31,9 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.WorldServer;
-import net.minecraft.world.chunk.NibbleArray;
-import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,10 +49,10 @@ import static cubicchunks.util.WorldServerAccess.getPendingTickListEntriesHashSe
 import static cubicchunks.util.WorldServerAccess.getPendingTickListEntriesThisTick;
 
 class IONbtWriter {
-	static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
+	static byte[] writeNbtBytes(NBTTagCompound nbt, CompressionCodec codec) throws IOException {
 		ByteArrayOutputStream buf = new ByteArrayOutputStream();
-		CompressedStreamTools.writeCompressed(nbt, buf);
-		return buf.toByteArray();
+		CompressedStreamTools.write(nbt, new DataOutputStream(buf));
+		return codec.compress(buf.toByteArray());
 	}
 
 	static NBTTagCompound write(Column column) {
@@ -64,21 +63,6 @@ class IONbtWriter {
 		return nbt;
 	}
 
-	static NBTTagCompound write(final Cube cube) {
-		NBTTagCompound cubeNbt = new NBTTagCompound();
-
-		writeBaseCube(cube, cubeNbt);
-
-		writeBlocks(cube, cubeNbt);
-		writeEntities(cube, cubeNbt);
-		writeTileEntities(cube, cubeNbt);
-		writeScheduledTicks(cube, cubeNbt);
-
-		writeLightingInfo(cube, cubeNbt);
-
-		return cubeNbt;
-	}
-
 	private static void writeBaseColumn(Column column, NBTTagCompound nbt) {// coords
 		nbt.setInteger("x", column.xPosition);
 		nbt.setInteger("z", column.zPosition);
@@ -96,46 +80,7 @@ class IONbtWriter {
 		nbt.setByteArray("OpacityIndex", ((ServerHeightMap) column.getOpacityIndex()).getData());
 	}
 
-	private static void writeBaseCube(Cube cube, NBTTagCompound cubeNbt) {
-		cubeNbt.setByte("v", (byte) 1);
-
-		// coords
-		cubeNbt.setInteger("x", cube.getX());
-		cubeNbt.setInteger("y", cube.getY());
-		cubeNbt.setInteger("z", cube.getZ());
-
-		// save the worldgen stage and the target stage
-		cubeNbt.setBoolean("populated", cube.isPopulated());
-		cubeNbt.setBoolean("fullyPopulated", cube.isFullyPopulated());
-
-		cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
-	}
-
-	private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-		ExtendedBlockStorage ebs = cube.getStorage();
-		if (ebs == null) {
-			return; // no data to save anyway
-		}
-
-		byte[] abyte = new byte[Cube.SIZE*Cube.SIZE*Cube.SIZE];
-		NibbleArray data = new NibbleArray();
-		NibbleArray add = ebs.getData().getDataForNBT(abyte, data);
-
-		cubeNbt.setByteArray("Blocks", abyte);
-		cubeNbt.setByteArray("Data", data.getData());
-
-		if (add != null) {
-			cubeNbt.setByteArray("Add", add.getData());
-		}
-
-		cubeNbt.setByteArray("BlockLight", ebs.getBlocklightArray().getData());
-
-		if (!cube.getCubicWorld().getProvider().getHasNoSky()) {
-			cubeNbt.setByteArray("SkyLight", ebs.getSkylightArray().getData());
-		}
-	}
-
-	private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
+	static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
 		cube.getEntityContainer().writeToNbt(cubeNbt, "Entities", entity -> {
 			// make sure this entity is really in the chunk
 			int cubeX = Coords.getCubeXForEntity(entity);
@@ -152,7 +97,7 @@ class IONbtWriter {
 		});
 	}
 
-	private static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
+	static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
 		NBTTagList nbtTileEntities = new NBTTagList();
 		cubeNbt.setTag("TileEntities", nbtTileEntities);
 		for (TileEntity blockEntity : cube.getTileEntityMap().values()) {
@@ -162,7 +107,7 @@ class IONbtWriter {
 		}
 	}
 
-	private static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
+	static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
 		Iterable<NextTickListEntry> scheduledTicks = getScheduledTicks(cube);
 		if (scheduledTicks != null) {
 			long time = cube.getCubicWorld().getTotalWorldTime();
@@ -183,14 +128,6 @@ class IONbtWriter {
 		}
 	}
 
-	private static void writeLightingInfo(Cube cube, NBTTagCompound cubeNbt) {
-		NBTTagCompound lightingInfo = new NBTTagCompound();
-		cubeNbt.setTag("LightingInfo", lightingInfo);
-
-		int[] lastHeightmap = cube.getColumn().getHeightMap();
-		lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
-	}
-
 	private static List<NextTickListEntry> getScheduledTicks(Cube cube) {
 		ArrayList<NextTickListEntry> out = new ArrayList<>();
 
@@ -0,0 +1,181 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+
+/**
+ * Thread pool shared by all dimensions that serializes and compresses cubes and columns for {@link CubeIO}, so that the
+ * IO thread only has to write the already compressed data. Cubes loaded together in one batch are also decompressed
+ * here. Decompressing goes before compressing, a player may be waiting for the cube while a save batch can wait.
+ */
+class SaveCompressionPool {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	// keeps the tasks of the same kind in the order they were submitted
+	private static final AtomicLong taskCounter = new AtomicLong();
+
+	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+		CubicChunks.Config.DEFAULT_SAVE_COMPRESSION_THREADS, CubicChunks.Config.DEFAULT_SAVE_COMPRESSION_THREADS,
+		60L, TimeUnit.SECONDS,
+		// only Task is queued
+		new PriorityBlockingQueue<>(),
+		r -> {
+			Thread thread = new Thread(r, "Cube Save Compression Thread #" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	);
+
+	// config listeners are weakly referenced, keep it here
+	private static final IConfigUpdateListener configListener = config -> {
+		setThreads(config.getSaveCompressionThreads());
+		codec = config.getCompressionCodec();
+	};
+
+	private static volatile CompressionCodec codec = CubicChunks.Config.DEFAULT_COMPRESSION_CODEC;
+
+	static {
+		pool.allowCoreThreadTimeOut(true);
+		CubicChunks.addConfigChangeListener(configListener);
+	}
+
+	private SaveCompressionPool() {
+		throw new RuntimeException();
+	}
+
+	/**
+	 * Compress the NBT on one of the compression threads, using the codec selected in config
+	 *
+	 * @param nbt the NBT to compress
+	 *
+	 * @return future with the compressed bytes
+	 */
+	static CompletableFuture<byte[]> compress(NBTTagCompound nbt) {
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompressionCodec codec = SaveCompressionPool.codec;
+		execute(false, () -> {
+			try {
+				future.complete(IONbtWriter.writeNbtBytes(nbt, codec));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Serialize and compress the cube on one of the compression threads, using the codec selected in config
+	 *
+	 * @param cube snapshot of the cube to compress
+	 *
+	 * @return future with the compressed bytes
+	 */
+	static CompletableFuture<byte[]> compress(CubeSnapshot cube) {
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompressionCodec codec = SaveCompressionPool.codec;
+		execute(false, () -> {
+			try {
+				future.complete(codec.compress(BinaryCubeFormat.write(cube)));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Decompress cube or column data on one of the compression threads
+	 *
+	 * @param data the stored bytes
+	 *
+	 * @return future with the decompressed bytes
+	 */
+	static CompletableFuture<byte[]> decompress(byte[] data) {
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		execute(true, () -> {
+			try {
+				future.complete(CompressionCodec.decompress(data));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	private static void execute(boolean load, Runnable action) {
+		pool.execute(new Task(load, taskCounter.getAndIncrement(), action));
+	}
+
+	static int getThreads() {
+		return pool.getCorePoolSize();
+	}
+
+	private static synchronized void setThreads(int threads) {
+		// order matters, core size can't be above max size
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	private static class Task implements Runnable, Comparable<Task> {
+
+		private final boolean load;
+		private final long sequence;
+		private final Runnable action;
+
+		Task(boolean load, long sequence, Runnable action) {
+			this.load = load;
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public void run() {
+			action.run();
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (this.load != other.load) {
+				return this.load ? -1 : 1;
+			}
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+}
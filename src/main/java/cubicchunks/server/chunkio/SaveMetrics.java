@@ -0,0 +1,126 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the cube save pipeline. Updated by the IO thread, can be read from any thread.
+ */
+public class SaveMetrics {
+
+	/**
+	 * Time over which bytes per second are averaged
+	 */
+	private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final AtomicLong totalCubes = new AtomicLong();
+	private final AtomicLong totalColumns = new AtomicLong();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong totalCommits = new AtomicLong();
+	private final AtomicLong totalCommitNanos = new AtomicLong();
+	private volatile long lastCommitNanos;
+	private volatile long maxCommitNanos;
+
+	private volatile double bytesPerSecond;
+	private long windowStart = System.nanoTime();
+	private long windowBytes;
+
+	private volatile int queuedCubes;
+	private volatile int queuedColumns;
+
+	void recordBatch(int cubes, int columns, long bytes, long commitNanos) {
+		totalCubes.addAndGet(cubes);
+		totalColumns.addAndGet(columns);
+		totalBytes.addAndGet(bytes);
+		totalCommits.incrementAndGet();
+		totalCommitNanos.addAndGet(commitNanos);
+		lastCommitNanos = commitNanos;
+		if (commitNanos > maxCommitNanos) {
+			maxCommitNanos = commitNanos;
+		}
+
+		long now = System.nanoTime();
+		windowBytes += bytes;
+		if (now - windowStart >= RATE_WINDOW_NANOS) {
+			bytesPerSecond = windowBytes*1e9/(now - windowStart);
+			windowStart = now;
+			windowBytes = 0;
+		}
+	}
+
+	void setQueueDepth(int cubes, int columns) {
+		this.queuedCubes = cubes;
+		this.queuedColumns = columns;
+	}
+
+	public int getQueuedCubes() {
+		return queuedCubes;
+	}
+
+	public int getQueuedColumns() {
+		return queuedColumns;
+	}
+
+	public long getTotalCubesSaved() {
+		return totalCubes.get();
+	}
+
+	public long getTotalColumnsSaved() {
+		return totalColumns.get();
+	}
+
+	public long getTotalBytesSaved() {
+		return totalBytes.get();
+	}
+
+	/**
+	 * @return bytes written per second, averaged over the last 10 seconds of saving
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public double getLastCommitMillis() {
+		return lastCommitNanos/1e6;
+	}
+
+	public double getMaxCommitMillis() {
+		return maxCommitNanos/1e6;
+	}
+
+	public double getAverageCommitMillis() {
+		long commits = totalCommits.get();
+		return commits == 0 ? 0 : totalCommitNanos.get()/1e6/commits;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("queued: %d cubes, %d columns; saved: %d cubes, %d columns, %dk (%.1f kB/s); commit: last %.2f ms, avg %.2f ms, max %.2f ms",
+			getQueuedCubes(), getQueuedColumns(),
+			getTotalCubesSaved(), getTotalColumnsSaved(), getTotalBytesSaved()/1024, getBytesPerSecond()/1024,
+			getLastCommitMillis(), getAverageCommitMillis(), getMaxCommitMillis());
+	}
+}
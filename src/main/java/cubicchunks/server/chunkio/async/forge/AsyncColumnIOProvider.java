@@ -32,10 +32,14 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Column> {
 	private final CubeIO loader;
 	private Column column; // The target
 	private final QueuedColumn colInfo;
+	private final AsyncWorldIOExecutor executor;
+	// when it was submitted to the pool, 0 if it's loaded directly
+	private volatile long queueTime = 0;
 
-	AsyncColumnIOProvider(QueuedColumn colInfo, CubeIO loader) {
+	AsyncColumnIOProvider(QueuedColumn colInfo, CubeIO loader, AsyncWorldIOExecutor executor) {
 		this.loader = loader;
 		this.colInfo = colInfo;
+		this.executor = executor;
 	}
 
 	@Override void runSynchronousPart() {
@@ -51,7 +55,7 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Column> {
 		return column;
 	}
 
-	@Override public void run() {
+	@Override void runAsyncPart() {
 		synchronized (this) {
 			try {
 				this.column = this.loader.loadColumn(this.colInfo.x, this.colInfo.z);
@@ -62,5 +66,17 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Column> {
 			this.finished = true;
 			this.notifyAll();
 		}
+		if (queueTime != 0) {
+			executor.recordLoadLatency(System.nanoTime() - queueTime);
+		}
+		executor.onFinished(this);
+	}
+
+	void setQueueTime(long nanoTime) {
+		this.queueTime = nanoTime;
+	}
+
+	QueuedColumn getKey() {
+		return this.colInfo;
 	}
 }
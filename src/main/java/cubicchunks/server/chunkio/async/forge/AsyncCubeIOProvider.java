@@ -22,8 +22,10 @@ package cubicchunks.server.chunkio.async.forge;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleSupplier;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.server.chunkio.CubeIO;
@@ -36,19 +38,24 @@ import cubicchunks.world.cube.Cube;
 class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 	private final QueuedCube cubeInfo;
 	private final CubeIO loader;
+	private final AsyncWorldIOExecutor executor;
 
 	private CompletableFuture<Column> futureColumn = new CompletableFuture<>();
 	private CubeIO.PartialCubeData cubeData;
+	// main thread only
+	@Nullable private DoubleSupplier priority;
 
-	AsyncCubeIOProvider(@Nonnull QueuedCube cube, @Nonnull CubeIO loader) {
+	AsyncCubeIOProvider(@Nonnull QueuedCube cube, @Nonnull CubeIO loader, @Nonnull AsyncWorldIOExecutor executor) {
 		this.cubeInfo = cube;
 		this.loader = loader;
+		this.executor = executor;
 	}
 
 	@Override
-	public synchronized void run() {
+	synchronized void runAsyncPart() {
+		CubeIO.PartialCubeData data = null;
 		try {
-			cubeData = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
+			data = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
 		} catch (IOException e) {
 			CubicChunks.LOGGER.error("Could not load cube in {} @ ({}, {}, {})", this.cubeInfo.world, this.cubeInfo.x, this.cubeInfo.y, this.cubeInfo.z, e);
 		} catch (InterruptedException e) {
@@ -56,9 +63,58 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 		} catch (ExecutionException e) {
 			throw new RuntimeException(e);
 		} finally {
+			finish(data);
+		}
+	}
+
+	/**
+	 * Finish the async part with data loaded elsewhere, used by {@link CubeLoadBatch} for the tasks it claimed
+	 */
+	void finish(@Nullable CubeIO.PartialCubeData data) {
+		synchronized (this) {
+			this.cubeData = data;
 			this.finished = true;
 			this.notifyAll();
 		}
+		executor.onFinished(this);
+	}
+
+	QueuedCube getKey() {
+		return this.cubeInfo;
+	}
+
+	int getY() {
+		return this.cubeInfo.y;
+	}
+
+	/**
+	 * Set how important this load is, if it's not known yet. Main thread only.
+	 *
+	 * @param priority supplies the priority, lower values are loaded first
+	 */
+	void setPriority(DoubleSupplier priority) {
+		if (this.priority == null) {
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Main thread only
+	 *
+	 * @return the current priority of this load, lower values are loaded first
+	 */
+	double computePriority() {
+		return this.priority == null ? 0 : this.priority.getAsDouble();
+	}
+
+	/**
+	 * Main thread only
+	 *
+	 * @return true if a player in view distance waits for this cube. Only cube watchers set a priority, the distance to
+	 * their closest player, which is {@link Double#MAX_VALUE} once no player watches the cube anymore.
+	 */
+	boolean isWatched() {
+		return this.priority != null && this.priority.getAsDouble() < Double.MAX_VALUE;
 	}
 
 	// sync stuff
@@ -20,25 +20,66 @@
 package cubicchunks.server.chunkio.async.forge;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
+import cubicchunks.util.ICancellationToken;
+
 /**
  * Interface for grouping asynchronous world IO access together, synchronized to the start of the next tick
  * after loading finishes
  */
-abstract class AsyncIOProvider<T> implements Runnable {
-	private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
+abstract class AsyncIOProvider<T> implements IPrioritizedTask {
+	private final ConcurrentLinkedQueue<Callback<T>> callbacks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean started = new AtomicBoolean();
 	volatile boolean finished = false;
 
+	/**
+	 * Runs the async part, unless something else already started running it or dropped the task
+	 */
+	@Override
+	public final void run() {
+		if (tryStart()) {
+			runAsyncPart();
+		}
+	}
+
+	/**
+	 * Claim this task, so that nothing else runs the async part. Whoever claims the task is responsible for setting
+	 * {@link #finished} and notifying waiting threads, unless the task is dropped.
+	 *
+	 * @return true if nothing claimed this task before
+	 */
+	boolean tryStart() {
+		return this.started.compareAndSet(false, true);
+	}
+
+	/**
+	 * @return true if something claimed this task
+	 */
+	boolean isStarted() {
+		return this.started.get();
+	}
+
+	/**
+	 * Only columns are run by the pool directly, they are needed before any cube of the column can be loaded, so they
+	 * go first.
+	 */
+	@Override
+	public double getPriority() {
+		return 0;
+	}
+
 	/**
 	 * Add a callback to this access group, to be executed when the load finishes
 	 *
 	 * @param callback The callback to execute
+	 * @param token cancels the callback when it's not wanted anymore, null if it can't be cancelled
 	 */
-	void addCallback(Consumer<T> callback) {
-		this.callbacks.add(callback);
+	void addCallback(Consumer<T> callback, @Nullable ICancellationToken token) {
+		this.callbacks.add(new Callback<>(callback, token));
 	}
 
 	/**
@@ -47,23 +88,36 @@ abstract class AsyncIOProvider<T> implements Runnable {
 	 * @param callback The callback to remove
 	 */
 	void removeCallback(Consumer<T> callback) {
-		this.callbacks.remove(callback);
+		this.callbacks.removeIf(c -> c.consumer == callback);
 	}
 
 	/**
-	 * Run all callbacks waiting for the load. Assumes that the load is finished; calling this before is undefined
-	 * behavior.
+	 * Run all callbacks waiting for the load, except for cancelled ones. Assumes that the load is finished; calling
+	 * this before is undefined behavior.
 	 */
 	void runCallbacks() {
 		T value = this.get();
-		for (Consumer<T> callback : this.callbacks) // Sponge: Runnable -> Consumer<Cube>
+		for (Callback<T> callback : this.callbacks) // Sponge: Runnable -> Consumer<Cube>
 		{
-			callback.accept(value);
+			if (!callback.isCancelled()) {
+				callback.consumer.accept(value);
+			}
 		}
 
 		this.callbacks.clear();
 	}
 
+	/**
+	 * Finish a task claimed with {@link #tryStart()} without loading anything, because nobody wants it anymore.
+	 * Nothing is passed to the callbacks.
+	 */
+	void cancel() {
+		synchronized (this) {
+			this.finished = true;
+			this.notifyAll();
+		}
+	}
+
 	/**
 	 * True if the target has been loaded and is available for use
 	 *
@@ -74,14 +128,41 @@ abstract class AsyncIOProvider<T> implements Runnable {
 	}
 
 	/**
-	 * Check if any callbacks are registered as waiting for this load.
+	 * Block until whoever claimed this task finished the async part
+	 */
+	void awaitFinished() {
+		synchronized (this) {
+			while (!this.finished) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Failed to wait for cube/column load", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if any callbacks that aren't cancelled are waiting for this load. Main thread only, because of the
+	 * cancellation tokens.
 	 *
 	 * @return <code>true</code> if there is at least one callback waiting
 	 */
-	boolean hasCallbacks() {
-		return !callbacks.isEmpty();
+	boolean isWanted() {
+		for (Callback<T> callback : this.callbacks) {
+			if (!callback.isCancelled()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
+	/**
+	 * Load the object, called from the thread that claimed this task with {@link #tryStart()}
+	 */
+	abstract void runAsyncPart();
+
 	/**
 	 * Finalize the loading operating synchronously from the main thread.
 	 */
@@ -94,4 +175,18 @@ abstract class AsyncIOProvider<T> implements Runnable {
 	 */
 	@Nullable
 	abstract T get();
+
+	private static class Callback<T> {
+		private final Consumer<T> consumer;
+		@Nullable private final ICancellationToken token;
+
+		Callback(Consumer<T> consumer, @Nullable ICancellationToken token) {
+			this.consumer = consumer;
+			this.token = token;
+		}
+
+		boolean isCancelled() {
+			return token != null && token.isCancelled();
+		}
+	}
 }
@@ -21,26 +21,38 @@ package cubicchunks.server.chunkio.async.forge;
 
 import com.google.common.collect.Maps;
 
-import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 
 import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
 import cubicchunks.server.CubeProviderServer;
 import cubicchunks.server.chunkio.CubeIO;
+import cubicchunks.util.ICancellationToken;
+import cubicchunks.util.LatencyHistogram;
 import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
@@ -48,34 +60,105 @@ import cubicchunks.world.cube.Cube;
 /**
  * Brazenly copied from Forge and Sponge and reimplemented to suit our needs: Load cubes and columns outside the main
  * thread, then synchronize at the start of the next tick
+ * <p>
+ * Each world has its own executor, so that dimensions don't wait for each other. The number of threads follows the
+ * queue length and the load latency: when loads queue up and take long, a thread is added, when the queue is empty
+ * and loads are fast, one is removed.
  */
-public class AsyncWorldIOExecutor {
+public class AsyncWorldIOExecutor implements IConfigUpdateListener, AsyncWorldIOExecutorMXBean {
 
 	private static final int BASE_THREADS = 1;
-	private static final int PLAYERS_PER_THREAD = 50;
-
-	private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = Maps.newConcurrentMap();
-	private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
+	private static final int MAX_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	/**
+	 * Ticks between checks if the thread count should change
+	 */
+	private static final int SIZING_INTERVAL = 20;
+	/**
+	 * Queued tasks per thread above which loading is considered behind
+	 */
+	private static final int QUEUED_TASKS_PER_THREAD = 16;
+	/**
+	 * 95th percentile load latency above which loading is considered slow
+	 */
+	private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	/**
+	 * Loaded cubes that no player waits for added to the world per tick, while loaded cubes use more memory than they
+	 * should
+	 */
+	private static final int CUBES_PER_TICK_OVER_MEMORY_BUDGET = 8;
+	/**
+	 * Minimum ticks between sorting the queued loads again, while players keep crossing cube borders
+	 */
+	private static final int PRIORITY_UPDATE_INTERVAL = 10;
+	/**
+	 * Seconds to wait for running loads when the world is unloaded
+	 */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+	private final ICubicWorld world;
+	private final CubeIO loader;
+	private final CubeProviderServer cache;
+
+	private final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = Maps.newConcurrentMap();
+	private final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
+	// cube loads queued since the last tick, grouped by column. Only accessed from the main thread
+	private final Map<QueuedColumn, CubeLoadBatch> pendingBatches = new HashMap<>();
+
+	// loads with finished async part, the sync part is run at the start of the next tick. Workers add to them
+	private final Queue<AsyncCubeIOProvider> finishedCubes = new ConcurrentLinkedQueue<>();
+	private final Queue<AsyncColumnIOProvider> finishedColumns = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger finishedBacklog = new AtomicInteger();
+	// finished cube loads held back while over the memory budget. Only accessed from the main thread
+	private final Queue<AsyncCubeIOProvider> deferredCubes = new ArrayDeque<>();
+	private int unwatchedCubesLeft;
+	// statistics, only written on the main thread
+	private volatile long syncPartNanos = 0;
+	private volatile long syncPartCount = 0;
+	private volatile int syncTickBudget = CubicChunks.Config.DEFAULT_ASYNC_LOAD_TICK_BUDGET;
+
+	private final LatencyHistogram loadLatency = new LatencyHistogram();
+	private volatile LatencyHistogram.Snapshot lastLoadLatency = LatencyHistogram.Snapshot.EMPTY;
+	private int ticksUntilSizing = SIZING_INTERVAL;
+
+	// only IPrioritizedTask are queued, nearest cubes are loaded first
+	private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+	// set when players moved, so that the queued tasks have to be sorted again. Only accessed from the main thread
+	private boolean prioritiesChanged = false;
+	private int ticksUntilPriorityUpdate = 0;
+
+	private final ThreadPoolExecutor pool;
+	@Nullable private ObjectName mbeanName;
+
+	public AsyncWorldIOExecutor(ICubicWorldServer world, CubeIO loader, CubeProviderServer cache) {
+		this.world = world;
+		this.loader = loader;
+		this.cache = cache;
+
+		int dimension = world.getProvider().getDimension();
+		AtomicInteger threadCounter = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(BASE_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+			queue,
+
+			// Sponge start: Use lambda
+			r -> {
+				Thread thread = new Thread(r, "Cube I/O Thread DIM" + dimension + " #" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+			// Sponge end
+		);
 
-	private static final AtomicInteger threadCounter = new AtomicInteger();
-	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-		new LinkedBlockingQueue<>(),
+		CubicChunks.addConfigChangeListener(this);
+		registerMBean(dimension);
+	}
 
-		// Sponge start: Use lambda
-		r -> {
-			Thread thread = new Thread(r, "Cube I/O Thread #" + threadCounter.incrementAndGet());
-			thread.setDaemon(true);
-			return thread;
-		}
-		// Sponge end
-	);
+	@Override public void onConfigUpdate(CubicChunks.Config config) {
+		this.syncTickBudget = config.getAsyncLoadTickBudget();
+	}
 
 	/**
 	 * Load a cube, directly.
 	 *
-	 * @param world The world in which the cube lies
-	 * @param loader The file loader for cubes
-	 * @param cache the cube cache used to load cubes and columns
 	 * @param cubeX X coordinate of the cube to load
 	 * @param cubeY Y coordinate of the cube to load
 	 * @param cubeZ Z coordinate of the cube to load
@@ -83,14 +166,16 @@ public class AsyncWorldIOExecutor {
 	 * @return The loaded cube, or null if either not present or the load failed
 	 */
 	@Nullable
-	public static Cube syncCubeLoad(ICubicWorld world, CubeIO loader, CubeProviderServer cache, int cubeX, int cubeY, int cubeZ) {
+	public Cube syncCubeLoad(int cubeX, int cubeY, int cubeZ) {
 		Column column = cache.loadChunk(cubeX, cubeZ);
 		QueuedCube key = new QueuedCube(cubeX, cubeY, cubeZ, world);
 		AsyncCubeIOProvider task = cubeTasks.remove(key); // Remove task because we will call the sync callbacks directly
 		if (task != null) {
+			// it may still be waiting for its batch to get the column
+			task.setColumn(column);
 			runTask(task);
 		} else {
-			task = new AsyncCubeIOProvider(key, loader);
+			task = new AsyncCubeIOProvider(key, loader, this);
 			task.setColumn(column);
 			task.run();
 		}
@@ -101,20 +186,18 @@ public class AsyncWorldIOExecutor {
 	/**
 	 * Load a column, directly
 	 *
-	 * @param world The world in which the column lies
-	 * @param loader The file loader for columns
 	 * @param x column x position
 	 * @param z column z position
 	 *
 	 * @return The loaded column
 	 */
-	public static Column syncColumnLoad(ICubicWorld world, CubeIO loader, int x, int z) {
+	public Column syncColumnLoad(int x, int z) {
 		QueuedColumn key = new QueuedColumn(x, z, world);
 		AsyncColumnIOProvider task = columnTasks.remove(key); // Remove task because we will call the sync callbacks directly
 		if (task != null) {
 			runTask(task);
 		} else {
-			task = new AsyncColumnIOProvider(key, loader);
+			task = new AsyncColumnIOProvider(key, loader, this);
 			task.run();
 		}
 		task.runSynchronousPart();
@@ -124,23 +207,14 @@ public class AsyncWorldIOExecutor {
 	/**
 	 * Runs the async part in current thread or blocks until already running async part is finished
 	 */
-	private static void runTask(AsyncIOProvider task) {
-		if (!pool.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
+	private void runTask(AsyncIOProvider task) {
+		if (!task.tryStart()) // If something else already started it, and run hasn't isFinished, then wait for the async thread.
 		{
-			synchronized (task) // Warn incorrect - task shared via map
-			{
-				while (!task.isFinished()) {
-					try {
-						task.wait();
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						throw new RuntimeException("Failed to wait for cube/column load", e);
-					}
-				}
-			}
+			task.awaitFinished();
 		} else {
 			// If the task was not run yet we still need to load the Cube
-			task.run();
+			pool.remove(task);
+			task.runAsyncPart();
 		}
 	}
 
@@ -148,74 +222,125 @@ public class AsyncWorldIOExecutor {
 	// Sponge: Runnable -> Consumer<Cube>
 
 	/**
-	 * Queue a cube load, running the specified callback when the load has finished. This may cause a two tick delay
-	 * if the column has to be loaded, too! If you need it faster, consider sync loading either column or both
-	 * cube and column.
+	 * Queue a cube load, running the specified callback when the load has finished.
+	 * <p>
+	 * Cube loads of the same column queued before the next tick are read together as one batch. If the column isn't
+	 * loaded yet, the batch reads it too, and the column and its cubes are finished in the same tick. Only if the
+	 * column has to be generated, the cubes are read once it's there.
 	 *
-	 * @param world The world of the cube
-	 * @param loader The file loader for this world
-	 * @param cache The server cube cache
 	 * @param x cube x position
 	 * @param y cube y position
 	 * @param z cube z position
 	 * @param runnable The callback
 	 */
-	public static void queueCubeLoad(ICubicWorld world, CubeIO loader, CubeProviderServer cache, int x, int y, int z, Consumer<Cube> runnable) {
+	public void queueCubeLoad(int x, int y, int z, Consumer<Cube> runnable) {
+		queueCubeLoad(x, y, z, runnable, null);
+	}
+
+	/**
+	 * Queue a cube load, like {@link #queueCubeLoad(int, int, int, Consumer)}, with a priority. Cubes with lower
+	 * priority values are loaded first, loads without priority go before all of them.
+	 *
+	 * @param priority supplies the priority of the load, called on the main thread whenever the queue is sorted again
+	 */
+	public void queueCubeLoad(int x, int y, int z, Consumer<Cube> runnable, @Nullable DoubleSupplier priority) {
+		queueCubeLoad(x, y, z, runnable, priority, null);
+	}
+
+	/**
+	 * Queue a cube load, like {@link #queueCubeLoad(int, int, int, Consumer, DoubleSupplier)}, that can be cancelled.
+	 * The load is skipped when all callbacks waiting for it are cancelled before it starts, and not finished if they
+	 * are cancelled before that.
+	 *
+	 * @param token cancels the callback when it's not wanted anymore, null if it can't be cancelled
+	 */
+	public void queueCubeLoad(int x, int y, int z, Consumer<Cube> runnable, @Nullable DoubleSupplier priority,
+		@Nullable ICancellationToken token) {
 
 		QueuedCube key = new QueuedCube(x, y, z, world);
 		AsyncCubeIOProvider task = cubeTasks.get(key);
 
-		if (task == null) {
-			task = new AsyncCubeIOProvider(key, loader);
-			task.addCallback(runnable); // Add before calling execute for thread safety
-			cubeTasks.put(key, task);
-			pool.execute(task);
-		} else {
-			task.addCallback(runnable);
+		if (task != null) {
+			task.addCallback(runnable, token);
+			if (priority != null) {
+				task.setPriority(priority);
+			}
+			return;
 		}
-
-		Column loadedColumn;
-		if ((loadedColumn = cache.getLoadedColumn(x, z)) == null) {
-			cache.asyncGetColumn(x, z, IProviderExtras.Requirement.LIGHT, task::setColumn);
-		} else {
-			//it's already there, tell the task to use it
-			task.setColumn(loadedColumn);
+		task = new AsyncCubeIOProvider(key, loader, this);
+		task.addCallback(runnable, token); // Add before calling execute for thread safety
+		if (priority != null) {
+			task.setPriority(priority);
 		}
-
+		cubeTasks.put(key, task);
+
+		QueuedColumn columnKey = new QueuedColumn(x, z, world);
+		CubeLoadBatch batch = pendingBatches.get(columnKey);
+		if (batch == null) {
+			batch = new CubeLoadBatch(columnKey, loader, this);
+			pendingBatches.put(columnKey, batch);
+
+			Column loadedColumn;
+			if ((loadedColumn = cache.getLoadedColumn(x, z)) == null) {
+				CubeLoadBatch columnBatch = batch;
+				cache.asyncGetColumn(x, z, IProviderExtras.Requirement.LIGHT, col -> {
+					if (columnBatch.setColumn(col)) {
+						// it ran without the column, the cubes are still waiting
+						pool.execute(columnBatch);
+					}
+				});
+				// read the column in the same pass as the cubes, unless a thread already took it
+				AsyncColumnIOProvider columnTask = columnTasks.get(columnKey);
+				if (columnTask != null && pool.remove(columnTask)) {
+					batch.setColumnTask(columnTask);
+				}
+			} else {
+				//it's already there, tell the batch to use it
+				batch.setColumn(loadedColumn);
+			}
+		}
+		batch.add(task);
 	}
 
 	/**
 	 * Queue a column load, running the specified callback when the load has finished
 	 *
-	 * @param world The world of the column
-	 * @param loader The file loader for this world
 	 * @param x column x position
 	 * @param z column z position
 	 * @param runnable The callback
 	 */
-	public static void queueColumnLoad(ICubicWorld world, CubeIO loader, int x, int z, Consumer<Column> runnable) {
+	public void queueColumnLoad(int x, int z, Consumer<Column> runnable) {
+		queueColumnLoad(x, z, runnable, null);
+	}
+
+	/**
+	 * Queue a column load, like {@link #queueColumnLoad(int, int, Consumer)}, that can be cancelled
+	 *
+	 * @param token cancels the callback when it's not wanted anymore, null if it can't be cancelled
+	 */
+	public void queueColumnLoad(int x, int z, Consumer<Column> runnable, @Nullable ICancellationToken token) {
 		QueuedColumn key = new QueuedColumn(x, z, world);
 		AsyncColumnIOProvider task = columnTasks.get(key);
 		if (task == null) {
-			task = new AsyncColumnIOProvider(key, loader);
-			task.addCallback(runnable); // Add before calling execute for thread safety
+			task = new AsyncColumnIOProvider(key, loader, this);
+			task.addCallback(runnable, token); // Add before calling execute for thread safety
 			columnTasks.put(key, task);
+			task.setQueueTime(System.nanoTime());
 			pool.execute(task);
 		} else {
-			task.addCallback(runnable);
+			task.addCallback(runnable, token);
 		}
 	}
 
 	/**
 	 * Notify the loader that this cube isn't needed anymore
 	 *
-	 * @param world The world
 	 * @param x cube x position
 	 * @param y cube y position
 	 * @param z cube z position
 	 * @param runnable The runnable that should be dropped
 	 */
-	public static void dropQueuedCubeLoad(ICubicWorld world, int x, int y, int z, Consumer<Cube> runnable) {
+	public void dropQueuedCubeLoad(int x, int y, int z, Consumer<Cube> runnable) {
 		QueuedCube key = new QueuedCube(x, y, z, world);
 		AsyncCubeIOProvider task = cubeTasks.get(key);
 		if (task == null) {
@@ -224,23 +349,18 @@ public class AsyncWorldIOExecutor {
 		}
 
 		task.removeCallback(runnable);
-
-		// TODO this is not threadsafe
-		if (!task.hasCallbacks()) {
-			cubeTasks.remove(key);
-			pool.remove(task);
-		}
+		// if a thread already loads it, it stays queued so that nothing loads it twice, and the tick drops it
+		cancelIfUnwanted(task);
 	}
 
 	/**
 	 * Notify the loader that this column isn't needed anymore
 	 *
-	 * @param world The world
 	 * @param x column x position
 	 * @param z column z postion
 	 * @param runnable The runnable that should be dropped
 	 */
-	public static void dropQueuedColumnLoad(ICubicWorld world, int x, int z, Consumer<Column> runnable) {
+	public void dropQueuedColumnLoad(int x, int z, Consumer<Column> runnable) {
 		QueuedColumn key = new QueuedColumn(x, z, world);
 		AsyncColumnIOProvider task = columnTasks.get(key);
 		if (task == null) {
@@ -249,69 +369,294 @@ public class AsyncWorldIOExecutor {
 		}
 
 		task.removeCallback(runnable);
+		cancelIfUnwanted(task);
 
-		if (!task.hasCallbacks()) {
-			columnTasks.remove(key);
-			pool.remove(task);
+		// the cube loads still waiting for the column may not be wanted either
+		CubeLoadBatch batch = pendingBatches.get(key);
+		if (batch != null && !batch.updatePriority()) {
+			pendingBatches.remove(key);
 		}
+	}
 
-		//TODO: remove all queued cube tasks for that column
+	/**
+	 * Claim and forget a cube load that nobody wants anymore, so that no thread runs it. Main thread only.
+	 *
+	 * @return true if the load was cancelled, false if it's still wanted or a thread already started it
+	 */
+	boolean cancelIfUnwanted(AsyncCubeIOProvider task) {
+		if (task.isWanted() || !task.tryStart()) {
+			return false;
+		}
+		cubeTasks.remove(task.getKey(), task);
+		task.cancel();
+		return true;
+	}
+
+	/**
+	 * Claim and forget a column load that nobody wants anymore. Column loads read by a batch together with its cubes
+	 * aren't cancelled, the batch waits for them. Main thread only.
+	 *
+	 * @return true if the load was cancelled
+	 */
+	private boolean cancelIfUnwanted(AsyncColumnIOProvider task) {
+		if (task.isWanted() || !pool.remove(task) || !task.tryStart()) {
+			return false;
+		}
+		columnTasks.remove(task.getKey(), task);
+		task.cancel();
+		return true;
 	}
 
 	/**
 	 * Run a synchronous tick, finishing the loading process for load tasks that are ready
 	 */
-	public static void tick() {
-		Iterator<AsyncCubeIOProvider> cubeItr = cubeTasks.values().iterator();
-		while (cubeItr.hasNext()) {
-			AsyncCubeIOProvider task = cubeItr.next();
-			if (task.isFinished()) {
-				task.runSynchronousPart();
-
-				cubeItr.remove();
+	public void tick() {
+		long start = System.nanoTime();
+		long deadline = start + syncTickBudget*1000000L;
+		int count = 0;
+
+		// columns first, cubes can't be added to the world without their column
+		AsyncColumnIOProvider column;
+		while (System.nanoTime() < deadline && (column = finishedColumns.poll()) != null) {
+			finishedBacklog.decrementAndGet();
+			// loaded synchronously or dropped in the meantime if it's not there
+			if (columnTasks.remove(column.getKey(), column) && column.isWanted()) {
+				column.runSynchronousPart();
+				count++;
+			}
+		}
+
+		// while over the memory budget, cubes that no player waits for are held back until the chunk GC evicted unused
+		// cubes. Cubes that players see and synchronous loads don't wait
+		unwatchedCubesLeft = cache.getChunkGc().isOverMemoryBudget() ? CUBES_PER_TICK_OVER_MEMORY_BUDGET : Integer.MAX_VALUE;
+		Iterator<AsyncCubeIOProvider> deferredIt = deferredCubes.iterator();
+		while (System.nanoTime() < deadline && deferredIt.hasNext()) {
+			AsyncCubeIOProvider cube = deferredIt.next();
+			if (!mustWait(cube)) {
+				deferredIt.remove();
+				count += finishCube(cube);
 			}
 		}
+		AsyncCubeIOProvider cube;
+		while (System.nanoTime() < deadline && (cube = finishedCubes.poll()) != null) {
+			if (mustWait(cube)) {
+				deferredCubes.add(cube);
+			} else {
+				count += finishCube(cube);
+			}
+		}
+		syncPartNanos += System.nanoTime() - start;
+		syncPartCount += count;
+
+		// sorting drains and refills the whole queue, with many players moving that would happen every tick
+		if (ticksUntilPriorityUpdate > 0) {
+			ticksUntilPriorityUpdate--;
+		}
+		if (prioritiesChanged && ticksUntilPriorityUpdate == 0) {
+			prioritiesChanged = false;
+			ticksUntilPriorityUpdate = PRIORITY_UPDATE_INTERVAL;
+			updatePriorities();
+		}
 
-		Iterator<AsyncColumnIOProvider> columnIter = columnTasks.values().iterator();
-		while (columnIter.hasNext()) {
-			AsyncColumnIOProvider task = columnIter.next();
-			if (task.isFinished()) {
-				task.runSynchronousPart();
+		// columns loaded above may have completed some batches
+		Iterator<CubeLoadBatch> batchIter = pendingBatches.values().iterator();
+		while (batchIter.hasNext()) {
+			CubeLoadBatch batch = batchIter.next();
+			if (batch.canRun()) {
+				if (batch.updatePriority()) {
+					batch.setQueueTime(System.nanoTime());
+					batch.setSubmitted();
+					pool.execute(batch);
+				}
 
-				columnIter.remove();
+				batchIter.remove();
 			}
 		}
+
+		if (--ticksUntilSizing <= 0) {
+			ticksUntilSizing = SIZING_INTERVAL;
+			adjustPoolSize();
+		}
 	}
 
 	/**
-	 * Resize async loading pool thread count when players join or leave
-	 *
-	 * @param players New player count
+	 * @return true if the cube has to wait for the next tick, because no player waits for it and enough of those were
+	 * added this tick
 	 */
-	private static void adjustPoolSize(int players) {
-		pool.setCorePoolSize(Math.max(BASE_THREADS, players/PLAYERS_PER_THREAD));
+	private boolean mustWait(AsyncCubeIOProvider cube) {
+		if (cubeTasks.get(cube.getKey()) != cube || !cube.isWanted() || cube.isWatched()) {
+			return false;
+		}
+		if (unwatchedCubesLeft <= 0) {
+			return true;
+		}
+		unwatchedCubesLeft--;
+		return false;
 	}
 
-	public static void registerListeners() {
-		MinecraftForge.EVENT_BUS.register(new Object() {
+	/**
+	 * @return 1 if the cube was added to the world, 0 if it was loaded synchronously or dropped in the meantime
+	 */
+	private int finishCube(AsyncCubeIOProvider cube) {
+		finishedBacklog.decrementAndGet();
+		if (cubeTasks.remove(cube.getKey(), cube) && cube.isWanted()) {
+			cube.runSynchronousPart();
+			return 1;
+		}
+		return 0;
+	}
 
-			// Resize thread pool based on player count
-			@SubscribeEvent
-			public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent evt) {
-				MinecraftServer server = evt.player.getServer();
-				if (server != null) adjustPoolSize(server.getCurrentPlayerCount());
+	/**
+	 * Called by a task when its async part is finished, from the thread that ran it
+	 */
+	void onFinished(AsyncCubeIOProvider task) {
+		finishedBacklog.incrementAndGet();
+		finishedCubes.add(task);
+	}
+
+	/**
+	 * Called by a task when its async part is finished, from the thread that ran it
+	 */
+	void onFinished(AsyncColumnIOProvider task) {
+		finishedBacklog.incrementAndGet();
+		finishedColumns.add(task);
+	}
+
+	/**
+	 * Record how long a load waited in the queue and ran, from any thread
+	 */
+	void recordLoadLatency(long nanos) {
+		loadLatency.record(nanos);
+	}
+
+	/**
+	 * Notify the loader that the priorities of queued cube loads may have changed, for example because a player moved
+	 * into another cube. The queue is sorted again on the next tick, or later if it was sorted recently.
+	 */
+	public void markPrioritiesChanged() {
+		prioritiesChanged = true;
+	}
+
+	/**
+	 * Sort the queued tasks again by their current priority, and remove batches that aren't needed anymore
+	 */
+	private void updatePriorities() {
+		List<Runnable> queued = new ArrayList<>(queue.size());
+		queue.drainTo(queued);
+		for (Runnable task : queued) {
+			if (task instanceof CubeLoadBatch && !((CubeLoadBatch) task).updatePriority()) {
+				continue; // all of its cubes were dropped or loaded synchronously
 			}
+			queue.add(task);
+		}
+	}
 
-			@SubscribeEvent
-			public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent evt) {
-				MinecraftServer server = evt.player.getServer();
-				if (server != null) adjustPoolSize(server.getCurrentPlayerCount());
+	/**
+	 * Add a thread when loads queue up and are slow, remove one when nothing is queued and loads are fast. Extra
+	 * threads stop once they are idle for a while.
+	 */
+	private void adjustPoolSize() {
+		LatencyHistogram.Snapshot latency = loadLatency.takeSnapshot();
+		lastLoadLatency = latency;
+		long p95 = latency.getPercentileNanos(95);
+
+		int threads = pool.getCorePoolSize();
+		if (queue.size() > threads*QUEUED_TASKS_PER_THREAD && p95 > TARGET_LATENCY_NANOS && threads < MAX_THREADS) {
+			pool.setCorePoolSize(threads + 1);
+		} else if (queue.isEmpty() && p95 < TARGET_LATENCY_NANOS/2 && threads > BASE_THREADS) {
+			pool.setCorePoolSize(threads - 1);
+		}
+	}
+
+	/**
+	 * Drop the queued loads and wait for the running ones, so that nothing reads from the storage after it's closed.
+	 * Called when the world is unloaded.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+		try {
+			if (!pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				CubicChunks.LOGGER.warn("Cube loading threads of dimension {} didn't stop in {} seconds",
+					world.getProvider().getDimension(), SHUTDOWN_TIMEOUT_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (Exception e) {
+				CubicChunks.LOGGER.warn("Unable to unregister async loading statistics", e);
+			}
+			mbeanName = null;
+		}
+	}
+
+	private void registerMBean(int dimension) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("cubicchunks:type=AsyncWorldIOExecutor,dimension=" + dimension);
+			// the world may have been unloaded without unregistering it, for example after a crash
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
 			}
+			server.registerMBean(this, name);
+			this.mbeanName = name;
+		} catch (Exception e) {
+			CubicChunks.LOGGER.warn("Unable to register async loading statistics for dimension " + dimension, e);
+		}
+	}
+
+	@Override public int getQueueLength() {
+		return queue.size();
+	}
+
+	@Override public int getActiveThreads() {
+		return pool.getActiveCount();
+	}
+
+	@Override public int getTargetThreads() {
+		return pool.getCorePoolSize();
+	}
+
+	@Override public int getFinishedBacklog() {
+		return finishedBacklog.get();
+	}
+
+	@Override public long getSyncPartCount() {
+		return syncPartCount;
+	}
+
+	@Override public long getSyncPartNanos() {
+		return syncPartNanos;
+	}
+
+	@Override public long getLoadLatencyP50Nanos() {
+		return lastLoadLatency.getPercentileNanos(50);
+	}
+
+	@Override public long getLoadLatencyP95Nanos() {
+		return lastLoadLatency.getPercentileNanos(95);
+	}
+
+	@Override public long getLoadLatencyP99Nanos() {
+		return lastLoadLatency.getPercentileNanos(99);
+	}
+
+	public static void registerListeners() {
+		MinecraftForge.EVENT_BUS.register(new Object() {
 
 			// Sync completion of loading
 			@SubscribeEvent
 			public void onWorldTick(TickEvent.WorldTickEvent evt) {
-				tick();
+				if (evt.phase != TickEvent.Phase.START) {
+					return;
+				}
+				ICubicWorld world = (ICubicWorld) evt.world;
+				if (!world.isCubicWorld() || world.isRemote()) {
+					return;
+				}
+				((ICubicWorldServer) world).getCubeCache().getAsyncIOExecutor().tick();
 			}
 		});
 	}
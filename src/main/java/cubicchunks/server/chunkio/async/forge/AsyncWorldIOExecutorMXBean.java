@@ -0,0 +1,71 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.async.forge;
+
+/**
+ * Statistics of the async loading executor of one dimension, registered as
+ * {@code cubicchunks:type=AsyncWorldIOExecutor,dimension=<id>} in the platform MBean server.
+ */
+public interface AsyncWorldIOExecutorMXBean {
+
+	/**
+	 * @return number of column loads and cube load batches waiting for a thread
+	 */
+	int getQueueLength();
+
+	/**
+	 * @return number of threads currently loading
+	 */
+	int getActiveThreads();
+
+	/**
+	 * @return number of threads the executor currently aims for
+	 */
+	int getTargetThreads();
+
+	/**
+	 * @return number of loads waiting for the main thread to finish them
+	 */
+	int getFinishedBacklog();
+
+	/**
+	 * @return total number of loads finished on the main thread
+	 */
+	long getSyncPartCount();
+
+	/**
+	 * @return total time in nanoseconds spent on the main thread finishing loads
+	 */
+	long getSyncPartNanos();
+
+	/**
+	 * Load latency is the time from queueing a load until the async part is done, measured over the last
+	 * sizing period
+	 */
+	long getLoadLatencyP50Nanos();
+
+	long getLoadLatencyP95Nanos();
+
+	long getLoadLatencyP99Nanos();
+}
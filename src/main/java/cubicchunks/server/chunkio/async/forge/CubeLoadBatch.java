@@ -0,0 +1,189 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.async.forge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.CubeIO;
+import cubicchunks.world.column.Column;
+
+/**
+ * Cube loads of one column that were queued in the same tick. They are read from storage together, which is a lot
+ * faster than reading them one by one from different threads. If the column isn't loaded yet, the batch reads it
+ * first, in the same pass.
+ * <p>
+ * Tasks are only added from the main thread before the batch is submitted. Tasks that are loaded synchronously or
+ * dropped in the meantime are already claimed, and skipped.
+ */
+class CubeLoadBatch implements IPrioritizedTask {
+	private final QueuedColumn columnInfo;
+	private final CubeIO loader;
+	private final AsyncWorldIOExecutor executor;
+	private final List<AsyncCubeIOProvider> tasks = new ArrayList<>();
+
+	// set on the main thread, column is written before hasColumn
+	private volatile boolean hasColumn = false;
+	@Nullable private volatile Column column;
+	// column load run by this batch before the cubes, if the column isn't loaded yet
+	@Nullable private AsyncColumnIOProvider columnTask;
+	// main thread only
+	private boolean submitted = false;
+	private volatile double priority;
+	private volatile long queueTime;
+
+	CubeLoadBatch(QueuedColumn columnInfo, CubeIO loader, AsyncWorldIOExecutor executor) {
+		this.columnInfo = columnInfo;
+		this.loader = loader;
+		this.executor = executor;
+	}
+
+	void add(AsyncCubeIOProvider task) {
+		this.tasks.add(task);
+		if (hasColumn) {
+			task.setColumn(column);
+		}
+	}
+
+	/**
+	 * Set the loaded column. Main thread only.
+	 *
+	 * @return true if the batch was submitted before and some cube loads still wait for it to run again, because it
+	 * couldn't read the column
+	 */
+	boolean setColumn(@Nullable Column column) {
+		this.column = column;
+		this.hasColumn = true;
+		boolean waiting = false;
+		for (AsyncCubeIOProvider task : tasks) {
+			task.setColumn(column);
+			waiting |= !task.isStarted();
+		}
+		return submitted && waiting;
+	}
+
+	/**
+	 * Let this batch read the column before the cubes. The task must not be queued in the pool. Main thread only.
+	 */
+	void setColumnTask(AsyncColumnIOProvider columnTask) {
+		this.columnTask = columnTask;
+	}
+
+	/**
+	 * @return true if the column is known or read by this batch, and the batch can be submitted
+	 */
+	boolean canRun() {
+		return this.hasColumn || this.columnTask != null;
+	}
+
+	void setSubmitted() {
+		this.submitted = true;
+	}
+
+	/**
+	 * Recompute the priority from the cube loads that are still needed, and cancel the ones nobody wants anymore.
+	 * Main thread only, the batch must not be in the queue while its priority changes.
+	 *
+	 * @return false if none of the cube loads are needed anymore, and the batch doesn't have to run
+	 */
+	boolean updatePriority() {
+		double min = Double.MAX_VALUE;
+		boolean needed = false;
+		for (AsyncCubeIOProvider task : tasks) {
+			if (!task.isStarted() && !executor.cancelIfUnwanted(task)) {
+				needed = true;
+				min = Math.min(min, task.computePriority());
+			}
+		}
+		if (!needed && columnTask != null && !columnTask.isStarted()) {
+			// something else still waits for the column
+			needed = true;
+			min = 0;
+		}
+		this.priority = min;
+		return needed;
+	}
+
+	void setQueueTime(long nanoTime) {
+		this.queueTime = nanoTime;
+	}
+
+	@Override
+	public double getPriority() {
+		return this.priority;
+	}
+
+	@Override
+	public void run() {
+		boolean columnKnown = this.hasColumn;
+		Column column = columnKnown ? this.column : readColumn();
+		if (!columnKnown && column == null) {
+			// not stored, it's generated on the main thread and the batch is submitted again once it's there
+			return;
+		}
+		List<AsyncCubeIOProvider> claimed = new ArrayList<>(tasks.size());
+		for (AsyncCubeIOProvider task : tasks) {
+			if (task.tryStart()) {
+				claimed.add(task);
+			}
+		}
+		if (claimed.isEmpty()) {
+			return;
+		}
+		CubeIO.PartialCubeData[] cubes = null;
+		try {
+			if (column != null) {
+				int[] cubeYs = new int[claimed.size()];
+				for (int i = 0; i < cubeYs.length; i++) {
+					cubeYs[i] = claimed.get(i).getY();
+				}
+				cubes = loader.loadCubesAsyncPart(column, cubeYs);
+			}
+		} catch (Throwable t) {
+			CubicChunks.LOGGER.error("Could not load cubes in {} @ column ({}, {})", columnInfo.world, columnInfo.x, columnInfo.z, t);
+		} finally {
+			// always finish the claimed tasks, something may be waiting for them
+			for (int i = 0; i < claimed.size(); i++) {
+				claimed.get(i).finish(cubes == null ? null : cubes[i]);
+			}
+			executor.recordLoadLatency(System.nanoTime() - queueTime);
+		}
+	}
+
+	@Nullable
+	private Column readColumn() {
+		AsyncColumnIOProvider task = this.columnTask;
+		assert task != null;
+		if (task.tryStart()) {
+			task.runAsyncPart();
+		} else {
+			// loaded synchronously in the meantime
+			task.awaitFinished();
+		}
+		return task.get();
+	}
+}
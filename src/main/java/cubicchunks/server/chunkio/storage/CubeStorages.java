@@ -0,0 +1,86 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Locates and opens the cube storage of a dimension.
+ */
+public final class CubeStorages {
+
+	private CubeStorages() {
+		throw new RuntimeException();
+	}
+
+	public static File getMapDBFile(File worldDirectory, int dimension) {
+		return new File(worldDirectory, String.format("cubes.dim%d.db", dimension));
+	}
+
+	public static Path getRegionDirectory(File worldDirectory, int dimension) {
+		return worldDirectory.toPath().resolve(String.format("cubes.dim%d", dimension));
+	}
+
+	public static Path getJournalFile(File worldDirectory, int dimension) {
+		return worldDirectory.toPath().resolve(String.format("cubes.dim%d.journal", dimension));
+	}
+
+	public static Path getIndexFile(File worldDirectory, int dimension) {
+		return worldDirectory.toPath().resolve(String.format("cubes.dim%d.index", dimension));
+	}
+
+	/**
+	 * Opens the storage for a dimension. Worlds that only have the old MapDB file keep using it until they are
+	 * converted with {@link MapDBToRegionConverter}, everything else uses region files.
+	 * <p>
+	 * Writes go through a {@link JournaledCubeStorage}, so anything left in the journal by a crash is written to the
+	 * storage here.
+	 *
+	 * @param worldDirectory the world save directory
+	 * @param dimension the dimension id
+	 *
+	 * @return the cube storage
+	 *
+	 * @throws IOException if the storage can't be opened
+	 */
+	public static JournaledCubeStorage open(File worldDirectory, int dimension) throws IOException {
+		File mapDBFile = getMapDBFile(worldDirectory, dimension);
+		Path regionDirectory = getRegionDirectory(worldDirectory, dimension);
+		ICubeStorage storage;
+		if (mapDBFile.exists() && !Files.exists(regionDirectory)) {
+			storage = new MapDBCubeStorage(mapDBFile);
+		} else {
+			storage = new RegionCubeStorage(regionDirectory);
+		}
+		try {
+			return new JournaledCubeStorage(storage, getJournalFile(worldDirectory, dimension));
+		} catch (IOException | RuntimeException e) {
+			storage.close();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.AddressTools;
+
+/**
+ * Backend that stores already serialized and compressed cubes and columns.
+ * <p>
+ * Implementations must be safe to use from multiple threads at the same time: the save thread writes
+ * while async load threads read.
+ */
+public interface ICubeStorage extends Closeable {
+
+	/**
+	 * Reads the stored bytes of a column
+	 *
+	 * @param columnX column x position
+	 * @param columnZ column z position
+	 *
+	 * @return the stored bytes, or null if the column doesn't exist
+	 *
+	 * @throws IOException if reading fails
+	 */
+	@Nullable
+	byte[] readColumn(int columnX, int columnZ) throws IOException;
+
+	/**
+	 * Reads the stored bytes of a cube
+	 *
+	 * @param cubeX cube x position
+	 * @param cubeY cube y position
+	 * @param cubeZ cube z position
+	 *
+	 * @return the stored bytes, or null if the cube doesn't exist
+	 *
+	 * @throws IOException if reading fails
+	 */
+	@Nullable
+	byte[] readCube(int cubeX, int cubeY, int cubeZ) throws IOException;
+
+	/**
+	 * Reads the stored bytes of many cubes at once. Cubes that don't exist are skipped. Implementations can reorder
+	 * the reads to follow the layout of the data on disk, the consumer is called in unspecified order.
+	 *
+	 * @param cubeAddresses cube positions, as {@link cubicchunks.util.AddressTools#getAddress(int, int, int)}
+	 * @param consumer called for every cube that exists
+	 *
+	 * @throws IOException if reading fails or the consumer throws it
+	 */
+	default void readCubes(long[] cubeAddresses, CubeConsumer consumer) throws IOException {
+		for (long address : cubeAddresses) {
+			int x = AddressTools.getX(address), y = AddressTools.getY(address), z = AddressTools.getZ(address);
+			byte[] data = readCube(x, y, z);
+			if (data != null) {
+				consumer.accept(x, y, z, data);
+			}
+		}
+	}
+
+	/**
+	 * Stores a column, replacing the old data if there was any. The data may not be on disk until {@link #flush()}
+	 * is called.
+	 *
+	 * @param columnX column x position
+	 * @param columnZ column z position
+	 * @param data the column data
+	 *
+	 * @throws IOException if writing fails
+	 */
+	void writeColumn(int columnX, int columnZ, byte[] data) throws IOException;
+
+	/**
+	 * Stores a cube, replacing the old data if there was any. The data may not be on disk until {@link #flush()}
+	 * is called.
+	 *
+	 * @param cubeX cube x position
+	 * @param cubeY cube y position
+	 * @param cubeZ cube z position
+	 * @param data the cube data
+	 *
+	 * @throws IOException if writing fails
+	 */
+	void writeCube(int cubeX, int cubeY, int cubeZ, byte[] data) throws IOException;
+
+	/**
+	 * Calls the consumer for every stored column. Order is unspecified.
+	 *
+	 * @param consumer the consumer
+	 *
+	 * @throws IOException if reading fails or the consumer throws it
+	 */
+	void forEachColumn(ColumnConsumer consumer) throws IOException;
+
+	/**
+	 * Calls the consumer for every stored cube. Order is unspecified.
+	 *
+	 * @param consumer the consumer
+	 *
+	 * @throws IOException if reading fails or the consumer throws it
+	 */
+	void forEachCube(CubeConsumer consumer) throws IOException;
+
+	/**
+	 * Makes sure all previous writes are on disk
+	 *
+	 * @throws IOException if writing fails
+	 */
+	void flush() throws IOException;
+
+	boolean isClosed();
+
+	@FunctionalInterface
+	interface ColumnConsumer {
+		void accept(int columnX, int columnZ, byte[] data) throws IOException;
+	}
+
+	@FunctionalInterface
+	interface CubeConsumer {
+		void accept(int cubeX, int cubeY, int cubeZ, byte[] data) throws IOException;
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.AddressTools;
+
+/**
+ * Cube storage that appends every write to a journal file before passing it on to another storage.
+ * <p>
+ * Writes are kept in memory until {@link #flush()} forces the journal to disk, which is a single sequential write for
+ * the whole batch. Only then they are passed on to the other storage, so the other storage is never changed by a write
+ * that isn't in the journal on disk. Reads see the kept writes. The other storage is flushed only once the journal grows
+ * above {@link #CHECKPOINT_BYTES} or when closing, after that the journal starts over. When the server crashes,
+ * everything written since the last checkpoint is still in the journal and is written again when the storage is opened
+ * next time, including writes to the other storage that were cut off.
+ * <p>
+ * Each journal record is: type byte, cube or column position, data length, data, and a CRC32 of all of it. Every
+ * {@link #flush()} ends the batch with a commit record. Records are buffered, so parts of a batch can reach the file
+ * before the batch is committed. Replay only goes up to the last commit record and stops at the first record that is
+ * cut off or doesn't match its checksum, which is what a crash in the middle of appending leaves behind. So a batch is
+ * replayed either completely or not at all, and nothing is replayed that the caller didn't flush.
+ */
+public class JournaledCubeStorage implements ICubeStorage {
+
+	/**
+	 * The journal size at which the other storage is flushed and the journal emptied
+	 */
+	public static final long CHECKPOINT_BYTES = 64*1024*1024;
+
+	private static final byte RECORD_COLUMN = 0;
+	private static final byte RECORD_CUBE = 1;
+	private static final byte RECORD_COMMIT = 2;
+	// type, position, length and checksum
+	private static final int RECORD_OVERHEAD = 1 + 3*4 + 4 + 4;
+	private static final byte[] NO_DATA = new byte[0];
+
+	private final ICubeStorage storage;
+	private final FileChannel journal;
+	private final CRC32 crc = new CRC32();
+	private DataOutputStream journalOut;
+	// whether records were appended since the last commit record
+	private boolean uncommitted = false;
+
+	// writes that are in the journal, but maybe not on disk yet. Concurrent, because load threads read them
+	private final Map<Long, byte[]> pendingCubes = new ConcurrentHashMap<>();
+	private final Map<Long, byte[]> pendingColumns = new ConcurrentHashMap<>();
+
+	public JournaledCubeStorage(ICubeStorage storage, Path journalFile) throws IOException {
+		this.storage = storage;
+		this.journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (replay()) {
+				storage.flush();
+			}
+			this.journal.truncate(0);
+			this.journal.force(true);
+		} catch (IOException | RuntimeException e) {
+			this.journal.close();
+			throw e;
+		}
+		this.journalOut = newJournalOutput();
+	}
+
+	/**
+	 * @return the storage the journaled writes end up in
+	 */
+	public ICubeStorage getStorage() {
+		return this.storage;
+	}
+
+	@Override
+	@Nullable
+	public byte[] readColumn(int columnX, int columnZ) throws IOException {
+		byte[] pending = this.pendingColumns.get(AddressTools.getAddress(columnX, columnZ));
+		return pending != null ? pending : this.storage.readColumn(columnX, columnZ);
+	}
+
+	@Override
+	@Nullable
+	public byte[] readCube(int cubeX, int cubeY, int cubeZ) throws IOException {
+		byte[] pending = this.pendingCubes.get(AddressTools.getAddress(cubeX, cubeY, cubeZ));
+		return pending != null ? pending : this.storage.readCube(cubeX, cubeY, cubeZ);
+	}
+
+	@Override
+	public void readCubes(long[] cubeAddresses, CubeConsumer consumer) throws IOException {
+		if (this.pendingCubes.isEmpty()) {
+			this.storage.readCubes(cubeAddresses, consumer);
+			return;
+		}
+		List<Long> stored = new ArrayList<>(cubeAddresses.length);
+		for (long address : cubeAddresses) {
+			byte[] pending = this.pendingCubes.get(address);
+			if (pending != null) {
+				consumer.accept(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address), pending);
+			} else {
+				stored.add(address);
+			}
+		}
+		this.storage.readCubes(stored.stream().mapToLong(Long::longValue).toArray(), consumer);
+	}
+
+	@Override
+	public synchronized void writeColumn(int columnX, int columnZ, byte[] data) throws IOException {
+		appendRecord(RECORD_COLUMN, columnX, 0, columnZ, data);
+		this.pendingColumns.put(AddressTools.getAddress(columnX, columnZ), data);
+	}
+
+	@Override
+	public synchronized void writeCube(int cubeX, int cubeY, int cubeZ, byte[] data) throws IOException {
+		appendRecord(RECORD_CUBE, cubeX, cubeY, cubeZ, data);
+		this.pendingCubes.put(AddressTools.getAddress(cubeX, cubeY, cubeZ), data);
+	}
+
+	@Override
+	public void forEachColumn(ColumnConsumer consumer) throws IOException {
+		flush();
+		this.storage.forEachColumn(consumer);
+	}
+
+	@Override
+	public void forEachCube(CubeConsumer consumer) throws IOException {
+		flush();
+		this.storage.forEachCube(consumer);
+	}
+
+	/**
+	 * Commits all previous writes, forces them to the journal on disk and passes them on to the other storage. Flushes
+	 * the other storage when the journal is big enough.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		commit();
+		applyPending();
+		if (this.journal.size() >= CHECKPOINT_BYTES) {
+			checkpoint();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return this.storage.isClosed();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!this.journal.isOpen()) {
+			return;
+		}
+		try {
+			commit();
+			applyPending();
+			checkpoint();
+		} finally {
+			try {
+				this.journal.close();
+			} finally {
+				this.storage.close();
+			}
+		}
+	}
+
+	private void commit() throws IOException {
+		if (this.uncommitted) {
+			appendRecord(RECORD_COMMIT, 0, 0, 0, NO_DATA);
+			this.uncommitted = false;
+		}
+		this.journalOut.flush();
+		this.journal.force(false);
+	}
+
+	/**
+	 * Writes everything that is in the journal on disk to the other storage. Entries are only removed when they weren't
+	 * replaced meanwhile, so a read finds either the pending or the written data.
+	 */
+	private void applyPending() throws IOException {
+		for (Map.Entry<Long, byte[]> entry : this.pendingColumns.entrySet()) {
+			long address = entry.getKey();
+			this.storage.writeColumn(AddressTools.getX(address), AddressTools.getZ(address), entry.getValue());
+			this.pendingColumns.remove(address, entry.getValue());
+		}
+		for (Map.Entry<Long, byte[]> entry : this.pendingCubes.entrySet()) {
+			long address = entry.getKey();
+			this.storage.writeCube(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address), entry.getValue());
+			this.pendingCubes.remove(address, entry.getValue());
+		}
+	}
+
+	/**
+	 * Flushes the other storage, after that nothing in the journal is needed anymore
+	 */
+	private void checkpoint() throws IOException {
+		this.storage.flush();
+		this.journal.truncate(0);
+		this.journal.position(0);
+		this.journalOut = newJournalOutput();
+	}
+
+	private void appendRecord(byte type, int x, int y, int z, byte[] data) throws IOException {
+		int checksum = checksum(type, x, y, z, data);
+
+		DataOutputStream out = this.journalOut;
+		out.writeByte(type);
+		out.writeInt(x);
+		out.writeInt(y);
+		out.writeInt(z);
+		out.writeInt(data.length);
+		out.write(data);
+		out.writeInt(checksum);
+		this.uncommitted = type != RECORD_COMMIT;
+	}
+
+	private int checksum(byte type, int x, int y, int z, byte[] data) {
+		crc.reset();
+		crc.update(type);
+		updateCrc(x);
+		updateCrc(y);
+		updateCrc(z);
+		updateCrc(data.length);
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+
+	private void updateCrc(int value) {
+		crc.update(value >>> 24);
+		crc.update(value >>> 16);
+		crc.update(value >>> 8);
+		crc.update(value);
+	}
+
+	/**
+	 * Writes all committed records of the journal to the other storage
+	 *
+	 * @return true if anything was written
+	 */
+	private boolean replay() throws IOException {
+		long committed = readJournal(Long.MAX_VALUE, false);
+		if (committed == 0) {
+			return false;
+		}
+		readJournal(committed, true);
+		return true;
+	}
+
+	/**
+	 * Reads the complete records at the start of the journal
+	 *
+	 * @param end position to stop reading at
+	 * @param apply whether to write the records to the other storage
+	 *
+	 * @return position after the last commit record that was read
+	 */
+	private long readJournal(long end, boolean apply) throws IOException {
+		this.journal.position(0);
+		// don't close it, that would close the journal
+		InputStream in = Channels.newInputStream(this.journal);
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		long position = 0;
+		long committed = 0;
+		try {
+			while (position < end) {
+				byte type = data.readByte();
+				int x = data.readInt();
+				int y = data.readInt();
+				int z = data.readInt();
+				int length = data.readInt();
+				boolean valid = type == RECORD_COMMIT ? length == 0
+					: (type == RECORD_CUBE || type == RECORD_COLUMN) && length > 0 && length <= this.journal.size();
+				if (!valid) {
+					break;
+				}
+				byte[] bytes = new byte[length];
+				data.readFully(bytes);
+				if (data.readInt() != checksum(type, x, y, z, bytes)) {
+					break;
+				}
+				position += RECORD_OVERHEAD + length;
+				if (type == RECORD_COMMIT) {
+					committed = position;
+				} else if (apply && type == RECORD_CUBE) {
+					this.storage.writeCube(x, y, z, bytes);
+				} else if (apply) {
+					this.storage.writeColumn(x, z, bytes);
+				}
+			}
+		} catch (EOFException e) {
+			// the last record was cut off
+		}
+		this.journal.position(0);
+		return committed;
+	}
+
+	private DataOutputStream newJournalOutput() {
+		return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.journal), 64*1024));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.AddressTools;
+
+/**
+ * The original cube storage, one MapDB file per dimension with all cubes in a single hash map.
+ */
+public class MapDBCubeStorage implements ICubeStorage {
+
+	private static final long kB = 1024;
+	private static final long MB = kB*1024;
+
+	private final DB db;
+	private final ConcurrentMap<Long, byte[]> columns;
+	private final ConcurrentMap<Long, byte[]> cubes;
+
+	public MapDBCubeStorage(File file) {
+		file.getParentFile().mkdirs();
+
+		this.db = DBMaker.
+			fileDB(file).
+			fileMmapEnable().
+			allocateStartSize(5*MB).
+			allocateIncrement(1*MB).
+			make();
+		// NOTE: could set different cache settings
+		// the default is a hash map cache with 32768 entries
+		// see: http://www.mapdb.org/features.html
+
+		this.columns = this.db.hashMap("columns", Serializer.LONG_PACKED, Serializer.BYTE_ARRAY).createOrOpen();
+		this.cubes = this.db.hashMap("chunks", Serializer.LONG, Serializer.BYTE_ARRAY).createOrOpen();
+	}
+
+	@Override
+	@Nullable
+	public byte[] readColumn(int columnX, int columnZ) {
+		return this.columns.get(AddressTools.getAddress(columnX, columnZ));
+	}
+
+	@Override
+	@Nullable
+	public byte[] readCube(int cubeX, int cubeY, int cubeZ) {
+		return this.cubes.get(AddressTools.getAddress(cubeX, cubeY, cubeZ));
+	}
+
+	@Override
+	public void writeColumn(int columnX, int columnZ, byte[] data) {
+		this.columns.put(AddressTools.getAddress(columnX, columnZ), data);
+	}
+
+	@Override
+	public void writeCube(int cubeX, int cubeY, int cubeZ, byte[] data) {
+		this.cubes.put(AddressTools.getAddress(cubeX, cubeY, cubeZ), data);
+	}
+
+	@Override
+	public void forEachColumn(ColumnConsumer consumer) throws IOException {
+		for (Map.Entry<Long, byte[]> entry : this.columns.entrySet()) {
+			long address = entry.getKey();
+			consumer.accept(AddressTools.getX(address), AddressTools.getZ(address), entry.getValue());
+		}
+	}
+
+	@Override
+	public void forEachCube(CubeConsumer consumer) throws IOException {
+		for (Map.Entry<Long, byte[]> entry : this.cubes.entrySet()) {
+			long address = entry.getKey();
+			consumer.accept(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address), entry.getValue());
+		}
+	}
+
+	@Override
+	public void flush() {
+		this.db.commit();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return this.db.isClosed();
+	}
+
+	@Override
+	public void close() {
+		this.db.close();
+	}
+}
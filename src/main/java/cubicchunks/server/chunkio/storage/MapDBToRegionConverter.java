@@ -0,0 +1,96 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline tool that copies all cubes and columns of a dimension from the old MapDB file into region files.
+ * <p>
+ * Usage: {@code java -cp <classpath> cubicchunks.server.chunkio.storage.MapDBToRegionConverter <world directory> <dimension>}
+ * <p>
+ * The server must not be running. The MapDB file is left untouched, once the region files exist they are used instead
+ * of it, so the MapDB file can be removed after checking that the world loads correctly.
+ */
+public class MapDBToRegionConverter {
+
+	private static final int PROGRESS_INTERVAL = 10000;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: MapDBToRegionConverter <world directory> <dimension>");
+			System.exit(1);
+			return;
+		}
+		File worldDirectory = new File(args[0]);
+		int dimension = Integer.parseInt(args[1]);
+
+		File mapDBFile = CubeStorages.getMapDBFile(worldDirectory, dimension);
+		Path regionDirectory = CubeStorages.getRegionDirectory(worldDirectory, dimension);
+		if (!mapDBFile.exists()) {
+			System.err.println("No MapDB cube database at " + mapDBFile);
+			System.exit(1);
+			return;
+		}
+		if (Files.exists(regionDirectory)) {
+			System.err.println("Region directory " + regionDirectory + " already exists, refusing to overwrite it");
+			System.exit(1);
+			return;
+		}
+		// writes that only made it into the journal before a crash have to be in the MapDB file before copying it
+		new JournaledCubeStorage(new MapDBCubeStorage(mapDBFile), CubeStorages.getJournalFile(worldDirectory, dimension)).close();
+		convert(mapDBFile, regionDirectory);
+	}
+
+	public static void convert(File mapDBFile, Path regionDirectory) throws IOException {
+		MapDBCubeStorage source = new MapDBCubeStorage(mapDBFile);
+		// write into a temporary directory first, so that a half converted world is never picked up by the server
+		Path tempDirectory = regionDirectory.resolveSibling(regionDirectory.getFileName() + ".converting");
+		try (RegionCubeStorage target = new RegionCubeStorage(tempDirectory)) {
+			AtomicInteger columns = new AtomicInteger();
+			source.forEachColumn((x, z, data) -> {
+				target.writeColumn(x, z, data);
+				if (columns.incrementAndGet()%PROGRESS_INTERVAL == 0) {
+					System.out.println("Converted " + columns.get() + " columns");
+				}
+			});
+			AtomicInteger cubes = new AtomicInteger();
+			source.forEachCube((x, y, z, data) -> {
+				target.writeCube(x, y, z, data);
+				if (cubes.incrementAndGet()%PROGRESS_INTERVAL == 0) {
+					System.out.println("Converted " + cubes.get() + " cubes");
+				}
+			});
+			target.flush();
+			System.out.println("Converted " + columns.get() + " columns and " + cubes.get() + " cubes");
+		} finally {
+			source.close();
+		}
+		Files.move(tempDirectory, regionDirectory);
+	}
+}
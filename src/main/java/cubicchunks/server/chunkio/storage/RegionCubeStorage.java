@@ -0,0 +1,395 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.AddressTools;
+
+/**
+ * Cube storage that groups cubes into region files of 16x16x16 cubes and columns into region files of 32x32 columns.
+ * <p>
+ * Neighbouring cubes end up in the same file, and different regions can be read and written in parallel. A whole
+ * region can be deleted by removing a single file.
+ */
+public class RegionCubeStorage implements ICubeStorage {
+
+	public static final int CUBE_REGION_BITS = 4;
+	public static final int COLUMN_REGION_BITS = 5;
+
+	private static final int CUBE_REGION_SIZE = 1 << CUBE_REGION_BITS;
+	private static final int COLUMN_REGION_SIZE = 1 << COLUMN_REGION_BITS;
+	private static final int CUBE_REGION_MASK = CUBE_REGION_SIZE - 1;
+	private static final int COLUMN_REGION_MASK = COLUMN_REGION_SIZE - 1;
+
+	private static final String CUBE_REGION_EXT = ".3dr";
+	private static final String COLUMN_REGION_EXT = ".2dr";
+
+	/**
+	 * The maximum amount of region files of each type kept open at once
+	 */
+	private static final int MAX_OPEN_REGIONS = 256;
+
+	private final RegionCache cubeRegions;
+	private final RegionCache columnRegions;
+
+	private volatile boolean closed = false;
+
+	public RegionCubeStorage(Path directory) throws IOException {
+		this.cubeRegions = new RegionCache(directory.resolve("region3d"), CUBE_REGION_EXT,
+			CUBE_REGION_SIZE*CUBE_REGION_SIZE*CUBE_REGION_SIZE);
+		this.columnRegions = new RegionCache(directory.resolve("region2d"), COLUMN_REGION_EXT,
+			COLUMN_REGION_SIZE*COLUMN_REGION_SIZE);
+	}
+
+	@Override
+	@Nullable
+	public byte[] readColumn(int columnX, int columnZ) throws IOException {
+		long key = columnRegionKey(columnX, columnZ);
+		return columnRegions.apply(key, false, region -> region.read(columnIndex(columnX, columnZ)));
+	}
+
+	@Override
+	@Nullable
+	public byte[] readCube(int cubeX, int cubeY, int cubeZ) throws IOException {
+		long key = cubeRegionKey(cubeX, cubeY, cubeZ);
+		return cubeRegions.apply(key, false, region -> region.read(cubeIndex(cubeX, cubeY, cubeZ)));
+	}
+
+	/**
+	 * Groups the cubes by region file, and reads each group in the order it's stored in the file while holding the
+	 * region only once.
+	 */
+	@Override
+	public void readCubes(long[] cubeAddresses, CubeConsumer consumer) throws IOException {
+		Map<Long, IntArrayList> byRegion = new LinkedHashMap<>();
+		for (long address : cubeAddresses) {
+			int x = AddressTools.getX(address), y = AddressTools.getY(address), z = AddressTools.getZ(address);
+			byRegion.computeIfAbsent(cubeRegionKey(x, y, z), k -> new IntArrayList()).add(cubeIndex(x, y, z));
+		}
+		for (Map.Entry<Long, IntArrayList> entry : byRegion.entrySet()) {
+			long key = entry.getKey();
+			int[] indices = entry.getValue().toArray();
+			cubeRegions.apply(key, false, region -> {
+				region.readAll(indices, (index, data) -> consumer.accept(
+					(AddressTools.getX(key) << CUBE_REGION_BITS) | (index >> 2*CUBE_REGION_BITS),
+					(AddressTools.getY(key) << CUBE_REGION_BITS) | ((index >> CUBE_REGION_BITS) & CUBE_REGION_MASK),
+					(AddressTools.getZ(key) << CUBE_REGION_BITS) | (index & CUBE_REGION_MASK),
+					data));
+				return null;
+			});
+		}
+	}
+
+	@Override
+	public void writeColumn(int columnX, int columnZ, byte[] data) throws IOException {
+		long key = columnRegionKey(columnX, columnZ);
+		columnRegions.apply(key, true, region -> {
+			region.write(columnIndex(columnX, columnZ), data);
+			return null;
+		});
+	}
+
+	@Override
+	public void writeCube(int cubeX, int cubeY, int cubeZ, byte[] data) throws IOException {
+		long key = cubeRegionKey(cubeX, cubeY, cubeZ);
+		cubeRegions.apply(key, true, region -> {
+			region.write(cubeIndex(cubeX, cubeY, cubeZ), data);
+			return null;
+		});
+	}
+
+	/**
+	 * Removes a single cube
+	 *
+	 * @param cubeX cube x position
+	 * @param cubeY cube y position
+	 * @param cubeZ cube z position
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void removeCube(int cubeX, int cubeY, int cubeZ) throws IOException {
+		long key = cubeRegionKey(cubeX, cubeY, cubeZ);
+		cubeRegions.apply(key, false, region -> {
+			region.remove(cubeIndex(cubeX, cubeY, cubeZ));
+			return null;
+		});
+	}
+
+	/**
+	 * Deletes the whole region file that contains all cubes in the given region.
+	 * Region coordinates are cube coordinates shifted right by {@link #CUBE_REGION_BITS}.
+	 *
+	 * @param regionX region x position
+	 * @param regionY region y position
+	 * @param regionZ region z position
+	 *
+	 * @return true if the region existed
+	 *
+	 * @throws IOException if the file can't be deleted
+	 */
+	public boolean deleteCubeRegion(int regionX, int regionY, int regionZ) throws IOException {
+		return cubeRegions.delete(AddressTools.getAddress(regionX, regionY, regionZ));
+	}
+
+	/**
+	 * Region files don't store when single cubes were saved, so the last modification time of the whole region is the
+	 * closest thing to the time the cube was last saved.
+	 *
+	 * @param cubeX cube x position
+	 * @param cubeY cube y position
+	 * @param cubeZ cube z position
+	 *
+	 * @return the last modification time of the region file the cube is stored in, or null if it doesn't exist
+	 *
+	 * @throws IOException if the file attributes can't be read
+	 */
+	@Nullable
+	public FileTime getCubeRegionModifiedTime(int cubeX, int cubeY, int cubeZ) throws IOException {
+		Path path = cubeRegions.getPath(cubeRegionKey(cubeX, cubeY, cubeZ));
+		return Files.exists(path) ? Files.getLastModifiedTime(path) : null;
+	}
+
+	@Override
+	public void forEachColumn(ColumnConsumer consumer) throws IOException {
+		columnRegions.forEachEntry((regionKey, index, data) -> consumer.accept(
+			(AddressTools.getX(regionKey) << COLUMN_REGION_BITS) | (index >> COLUMN_REGION_BITS),
+			(AddressTools.getZ(regionKey) << COLUMN_REGION_BITS) | (index & COLUMN_REGION_MASK),
+			data));
+	}
+
+	@Override
+	public void forEachCube(CubeConsumer consumer) throws IOException {
+		cubeRegions.forEachEntry((regionKey, index, data) -> consumer.accept(
+			(AddressTools.getX(regionKey) << CUBE_REGION_BITS) | (index >> 2*CUBE_REGION_BITS),
+			(AddressTools.getY(regionKey) << CUBE_REGION_BITS) | ((index >> CUBE_REGION_BITS) & CUBE_REGION_MASK),
+			(AddressTools.getZ(regionKey) << CUBE_REGION_BITS) | (index & CUBE_REGION_MASK),
+			data));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		cubeRegions.flush();
+		columnRegions.flush();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			cubeRegions.close();
+		} finally {
+			columnRegions.close();
+		}
+	}
+
+	private static long cubeRegionKey(int cubeX, int cubeY, int cubeZ) {
+		return AddressTools.getAddress(cubeX >> CUBE_REGION_BITS, cubeY >> CUBE_REGION_BITS, cubeZ >> CUBE_REGION_BITS);
+	}
+
+	private static long columnRegionKey(int columnX, int columnZ) {
+		return AddressTools.getAddress(columnX >> COLUMN_REGION_BITS, columnZ >> COLUMN_REGION_BITS);
+	}
+
+	private static int cubeIndex(int cubeX, int cubeY, int cubeZ) {
+		return (cubeX & CUBE_REGION_MASK) << 2*CUBE_REGION_BITS
+			| (cubeY & CUBE_REGION_MASK) << CUBE_REGION_BITS
+			| (cubeZ & CUBE_REGION_MASK);
+	}
+
+	private static int columnIndex(int columnX, int columnZ) {
+		return (columnX & COLUMN_REGION_MASK) << COLUMN_REGION_BITS | (columnZ & COLUMN_REGION_MASK);
+	}
+
+	@FunctionalInterface
+	private interface RegionAction<T> {
+		T apply(RegionFile region) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface RegionEntryConsumer {
+		void accept(long regionKey, int index, byte[] data) throws IOException;
+	}
+
+	/**
+	 * Keeps the most recently used region files of one type open.
+	 * <p>
+	 * The cache lock is only held while looking up or opening a region file, never while reading or writing it. A
+	 * region evicted while in use is closed only after the current operation finishes (both lock the region), the
+	 * next operation opens it again.
+	 */
+	private static final class RegionCache {
+		private final Path directory;
+		private final String extension;
+		private final int entryCount;
+
+		private final LinkedHashMap<Long, RegionFile> regions = new LinkedHashMap<>(16, 0.75f, true);
+
+		RegionCache(Path directory, String extension, int entryCount) throws IOException {
+			this.directory = directory;
+			this.extension = extension;
+			this.entryCount = entryCount;
+			Files.createDirectories(directory);
+		}
+
+		/**
+		 * Runs the action with the region file for the given key.
+		 *
+		 * @return result of the action, or null if create is false and the region doesn't exist
+		 */
+		@Nullable
+		<T> T apply(long key, boolean create, RegionAction<T> action) throws IOException {
+			while (true) {
+				RegionFile region = getRegion(key, create);
+				if (region == null) {
+					return null;
+				}
+				synchronized (region) {
+					if (region.isClosed()) {
+						continue; // evicted by another thread in the meantime, try again
+					}
+					return action.apply(region);
+				}
+			}
+		}
+
+		@Nullable
+		private synchronized RegionFile getRegion(long key, boolean create) throws IOException {
+			RegionFile region = regions.get(key);
+			if (region != null) {
+				return region;
+			}
+			Path path = directory.resolve(fileName(key));
+			if (!create && !Files.exists(path)) {
+				return null;
+			}
+			region = new RegionFile(path, entryCount);
+			regions.put(key, region);
+
+			if (regions.size() > MAX_OPEN_REGIONS) {
+				Iterator<RegionFile> it = regions.values().iterator();
+				RegionFile eldest = it.next();
+				it.remove();
+				eldest.close();
+			}
+			return region;
+		}
+
+		Path getPath(long key) {
+			return directory.resolve(fileName(key));
+		}
+
+		synchronized boolean delete(long key) throws IOException {
+			RegionFile region = regions.remove(key);
+			if (region != null) {
+				region.close();
+			}
+			return Files.deleteIfExists(directory.resolve(fileName(key)));
+		}
+
+		void forEachEntry(RegionEntryConsumer consumer) throws IOException {
+			List<Long> keys = new ArrayList<>();
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + extension)) {
+				for (Path file : files) {
+					Long key = parseKey(file.getFileName().toString());
+					if (key != null) {
+						keys.add(key);
+					}
+				}
+			}
+			for (long key : keys) {
+				apply(key, false, region -> {
+					region.forEach((index, data) -> consumer.accept(key, index, data));
+					return null;
+				});
+			}
+		}
+
+		void flush() throws IOException {
+			List<RegionFile> toFlush;
+			synchronized (this) {
+				toFlush = new ArrayList<>(regions.values());
+			}
+			for (RegionFile region : toFlush) {
+				region.flush();
+			}
+		}
+
+		synchronized void close() throws IOException {
+			IOException error = null;
+			for (RegionFile region : regions.values()) {
+				try {
+					region.close();
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			regions.clear();
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		private String fileName(long key) {
+			if (extension.equals(CUBE_REGION_EXT)) {
+				return AddressTools.getX(key) + "." + AddressTools.getY(key) + "." + AddressTools.getZ(key) + extension;
+			}
+			return AddressTools.getX(key) + "." + AddressTools.getZ(key) + extension;
+		}
+
+		@Nullable
+		private Long parseKey(String fileName) {
+			String[] parts = fileName.substring(0, fileName.length() - extension.length()).split("\\.");
+			try {
+				if (extension.equals(CUBE_REGION_EXT) && parts.length == 3) {
+					return AddressTools.getAddress(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+				}
+				if (extension.equals(COLUMN_REGION_EXT) && parts.length == 2) {
+					return AddressTools.getAddress(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+				}
+			} catch (NumberFormatException e) {
+				// not a region file
+			}
+			return null;
+		}
+	}
+}
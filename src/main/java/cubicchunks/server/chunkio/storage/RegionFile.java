@@ -0,0 +1,260 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single file holding a fixed number of entries, similar to vanilla region files.
+ * <p>
+ * The file starts with a header that has 2 ints for each entry: the first sector of the entry and it's size in bytes.
+ * Entry data is always aligned to sectors. Entries that grow are moved to the first free range of sectors that is big
+ * enough (or appended at the end of the file), so the rest of the file is never rewritten.
+ * <p>
+ * All methods are synchronized, different region files can be used concurrently.
+ */
+class RegionFile implements Closeable {
+
+	static final int SECTOR_SIZE = 512;
+	private static final int HEADER_ENTRY_BYTES = 8;
+
+	private final RandomAccessFile file;
+	private final int headerSectors;
+
+	private final int[] offsets;
+	private final int[] sizes;
+	private final BitSet usedSectors = new BitSet();
+
+	private boolean dirty = false;
+	private boolean closed = false;
+
+	RegionFile(Path path, int entryCount) throws IOException {
+		this.file = new RandomAccessFile(path.toFile(), "rw");
+		this.offsets = new int[entryCount];
+		this.sizes = new int[entryCount];
+		this.headerSectors = sectorsFor(entryCount*HEADER_ENTRY_BYTES);
+
+		long headerBytes = (long) headerSectors*SECTOR_SIZE;
+		if (file.length() < headerBytes) {
+			// new file (or a file that was cut off by a crash before the header was written), start with empty header
+			file.setLength(headerBytes);
+		}
+		usedSectors.set(0, headerSectors);
+
+		ByteBuffer header = ByteBuffer.allocate(entryCount*HEADER_ENTRY_BYTES);
+		file.seek(0);
+		file.readFully(header.array());
+
+		long fileSectors = (file.length() + SECTOR_SIZE - 1)/SECTOR_SIZE;
+		for (int i = 0; i < entryCount; i++) {
+			int offset = header.getInt();
+			int size = header.getInt();
+			if (size <= 0) {
+				continue;
+			}
+			int sectors = sectorsFor(size);
+			if (offset < headerSectors || offset + (long) sectors > fileSectors) {
+				// points outside of the file, the data is lost anyway. Forget about it.
+				continue;
+			}
+			offsets[i] = offset;
+			sizes[i] = size;
+			usedSectors.set(offset, offset + sectors);
+		}
+	}
+
+	/**
+	 * @return data of the entry at index, or null if it doesn't exist
+	 */
+	@Nullable
+	synchronized byte[] read(int index) throws IOException {
+		ensureOpen();
+		int size = sizes[index];
+		if (size == 0) {
+			return null;
+		}
+		byte[] data = new byte[size];
+		file.seek((long) offsets[index]*SECTOR_SIZE);
+		file.readFully(data);
+		return data;
+	}
+
+	/**
+	 * Reads the given entries in the order they are stored in the file, so that reading many entries is close to
+	 * one sequential pass. Entries that don't exist are skipped.
+	 */
+	synchronized void readAll(int[] indices, EntryConsumer consumer) throws IOException {
+		ensureOpen();
+		long[] sorted = new long[indices.length];
+		int count = 0;
+		for (int index : indices) {
+			if (sizes[index] != 0) {
+				sorted[count++] = (long) offsets[index] << 32 | index;
+			}
+		}
+		Arrays.sort(sorted, 0, count);
+		for (int i = 0; i < count; i++) {
+			int index = (int) sorted[i];
+			consumer.accept(index, read(index));
+		}
+	}
+
+	synchronized void write(int index, byte[] data) throws IOException {
+		ensureOpen();
+		if (data.length == 0) {
+			throw new IllegalArgumentException("Can't store empty entry");
+		}
+		int oldOffset = offsets[index];
+		int oldSectors = sizes[index] == 0 ? 0 : sectorsFor(sizes[index]);
+		int newSectors = sectorsFor(data.length);
+
+		int offset;
+		boolean moved;
+		if (oldSectors >= newSectors) {
+			// fits where it was, only give back the sectors we no longer need
+			offset = oldOffset;
+			moved = false;
+			usedSectors.clear(oldOffset + newSectors, oldOffset + oldSectors);
+		} else {
+			// allocate new space before freeing the old one, so that the old data stays intact until the header
+			// points to the new location
+			offset = allocate(newSectors);
+			moved = true;
+		}
+
+		file.seek((long) offset*SECTOR_SIZE);
+		file.write(data);
+		writeHeaderEntry(index, offset, data.length);
+
+		if (moved && oldSectors != 0) {
+			usedSectors.clear(oldOffset, oldOffset + oldSectors);
+		}
+		dirty = true;
+	}
+
+	synchronized void remove(int index) throws IOException {
+		ensureOpen();
+		if (sizes[index] == 0) {
+			return;
+		}
+		int offset = offsets[index];
+		int sectors = sectorsFor(sizes[index]);
+		writeHeaderEntry(index, 0, 0);
+		usedSectors.clear(offset, offset + sectors);
+		dirty = true;
+	}
+
+	synchronized boolean contains(int index) {
+		return sizes[index] != 0;
+	}
+
+	synchronized void forEach(EntryConsumer consumer) throws IOException {
+		for (int i = 0; i < sizes.length; i++) {
+			byte[] data = read(i);
+			if (data != null) {
+				consumer.accept(i, data);
+			}
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		for (int size : sizes) {
+			if (size != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	synchronized void flush() throws IOException {
+		if (dirty && !closed) {
+			file.getChannel().force(true);
+			dirty = false;
+		}
+	}
+
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			file.close();
+		}
+	}
+
+	private void writeHeaderEntry(int index, int offset, int size) throws IOException {
+		offsets[index] = offset;
+		sizes[index] = size;
+		file.seek((long) index*HEADER_ENTRY_BYTES);
+		file.writeInt(offset);
+		file.writeInt(size);
+	}
+
+	/**
+	 * Finds the first free range of sectors that is big enough, or the end of the file.
+	 */
+	private int allocate(int sectors) {
+		int start = usedSectors.nextClearBit(headerSectors);
+		while (true) {
+			int nextUsed = usedSectors.nextSetBit(start);
+			if (nextUsed < 0 || nextUsed - start >= sectors) {
+				break;
+			}
+			start = usedSectors.nextClearBit(nextUsed);
+		}
+		usedSectors.set(start, start + sectors);
+		return start;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Region file already closed");
+		}
+	}
+
+	private static int sectorsFor(int bytes) {
+		return (bytes + SECTOR_SIZE - 1)/SECTOR_SIZE;
+	}
+
+	@FunctionalInterface
+	interface EntryConsumer {
+		void accept(int index, byte[] data) throws IOException;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import com.google.common.base.Throwables;
+
+import net.minecraft.util.BitArray;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
+
+import java.lang.invoke.MethodHandle;
+
+public class BlockStateContainerAccess {
+	// there is only one field of each type, find them by type to not depend on names
+	private static final MethodHandle bsc_storage = ReflectionUtil.getFieldGetterHandleByType(BlockStateContainer.class, BitArray.class);
+	private static final MethodHandle bsc_palette = ReflectionUtil.getFieldGetterHandleByType(BlockStateContainer.class, IBlockStatePalette.class);
+
+	public static BitArray getStorage(BlockStateContainer container) {
+		try {
+			return (BitArray) bsc_storage.invoke(container);
+		} catch (Throwable throwable) {
+			throw Throwables.propagate(throwable);
+		}
+	}
+
+	public static IBlockStatePalette getPalette(BlockStateContainer container) {
+		try {
+			return (IBlockStatePalette) bsc_palette.invoke(container);
+		} catch (Throwable throwable) {
+			throw Throwables.propagate(throwable);
+		}
+	}
+}
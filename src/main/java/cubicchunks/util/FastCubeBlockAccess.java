@@ -55,16 +55,9 @@ public class FastCubeBlockAccess {
 		this.originY = cube.getY() - radius;
 		this.originZ = cube.getZ() - radius;
 
-		for (int relativeCubeX = -radius; relativeCubeX <= radius; relativeCubeX++) {
-			for (int relativeCubeZ = -radius; relativeCubeZ <= radius; relativeCubeZ++) {
-				for (int relativeCubeY = -radius; relativeCubeY <= radius; relativeCubeY++) {
-					this.cache[relativeCubeX + radius][relativeCubeY + radius][relativeCubeZ + radius] =
-						cache.getLoadedCube(originX + relativeCubeX + radius,
-							originY + relativeCubeY + radius,
-							originZ + relativeCubeZ + radius);
-				}
-			}
-		}
+		cache.forEachLoadedInBox(
+			new Box(originX, originY, originZ, originX + n - 1, originY + n - 1, originZ + n - 1),
+			c -> this.cache[c.getX() - originX][c.getY() - originY][c.getZ() - originZ] = c);
 	}
 
 	private Cube getCube(int blockX, int blockY, int blockZ) {
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations with power of two buckets, precise enough for percentiles in metrics. Can be
+ * recorded to from any thread.
+ */
+public class LatencyHistogram {
+
+	// bucket 0 counts durations below 1 microsecond, bucket i (i > 0) durations in [2^(i-1), 2^i) microseconds
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	public void record(long nanos) {
+		long micros = Math.max(nanos, 0)/1000;
+		int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Takes all values recorded since the last call
+	 *
+	 * @return the recorded values
+	 */
+	public Snapshot takeSnapshot() {
+		long[] taken = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			taken[i] = counts.getAndSet(i, 0);
+		}
+		return new Snapshot(taken);
+	}
+
+	public static class Snapshot {
+		public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS]);
+
+		private final long[] counts;
+		private final long total;
+
+		private Snapshot(long[] counts) {
+			this.counts = counts;
+			long total = 0;
+			for (long count : counts) {
+				total += count;
+			}
+			this.total = total;
+		}
+
+		public long getCount() {
+			return total;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 *
+		 * @return upper bound in nanoseconds of the bucket the percentile falls into, 0 if there are no values
+		 */
+		public long getPercentileNanos(double percentile) {
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(total*percentile/100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen != 0) {
+					return (1L << i)*1000;
+				}
+			}
+			return (1L << (counts.length - 1))*1000;
+		}
+	}
+}
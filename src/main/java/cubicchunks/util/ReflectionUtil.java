@@ -43,6 +43,33 @@ public class ReflectionUtil {
 		}
 	}
 
+	/**
+	 * Returns getter for the only non-static field of the given type. Useful for fields that are easier to identify by
+	 * type than by name.
+	 */
+	public static MethodHandle getFieldGetterHandleByType(Class<?> owner, Class<?> type) {
+		Field found = null;
+		for (Field field : owner.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers()) || field.getType() != type) {
+				continue;
+			}
+			if (found != null) {
+				throw new RuntimeException("Duplicate fields of type " + type + " in " + owner);
+			}
+			found = field;
+		}
+		if (found == null) {
+			throw new RuntimeException("No field of type " + type + " in " + owner);
+		}
+		found.setAccessible(true);
+		try {
+			return MethodHandles.lookup().unreflectGetter(found);
+		} catch (IllegalAccessException e) {
+			//if it happens - eighter something has gone horribly wrong or the JVM is blocking access
+			throw new Error(e);
+		}
+	}
+
 	public static MethodHandle getFieldSetterHandle(Class<?> owner, String srgName) {
 		String name = Mappings.getNameFromSrg(srgName);
 		Field field = getFieldFromSrg(owner, name);
@@ -0,0 +1,432 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Table of columns and cubes, bucketed by regions. Columns are grouped in regions of 16x16 columns and cubes in regions
+ * of 8x8x8 cubes. Regions are kept in open addressing hash tables and inside a region an entry is found by its index.
+ * The last used region is remembered, so lookups near each other only hash once, and box queries scan the arrays of
+ * the regions they overlap, see {@link #forEachCubeInBox}.
+ * <p>
+ * Columns and cubes are independent of each other, a cube can be in the table without its column. Not thread safe.
+ *
+ * @param <C> class of the columns
+ * @param <T> class of the cubes
+ *
+ * @see XYZMap
+ */
+public class RegionTable<C extends XZAddressable, T extends XYZAddressable> {
+
+	/**
+	 * A larger prime number used as seed for hash calculation.
+	 */
+	private static final int HASH_SEED = 1183822147;
+
+	private static final int COLUMN_REGION_BITS = 4;
+	private static final int COLUMN_REGION_MASK = (1 << COLUMN_REGION_BITS) - 1;
+
+	private static final int CUBE_REGION_BITS = 3;
+	private static final int CUBE_REGION_SIZE = 1 << CUBE_REGION_BITS;
+	private static final int CUBE_REGION_MASK = CUBE_REGION_SIZE - 1;
+
+	/**
+	 * the maximum permissible load of the region arrays, after reaching it the array will be resized
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private final Regions columns;
+	private final Regions cubes;
+
+	/**
+	 * Creates a new RegionTable that will grow if it has to.
+	 *
+	 * @param capacity the initial number of regions
+	 */
+	public RegionTable(int capacity) {
+		this.columns = new Regions(capacity, COLUMN_REGION_BITS, 1 << (COLUMN_REGION_BITS*2));
+		this.cubes = new Regions(capacity, CUBE_REGION_BITS, 1 << (CUBE_REGION_BITS*3));
+	}
+
+	public int getColumnCount() {
+		return this.columns.size;
+	}
+
+	public int getCubeCount() {
+		return this.cubes.size;
+	}
+
+	/**
+	 * Returns the column at the given coordinates or null if there is none.
+	 *
+	 * @param x the x-coordinate
+	 * @param z the z-coordinate
+	 *
+	 * @return the column at the given coordinates or null
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public C getColumn(int x, int z) {
+		return (C) this.columns.get(x, 0, z, columnIndex(x, z));
+	}
+
+	/**
+	 * Adds the given column to this table. If there is a column with the same coordinates already, it's replaced.
+	 *
+	 * @param column the column
+	 *
+	 * @return the previous column at these coordinates or null
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public C putColumn(C column) {
+		int x = column.getX();
+		int z = column.getZ();
+		return (C) this.columns.put(x, 0, z, columnIndex(x, z), column);
+	}
+
+	/**
+	 * Removes the column at the given coordinates.
+	 *
+	 * @param x the x-coordinate
+	 * @param z the z-coordinate
+	 *
+	 * @return the removed column or null if there was none
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public C removeColumn(int x, int z) {
+		return (C) this.columns.remove(x, 0, z, columnIndex(x, z));
+	}
+
+	/**
+	 * Returns the cube at the given coordinates or null if there is none.
+	 *
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param z the z-coordinate
+	 *
+	 * @return the cube at the given coordinates or null
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T getCube(int x, int y, int z) {
+		return (T) this.cubes.get(x, y, z, cubeIndex(x, y, z));
+	}
+
+	/**
+	 * Adds the given cube to this table. If there is a cube with the same coordinates already, it's replaced.
+	 *
+	 * @param cube the cube
+	 *
+	 * @return the previous cube at these coordinates or null
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T putCube(T cube) {
+		int x = cube.getX();
+		int y = cube.getY();
+		int z = cube.getZ();
+		return (T) this.cubes.put(x, y, z, cubeIndex(x, y, z), cube);
+	}
+
+	/**
+	 * Removes the cube at the given coordinates.
+	 *
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @param z the z-coordinate
+	 *
+	 * @return the removed cube or null if there was none
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public T removeCube(int x, int y, int z) {
+		return (T) this.cubes.remove(x, y, z, cubeIndex(x, y, z));
+	}
+
+	/**
+	 * Calls the given consumer for every column in this table. The table must not be modified meanwhile.
+	 *
+	 * @param consumer the consumer
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachColumn(Consumer<? super C> consumer) {
+		this.columns.forEach(column -> consumer.accept((C) column));
+	}
+
+	/**
+	 * Calls the given consumer for every cube in this table. The table must not be modified meanwhile.
+	 *
+	 * @param consumer the consumer
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachCube(Consumer<? super T> consumer) {
+		this.cubes.forEach(cube -> consumer.accept((T) cube));
+	}
+
+	/**
+	 * Calls the given consumer for every cube in the given box, including both corners. Cubes that aren't in this table
+	 * are skipped. Instead of one lookup per cube, this scans the arrays of all regions overlapping the box. The table
+	 * must not be modified meanwhile.
+	 *
+	 * @param minX the minimum x-coordinate
+	 * @param minY the minimum y-coordinate
+	 * @param minZ the minimum z-coordinate
+	 * @param maxX the maximum x-coordinate
+	 * @param maxY the maximum y-coordinate
+	 * @param maxZ the maximum z-coordinate
+	 * @param consumer the consumer
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachCubeInBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Consumer<? super T> consumer) {
+		for (int regionX = minX >> CUBE_REGION_BITS; regionX <= maxX >> CUBE_REGION_BITS; regionX++) {
+			for (int regionY = minY >> CUBE_REGION_BITS; regionY <= maxY >> CUBE_REGION_BITS; regionY++) {
+				for (int regionZ = minZ >> CUBE_REGION_BITS; regionZ <= maxZ >> CUBE_REGION_BITS; regionZ++) {
+					Region region = this.cubes.getRegion(regionX, regionY, regionZ);
+					if (region == null) {
+						continue;
+					}
+					int baseX = regionX << CUBE_REGION_BITS;
+					int baseY = regionY << CUBE_REGION_BITS;
+					int baseZ = regionZ << CUBE_REGION_BITS;
+					int x2 = Math.min(maxX - baseX, CUBE_REGION_MASK);
+					int y2 = Math.min(maxY - baseY, CUBE_REGION_MASK);
+					int z2 = Math.min(maxZ - baseZ, CUBE_REGION_MASK);
+					for (int x = Math.max(minX - baseX, 0); x <= x2; x++) {
+						for (int y = Math.max(minY - baseY, 0); y <= y2; y++) {
+							int index = (x << CUBE_REGION_BITS | y) << CUBE_REGION_BITS;
+							for (int z = Math.max(minZ - baseZ, 0); z <= z2; z++) {
+								Object cube = region.entries[index | z];
+								if (cube != null) {
+									consumer.accept((T) cube);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static int columnIndex(int x, int z) {
+		return (x & COLUMN_REGION_MASK) << COLUMN_REGION_BITS | (z & COLUMN_REGION_MASK);
+	}
+
+	private static int cubeIndex(int x, int y, int z) {
+		return ((x & CUBE_REGION_MASK) << CUBE_REGION_BITS | (y & CUBE_REGION_MASK)) << CUBE_REGION_BITS | (z & CUBE_REGION_MASK);
+	}
+
+	/**
+	 * Computes a 32b hash based on the given region coordinates.
+	 */
+	private static int hash(int regionX, int regionY, int regionZ) {
+		int hash = HASH_SEED;
+		hash += regionX;
+		hash *= HASH_SEED;
+		hash += regionY;
+		hash *= HASH_SEED;
+		hash += regionZ;
+		hash *= HASH_SEED;
+		return hash;
+	}
+
+	/**
+	 * Open addressing hash table of regions with at least one entry.
+	 */
+	private static final class Regions {
+		private final int regionBits;
+		private final int regionSize;
+
+		private Region[] regions;
+		private int mask;
+		private int regionCount;
+
+		/**
+		 * the number of entries in all regions
+		 */
+		int size;
+
+		/**
+		 * the region of the last lookup, most lookups are near the previous one
+		 */
+		@Nullable private Region lastRegion;
+
+		Regions(int capacity, int regionBits, int regionSize) {
+			this.regionBits = regionBits;
+			this.regionSize = regionSize;
+			int tCapacity = 1;
+			while (tCapacity < capacity/LOAD_FACTOR) {
+				tCapacity <<= 1;
+			}
+			this.regions = new Region[tCapacity];
+			this.mask = tCapacity - 1;
+		}
+
+		@Nullable
+		Object get(int x, int y, int z, int index) {
+			Region region = getRegion(x >> this.regionBits, y >> this.regionBits, z >> this.regionBits);
+			return region == null ? null : region.entries[index];
+		}
+
+		@Nullable
+		Object put(int x, int y, int z, int index, Object value) {
+			int regionX = x >> this.regionBits;
+			int regionY = y >> this.regionBits;
+			int regionZ = z >> this.regionBits;
+			Region region = getRegion(regionX, regionY, regionZ);
+			if (region == null) {
+				region = new Region(regionX, regionY, regionZ, this.regionSize);
+				insert(region);
+				this.regionCount++;
+				if (this.regionCount > this.regions.length*LOAD_FACTOR) {
+					grow();
+				}
+				this.lastRegion = region;
+			}
+			Object old = region.entries[index];
+			region.entries[index] = value;
+			if (old == null) {
+				region.count++;
+				this.size++;
+			}
+			return old;
+		}
+
+		@Nullable
+		Object remove(int x, int y, int z, int index) {
+			Region region = getRegion(x >> this.regionBits, y >> this.regionBits, z >> this.regionBits);
+			if (region == null) {
+				return null;
+			}
+			Object old = region.entries[index];
+			if (old != null) {
+				region.entries[index] = null;
+				this.size--;
+				if (--region.count == 0) {
+					removeRegion(region);
+				}
+			}
+			return old;
+		}
+
+		void forEach(Consumer<Object> consumer) {
+			for (Region region : this.regions) {
+				if (region == null) {
+					continue;
+				}
+				for (Object entry : region.entries) {
+					if (entry != null) {
+						consumer.accept(entry);
+					}
+				}
+			}
+		}
+
+		@Nullable
+		Region getRegion(int regionX, int regionY, int regionZ) {
+			Region region = this.lastRegion;
+			if (region != null && region.x == regionX && region.y == regionY && region.z == regionZ) {
+				return region;
+			}
+			int index = hash(regionX, regionY, regionZ) & this.mask;
+			while ((region = this.regions[index]) != null) {
+				if (region.x == regionX && region.y == regionY && region.z == regionZ) {
+					this.lastRegion = region;
+					return region;
+				}
+				index = (index + 1) & this.mask;
+			}
+			return null;
+		}
+
+		private void insert(Region region) {
+			int index = hash(region.x, region.y, region.z) & this.mask;
+			while (this.regions[index] != null) {
+				index = (index + 1) & this.mask;
+			}
+			this.regions[index] = region;
+		}
+
+		/**
+		 * Doubles the size of the region array and redistributes all regions accordingly.
+		 */
+		private void grow() {
+			Region[] oldRegions = this.regions;
+			this.regions = new Region[oldRegions.length*2];
+			this.mask = this.regions.length - 1;
+			for (Region region : oldRegions) {
+				if (region != null) {
+					insert(region);
+				}
+			}
+		}
+
+		private void removeRegion(Region region) {
+			if (this.lastRegion == region) {
+				this.lastRegion = null;
+			}
+			int hole = hash(region.x, region.y, region.z) & this.mask;
+			while (this.regions[hole] != region) {
+				hole = (hole + 1) & this.mask;
+			}
+			this.regionCount--;
+
+			// shift following regions into the hole, unless that would move them before their desired index
+			int index = hole;
+			while (true) {
+				index = (index + 1) & this.mask;
+				Region next = this.regions[index];
+				if (next == null) {
+					this.regions[hole] = null;
+					return;
+				}
+				int target = hash(next.x, next.y, next.z) & this.mask;
+				if (((index - target) & this.mask) >= ((index - hole) & this.mask)) {
+					this.regions[hole] = next;
+					hole = index;
+				}
+			}
+		}
+	}
+
+	private static final class Region {
+		final int x;
+		final int y;
+		final int z;
+
+		final Object[] entries;
+		int count;
+
+		Region(int x, int y, int z, int size) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.entries = new Object[size];
+		}
+	}
+}
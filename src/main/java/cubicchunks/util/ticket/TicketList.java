@@ -25,10 +25,13 @@ package cubicchunks.util.ticket;
 
 import java.util.LinkedList;
 
+import javax.annotation.Nullable;
+
 public class TicketList {
 
 	private boolean tick = false;
 	private LinkedList<ITicket> tickets = new LinkedList<>();
+	@Nullable private Runnable emptyListener;
 
 	/**
 	 * Removes a ticket form this tickets
@@ -36,10 +39,21 @@ public class TicketList {
 	 * @param ticket the ticket to remove
 	 */
 	public void remove(ITicket ticket) {
-		tickets.remove(ticket);
+		if (tickets.remove(ticket) && tickets.isEmpty() && emptyListener != null) {
+			emptyListener.run();
+		}
 		scanShouldTick();
 	}
 
+	/**
+	 * Set what to run when the last ticket is removed, for example to consider unloading the Cube
+	 *
+	 * @param emptyListener the listener, or null to remove it
+	 */
+	public void setEmptyListener(@Nullable Runnable emptyListener) {
+		this.emptyListener = emptyListener;
+	}
+
 	/**
 	 * Add a ticket to this tickets
 	 *
@@ -39,17 +39,19 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import cubicchunks.CubicChunks;
 
 //TODO: Have xcube review this class... I dont trust it
 public class EntityContainer {
 
-	private ClassInheritanceMultiMap<Entity> entities;
+	// created when the first entity is added, most cubes never have any
+	@Nullable private ClassInheritanceMultiMap<Entity> entities;
 	private boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
 	private long lastSaveTime;
 
 	public EntityContainer() {
-		this.entities = new ClassInheritanceMultiMap<>(Entity.class);
 		this.hasActiveEntities = false;
 		this.lastSaveTime = 0;
 	}
@@ -59,12 +61,12 @@ public class EntityContainer {
 	//=======================================
 
 	public void addEntity(Entity entity) {
-		this.entities.add(entity);
+		getEntitySet().add(entity);
 		this.hasActiveEntities = true;
 	}
 
 	public boolean remove(Entity entity) {
-		return this.entities.remove(entity);
+		return this.entities != null && this.entities.remove(entity);
 	}
 
 	private boolean canAddEntityExcluded(Entity toAdd, Entity excluded, AxisAlignedBB queryBox, Predicate<? super Entity> predicate) {
@@ -74,6 +76,9 @@ public class EntityContainer {
 	}
 
 	public void getEntitiesWithinAABBForEntity(Entity excluded, AxisAlignedBB queryBox, List<Entity> out, Predicate<? super Entity> predicate) {
+		if (this.entities == null) {
+			return;
+		}
 		for (Entity entity : this.entities) {
 
 			// handle entity exclusion
@@ -92,6 +97,9 @@ public class EntityContainer {
 	}
 
 	public <T extends Entity> void getEntitiesOfTypeWithinAAAB(Class<? extends T> entityType, AxisAlignedBB queryBox, List<T> out, Predicate<? super T> predicate) {
+		if (this.entities == null) {
+			return;
+		}
 		for (T entity : this.entities.getByClass(entityType)) {
 			if (entity.getEntityBoundingBox().intersectsWith(queryBox) &&
 				(predicate == null || predicate.apply(entity))) {
@@ -102,6 +110,9 @@ public class EntityContainer {
 
 
 	public ClassInheritanceMultiMap<Entity> getEntitySet() {
+		if (this.entities == null) {
+			this.entities = new ClassInheritanceMultiMap<>(Entity.class);
+		}
 		return this.entities;
 	}
 
@@ -114,15 +125,20 @@ public class EntityContainer {
 	}
 
 	public void clear() {
-		this.entities.clear();
+		if (this.entities != null) {
+			this.entities.clear();
+		}
 	}
 
 	public Collection<Entity> getEntities() {
+		if (this.entities == null) {
+			return Collections.emptyList();
+		}
 		return Collections.unmodifiableCollection(this.entities);
 	}
 
 	public int size() {
-		return this.entities.size();
+		return this.entities == null ? 0 : this.entities.size();
 	}
 
 
@@ -149,7 +165,7 @@ public class EntityContainer {
 		this.hasActiveEntities = false;
 		NBTTagList nbtEntities = new NBTTagList();
 		nbt.setTag(name, nbtEntities);
-		for (Entity entity : this.entities) {
+		for (Entity entity : getEntities()) {
 
 			NBTTagCompound nbtEntity = new NBTTagCompound();
 			if (entity.writeToNBTOptional(nbtEntity)) {
@@ -23,8 +23,11 @@
  */
 package cubicchunks.world;
 
+import java.util.function.Consumer;
+
 import javax.annotation.Nullable;
 
+import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
@@ -41,6 +44,22 @@ public interface ICubeProvider {
 
 	Cube getCube(CubePos coords);
 
+	/**
+	 * Calls the consumer for every loaded cube in the given box of cube coordinates, including both corners. The order
+	 * is unspecified. Cubes must not be loaded or unloaded from the consumer.
+	 *
+	 * @param box the box of cube coordinates
+	 * @param consumer the consumer
+	 */
+	default void forEachLoadedInBox(Box box, Consumer<Cube> consumer) {
+		box.forEachPoint((x, y, z) -> {
+			Cube cube = getLoadedCube(x, y, z);
+			if (cube != null) {
+				consumer.accept(cube);
+			}
+		});
+	}
+
 	/**
 	 * Retrieve a column, if it exists and is loaded
 	 *
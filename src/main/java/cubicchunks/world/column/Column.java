@@ -55,6 +55,7 @@ import javax.annotation.Nonnull;
 import cubicchunks.lighting.LightingManager;
 import cubicchunks.util.Coords;
 import cubicchunks.util.MathUtil;
+import cubicchunks.util.XZAddressable;
 import cubicchunks.world.ClientHeightMap;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
@@ -62,7 +63,7 @@ import cubicchunks.world.IHeightMap;
 import cubicchunks.world.ServerHeightMap;
 import cubicchunks.world.cube.Cube;
 
-public class Column extends Chunk {
+public class Column extends Chunk implements XZAddressable {
 
 	private CubeMap cubeMap;
 	private IHeightMap opacityIndex;
@@ -40,6 +40,7 @@ import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityEvent;
@@ -86,13 +87,18 @@ public class Cube implements XYZAddressable {
 	private CubePos coords;
 
 	private ExtendedBlockStorage storage;
+	// While there is no storage, every block of the cube is uniformState, with no block light. uniformSkyLight is
+	// their sky light, or -1 if the cube never had storage: then it reads as the default sky light, and is dark once
+	// the storage is created. See compactStorage()
+	private IBlockState uniformState = Blocks.AIR.getDefaultState();
+	private int uniformSkyLight = -1;
 	private EntityContainer entities;
 	private Map<BlockPos, TileEntity> tileEntityMap;
 
 	/**
-	 * "queue containing the BlockPos of tile entities queued for creation"
+	 * "queue containing the BlockPos of tile entities queued for creation", created when it's first needed
 	 */
-	private ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
+	@Nullable private volatile ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
 
 	private final LightUpdateData lightUpdateData = new LightUpdateData(this);
 
@@ -107,7 +113,6 @@ public class Cube implements XYZAddressable {
 
 		this.entities = new EntityContainer();
 		this.tileEntityMap = new HashMap<>();
-		this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
 	}
 
 	@SuppressWarnings("deprecation") // when a block is generated, does it really have any extra
@@ -138,7 +143,7 @@ public class Cube implements XYZAddressable {
 				}
 			}
 		}
-		isModified = true;
+		markModified();
 	}
 
 	//======================================
@@ -157,7 +162,7 @@ public class Cube implements XYZAddressable {
 	public IBlockState getBlockState(int blockX, int blockY, int blockZ) {
 		try {
 			if (storage == null) {
-				return Blocks.AIR.getDefaultState();
+				return uniformState;
 			}
 			return storage.get(Coords.blockToLocal(blockX),
 				Coords.blockToLocal(blockY),
@@ -247,7 +252,7 @@ public class Cube implements XYZAddressable {
 			}
 		}
 
-		this.isModified = true; // a block state changes, so we will need saving
+		markModified(); // a block state changes, so we will need saving
 		return oldstate;
 	}
 
@@ -270,7 +275,7 @@ public class Cube implements XYZAddressable {
 					return 0;
 				}
 				if (storage == null) {
-					return lightType.defaultLightValue;
+					return uniformSkyLight < 0 ? lightType.defaultLightValue : uniformSkyLight;
 				}
 				return this.storage.getExtSkylightValue(localX, localY, localZ);
 			case BLOCK:
@@ -284,7 +289,7 @@ public class Cube implements XYZAddressable {
 	}
 
 	public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int light) {
-		this.isModified = true;
+		markModified();
 
 		int x = Coords.blockToLocal(pos.getX());
 		int y = Coords.blockToLocal(pos.getY());
@@ -294,6 +299,9 @@ public class Cube implements XYZAddressable {
 			case SKY:
 				if (!this.world.getProvider().getHasNoSky()) {
 					if (storage == null) {
+						if (light == uniformSkyLight) {
+							return; // no change
+						}
 						newStorage();
 					}
 					this.storage.setExtSkylightValue(x, y, z, light);
@@ -302,6 +310,9 @@ public class Cube implements XYZAddressable {
 
 			case BLOCK:
 				if (storage == null) {
+					if (light == 0) {
+						return; // no change, there is no block light without storage
+					}
 					newStorage();
 				}
 				this.storage.setExtBlocklightValue(x, y, z, light);
@@ -312,9 +323,12 @@ public class Cube implements XYZAddressable {
 	public void setSkylight(int localX, int localY, int localZ, int value) {
 		if (!this.world.getProvider().getHasNoSky()) {
 			if (storage == null) {
+				if (value == uniformSkyLight) {
+					return; // no change
+				}
 				newStorage();
 			}
-			this.isModified = true;
+			markModified();
 			this.storage.setExtSkylightValue(localX, localY, localZ, value);
 		}
 	}
@@ -324,7 +338,7 @@ public class Cube implements XYZAddressable {
 			return 0;
 		}
 		if (storage == null) {
-			return EnumSkyBlock.SKY.defaultLightValue;
+			return uniformSkyLight < 0 ? EnumSkyBlock.SKY.defaultLightValue : uniformSkyLight;
 		}
 		return this.storage.getExtSkylightValue(localX, localY, localZ);
 	}
@@ -374,13 +388,13 @@ public class Cube implements XYZAddressable {
 		entity.chunkCoordZ = this.coords.getZ();
 
 		this.entities.addEntity(entity);
-		this.isModified = true;
+		markModified();
 	}
 
 	public boolean removeEntity(Entity entity) {
 		boolean wasRemoved = this.entities.remove(entity);
 		if (wasRemoved) {
-			this.isModified = true;
+			markModified();
 		}
 		return wasRemoved;
 	}
@@ -397,7 +411,7 @@ public class Cube implements XYZAddressable {
 				blockEntity = createTileEntity(pos);
 				this.world.setTileEntity(pos, blockEntity);
 			} else if (createType == Chunk.EnumCreateEntityType.QUEUED) {
-				this.tileEntityPosQueue.add(pos);
+				getTileEntityPosQueue().add(pos);
 			}
 		}
 
@@ -429,7 +443,7 @@ public class Cube implements XYZAddressable {
 			// install the new tile entity
 			tileEntity.validate();
 			this.tileEntityMap.put(pos, tileEntity);
-			this.isModified = true;
+			markModified();
 			tileEntity.onLoad();
 		}
 	}
@@ -440,7 +454,7 @@ public class Cube implements XYZAddressable {
 			TileEntity tileEntity = this.tileEntityMap.remove(pos);
 			if (tileEntity != null) {
 				tileEntity.invalidate();
-				this.isModified = true;
+				markModified();
 			}
 		}
 	}
@@ -458,8 +472,9 @@ public class Cube implements XYZAddressable {
 			this.tryDoFirstLight(); //TODO: Very icky light population code! REMOVE IT!
 		}
 
-		while (!this.tileEntityPosQueue.isEmpty()) {
-			BlockPos blockpos = this.tileEntityPosQueue.poll();
+		ConcurrentLinkedQueue<BlockPos> queue = this.tileEntityPosQueue;
+		while (queue != null && !queue.isEmpty()) {
+			BlockPos blockpos = queue.poll();
 
 			IBlockState state = this.getBlockState(blockpos);
 			Block block = state.getBlock();
@@ -490,7 +505,10 @@ public class Cube implements XYZAddressable {
 	//=================================
 
 	public boolean isEmpty() {
-		return storage == null || this.storage.isEmpty();
+		if (storage == null) {
+			return uniformState.getBlock() == Blocks.AIR;
+		}
+		return this.storage.isEmpty();
 	}
 
 	public long getAddress() {
@@ -539,17 +557,139 @@ public class Cube implements XYZAddressable {
 	}
 
 	public ExtendedBlockStorage setStorage(ExtendedBlockStorage ebs) {
+		this.uniformState = Blocks.AIR.getDefaultState();
+		this.uniformSkyLight = -1;
 		return this.storage = ebs;
 	}
 
+	/**
+	 * Get the storage to read blocks and light from, for example to save or send the cube. For a compacted cube, a
+	 * temporary copy is created, and writing to it doesn't change the cube.
+	 *
+	 * @return the storage, or null if the cube never had any blocks
+	 */
+	@Nullable
+	public ExtendedBlockStorage getReadableStorage() {
+		if (this.storage != null || this.uniformSkyLight < 0) {
+			return this.storage;
+		}
+		return createStorage();
+	}
+
+	/**
+	 * Drop the block storage if all blocks of the cube are the same, with no block light and the same sky light. It's
+	 * created again on the first write that changes something. Cubes of solid stone or open air then only use a few
+	 * bytes instead of a few kilobytes.
+	 * <p>
+	 * Blocks that tick randomly are kept in storage, because random ticks only look at cubes with storage.
+	 *
+	 * @return true if the storage was dropped
+	 */
+	public boolean compactStorage() {
+		if (this.storage == null) {
+			return false;
+		}
+		IBlockState state = this.storage.get(0, 0, 0);
+		if (state.getBlock().getTickRandomly()) {
+			return false;
+		}
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					if (this.storage.get(x, y, z) != state) {
+						return false;
+					}
+				}
+			}
+		}
+		if (!isUniform(this.storage.getBlocklightArray(), 0)) {
+			return false;
+		}
+		NibbleArray skyLightArray = this.storage.getSkylightArray();
+		int skyLight = 0;
+		if (skyLightArray != null) {
+			skyLight = skyLightArray.getData()[0] & 0xF;
+			if (!isUniform(skyLightArray, skyLight)) {
+				return false;
+			}
+		}
+		this.storage = null;
+		this.uniformState = state;
+		this.uniformSkyLight = skyLight;
+		return true;
+	}
+
+	private static boolean isUniform(NibbleArray array, int value) {
+		byte packed = (byte) (value << 4 | value);
+		for (byte b : array.getData()) {
+			if (b != packed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private void newStorage() {
-		storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), !world.getProvider().getHasNoSky());
+		this.storage = createStorage();
+		this.uniformState = Blocks.AIR.getDefaultState();
+		this.uniformSkyLight = -1;
+	}
+
+	private ExtendedBlockStorage createStorage() {
+		ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), !world.getProvider().getHasNoSky());
+		if (uniformState.getBlock() != Blocks.AIR) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					for (int x = 0; x < 16; x++) {
+						ebs.set(x, y, z, uniformState);
+					}
+				}
+			}
+		}
+		if (uniformSkyLight > 0 && ebs.getSkylightArray() != null) {
+			Arrays.fill(ebs.getSkylightArray().getData(), (byte) (uniformSkyLight << 4 | uniformSkyLight));
+		}
+		return ebs;
+	}
+
+	private ConcurrentLinkedQueue<BlockPos> getTileEntityPosQueue() {
+		ConcurrentLinkedQueue<BlockPos> queue = this.tileEntityPosQueue;
+		if (queue == null) {
+			synchronized (this) {
+				queue = this.tileEntityPosQueue;
+				if (queue == null) {
+					this.tileEntityPosQueue = queue = new ConcurrentLinkedQueue<>();
+				}
+			}
+		}
+		return queue;
 	}
 
 	public Map<BlockPos, TileEntity> getTileEntityMap() {
 		return this.tileEntityMap;
 	}
 
+	/**
+	 * Estimate how much heap memory this Cube uses, to limit how many cubes are loaded. Assumes 8 bits per block in
+	 * the block state container, which is the most common case, and a rough average size of entities and tile
+	 * entities.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public int estimateMemoryUsage() {
+		int size = 512; // the Cube itself, its tickets, light update data and empty containers
+		if (this.storage != null) {
+			size += 4096 + 256; // block states and their palette
+			size += this.storage.getBlocklightArray().getData().length;
+			if (this.storage.getSkylightArray() != null) {
+				size += this.storage.getSkylightArray().getData().length;
+			}
+		}
+		size += this.entities.size()*1024;
+		size += this.tileEntityMap.size()*512;
+		return size;
+	}
+
 	public EntityContainer getEntityContainer() {
 		return this.entities;
 	}
@@ -559,6 +699,9 @@ public class Cube implements XYZAddressable {
 		this.world.addTileEntities(this.tileEntityMap.values());
 		this.world.loadEntities(this.entities.getEntities());
 		this.isCubeLoaded = true;
+		if ((this.isModified || this.entities.hasActiveEntities()) && !this.world.isRemote()) {
+			((ICubicWorldServer) this.world).getCubeCache().onCubeModified(this);
+		}
 	}
 
 	public void onUnload() {
@@ -590,6 +733,22 @@ public class Cube implements XYZAddressable {
 	public void markSaved() {
 		this.entities.markSaved(this.world.getTotalWorldTime());
 		this.isModified = false;
+		if (this.isCubeLoaded && !this.world.isRemote()) {
+			((ICubicWorldServer) this.world).getCubeCache().onCubeSaved(this);
+		}
+	}
+
+	/**
+	 * Marks this cube as modified. On the server, loaded cubes that become modified are queued for incremental saving.
+	 */
+	private void markModified() {
+		if (!this.isModified) {
+			this.isModified = true;
+			// cubes that are still being loaded or generated can be modified from other threads, they are queued in onLoad
+			if (this.isCubeLoaded && !this.world.isRemote()) {
+				((ICubicWorldServer) this.world).getCubeCache().onCubeModified(this);
+			}
+		}
 	}
 
 	public TicketList getTickets() {
@@ -623,12 +782,12 @@ public class Cube implements XYZAddressable {
 
 	public void setPopulated(boolean populated) {
 		this.isPopulated = populated;
-		this.isModified = true;
+		markModified();
 	}
 
 	public void setFullyPopulated(boolean populated) {
 		this.isFullyPopulated = populated;
-		this.isModified = true;
+		markModified();
 	}
 
 	/**
@@ -648,7 +807,7 @@ public class Cube implements XYZAddressable {
 
 	public void setInitialLightingDone(boolean initialLightingDone) {
 		this.isInitialLightingDone = initialLightingDone;
-		this.isModified = true;
+		markModified();
 	}
 
 	public boolean isInitialLightingDone() {
@@ -657,13 +816,12 @@ public class Cube implements XYZAddressable {
 
 	public static class LightUpdateData {
 		private final Cube cube;
-		private final short[] minMaxHeights = new short[256];
-		//TODO: nullify minMaxHeights if toUpdateCounter is 0
+		// only there while updates are queued
+		@Nullable private short[] minMaxHeights;
 		private int toUpdateCounter = 0;
 
 		public LightUpdateData(Cube cube) {
 			this.cube = cube;
-			Arrays.fill(minMaxHeights, (short) 0xFFFF);
 		}
 
 		public void queueLightUpdate(int localX, int localZ, int minY, int maxY) {
@@ -683,6 +841,10 @@ public class Cube implements XYZAddressable {
 			minY = MathHelper.clamp_int(minY, 0, 15);
 			maxY = MathHelper.clamp_int(maxY, 0, 15);
 
+			if (minMaxHeights == null) {
+				minMaxHeights = new short[256];
+				Arrays.fill(minMaxHeights, (short) 0xFFFF);
+			}
 			int index = index(localX, localZ);
 			short v = minMaxHeights[localX << 4 | localZ];
 			if (v == -1) {
@@ -705,19 +867,31 @@ public class Cube implements XYZAddressable {
 		}
 
 		public int getMin(int localX, int localZ) {
+			if (minMaxHeights == null) {
+				return unpackMin((short) -1);
+			}
 			return unpackMin(minMaxHeights[index(localX, localZ)]);
 		}
 
 		public int getMax(int localX, int localZ) {
+			if (minMaxHeights == null) {
+				return unpackMax((short) -1);
+			}
 			return unpackMax(minMaxHeights[index(localX, localZ)]);
 		}
 
 		public void remove(int localX, int localZ) {
+			if (minMaxHeights == null) {
+				return;
+			}
 			int index = index(localX, localZ);
 			if (minMaxHeights[index] != -1) {
 				toUpdateCounter--;
 			}
 			minMaxHeights[index] = -1;
+			if (toUpdateCounter == 0) {
+				minMaxHeights = null;
+			}
 		}
 
 		private short pack(int min, int max) {
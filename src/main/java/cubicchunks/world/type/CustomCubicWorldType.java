@@ -25,6 +25,9 @@ package cubicchunks.world.type;
 
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.Biome;
+
+import java.util.function.Supplier;
 
 import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
@@ -54,20 +57,29 @@ public class CustomCubicWorldType extends WorldType implements ICubicWorldType {
 	}
 
 	@Override public ICubeGenerator createCubeGenerator(ICubicWorld world) {
-		CustomTerrainProcessor terrain = new CustomTerrainProcessor(world);
-		CustomFeatureProcessor features = new CustomFeatureProcessor();
+		// terrain and features keep scratch state, each thread generating cubes gets its own
+		ThreadLocal<CustomTerrainProcessor> terrain = ThreadLocal.withInitial(() -> new CustomTerrainProcessor(world));
+		ThreadLocal<CustomFeatureProcessor> features = ThreadLocal.withInitial(CustomFeatureProcessor::new);
 		CustomPopulationProcessor population = new CustomPopulationProcessor(world);
 
 		//TODO: this is mostly a hack to get the old system working
 		return new BasicCubeGenerator(world) {
 			@Override
 			public ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ) {
-				ICubePrimer primer = new CubePrimer();
+				return prepareAsyncGeneration(cubeX, cubeY, cubeZ).get();
+			}
+
+			@Override
+			public Supplier<ICubePrimer> prepareAsyncGeneration(int cubeX, int cubeY, int cubeZ) {
+				Biome[] biomes = terrain.get().getBiomeMap(cubeX, cubeZ);
+				return () -> {
+					ICubePrimer primer = new CubePrimer();
 
-				terrain.calculate(primer, cubeX, cubeY, cubeZ);
-				features.generate(world, primer, new CubePos(cubeX, cubeY, cubeZ));
+					terrain.get().calculate(primer, biomes, cubeX, cubeY, cubeZ);
+					features.get().generate(world, primer, new CubePos(cubeX, cubeY, cubeZ));
 
-				return primer;
+					return primer;
+				};
 			}
 
 			@Override
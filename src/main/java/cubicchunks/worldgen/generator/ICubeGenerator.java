@@ -28,6 +28,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.biome.Biome;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -58,6 +59,26 @@ public interface ICubeGenerator {
 	 */
 	ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+	/**
+	 * Prepares generating a cube on another thread. This is called on the server thread, so anything that needs
+	 * the world, like looking up biomes, is done here. The returned supplier is then called on a worker thread,
+	 * concurrently with other cubes being generated, and must not access the world.
+	 * <p>
+	 * Generators that keep scratch state between calls need one instance of it per thread, for example in a
+	 * {@link ThreadLocal}. The result must be the same as the one of {@link ICubeGenerator#generateCube(int, int, int)},
+	 * no matter which thread runs it and in which order cubes are generated.
+	 *
+	 * @param cubeX the cube's X coordinate
+	 * @param cubeY the cube's Y coordinate
+	 * @param cubeZ the cube's Z coordinate
+	 *
+	 * @return generates the cube on any thread, or null if this generator only works on the server thread
+	 */
+	@Nullable
+	default Supplier<ICubePrimer> prepareAsyncGeneration(int cubeX, int cubeY, int cubeZ) {
+		return null;
+	}
+
 	/**
 	 * Adds biome's and optionally other stuff to a Column
 	 * (can pre-add Cubes but this is not recommended)
@@ -125,6 +125,15 @@ public class CustomTerrainGenerator {
 	}
 
 	public void generate(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
+		generate(cube, getBiomeMap(cubeX, cubeZ), cubeX, cubeY, cubeZ);
+	}
+
+	/**
+	 * Generate the terrain with biomes from {@link #getBiomeMap(int, int)}. Doesn't access the world, but uses the
+	 * scratch arrays of this generator, so one generator can only be used by one thread at a time.
+	 */
+	public void generate(final ICubePrimer cube, Biome[] biomes, int cubeX, int cubeY, int cubeZ) {
+		this.biomes = biomes;
 		generateNoiseArrays(cubeX, cubeY, cubeZ);
 		generateTerrainArray(cube, cubeX, cubeY, cubeZ);
 
@@ -305,8 +314,6 @@ public class CustomTerrainGenerator {
 	 * @see cubicchunks.worldgen.generator.ITerrainGenerator#generateTerrainArray(cubicchunks.world.cube.Cube)
 	 */
 	private void generateTerrainArray(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
-		this.biomes = getBiomeMap(cubeX, cubeZ);
-
 		fillHeightArray(cubeX, cubeZ);
 		for (int x = 0; x < X_SECTIONS; x++) {
 			for (int z = 0; z < Z_SECTIONS; z++) {
@@ -352,8 +359,12 @@ public class CustomTerrainGenerator {
 		}
 	}
 
-	private Biome[] getBiomeMap(int cubeX, int cubeZ) {
-		return world.getProvider().getBiomeProvider().getBiomesForGeneration(this.biomes,
+	/**
+	 * Look up the biomes that affect the terrain of a column of cubes. Vanilla biome generation isn't thread safe, so
+	 * only call this on the server thread. Returns a new array every time, it can be handed to other threads.
+	 */
+	public Biome[] getBiomeMap(int cubeX, int cubeZ) {
+		return world.getProvider().getBiomeProvider().getBiomesForGeneration(null,
 			cubeX*4 - this.maxSmoothRadius, cubeZ*4 - this.maxSmoothRadius,
 			X_SECTION_SIZE + this.maxSmoothDiameter, Z_SECTION_SIZE + this.maxSmoothDiameter);
 	}
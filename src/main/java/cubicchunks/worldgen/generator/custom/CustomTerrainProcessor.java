@@ -23,6 +23,8 @@
  */
 package cubicchunks.worldgen.generator.custom;
 
+import net.minecraft.world.biome.Biome;
+
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.worldgen.generator.ICubePrimer;
 
@@ -36,4 +38,15 @@ public final class CustomTerrainProcessor {
 	public void calculate(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
 		this.terrainGenerator.generate(cube, cubeX, cubeY, cubeZ);
 	}
+
+	/**
+	 * Like {@link #calculate(ICubePrimer, int, int, int)}, with biomes from {@link #getBiomeMap(int, int)}
+	 */
+	public void calculate(final ICubePrimer cube, Biome[] biomes, int cubeX, int cubeY, int cubeZ) {
+		this.terrainGenerator.generate(cube, biomes, cubeX, cubeY, cubeZ);
+	}
+
+	public Biome[] getBiomeMap(int cubeX, int cubeZ) {
+		return this.terrainGenerator.getBiomeMap(cubeX, cubeZ);
+	}
 }
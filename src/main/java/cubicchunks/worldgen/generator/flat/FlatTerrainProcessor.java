@@ -26,6 +26,8 @@ package cubicchunks.worldgen.generator.flat;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
 
+import java.util.function.Supplier;
+
 import cubicchunks.util.Box;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
@@ -72,6 +74,11 @@ public class FlatTerrainProcessor extends BasicCubeGenerator {
 		return primer;
 	}
 
+	@Override
+	public Supplier<ICubePrimer> prepareAsyncGeneration(int cubeX, int cubeY, int cubeZ) {
+		return () -> generateCube(cubeX, cubeY, cubeZ); // doesn't need the world or any state
+	}
+
 	@Override
 	public void populate(Cube cube) {
 	}
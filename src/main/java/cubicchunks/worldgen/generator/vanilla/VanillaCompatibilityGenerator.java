@@ -37,6 +37,9 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.util.List;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
 
 import cubicchunks.util.Box;
 import cubicchunks.util.Coords;
@@ -169,6 +172,15 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 		return primer;
 	}
 
+	@Nullable
+	@Override
+	public Supplier<ICubePrimer> prepareAsyncGeneration(int cubeX, int cubeY, int cubeZ) {
+		if (cubeY >= 0 && cubeY <= 15) {
+			return null; // vanilla chunk generators need the server thread, and lastChunk is shared
+		}
+		return () -> generateCube(cubeX, cubeY, cubeZ); // only filled with underBlock or empty
+	}
+
 	@Override
 	public void populate(Cube cube) {
 		if (cube.getY() >= 0 && cube.getY() <= 15) {
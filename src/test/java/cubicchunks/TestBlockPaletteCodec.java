@@ -0,0 +1,91 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import cubicchunks.server.chunkio.BlockPaletteCodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBlockPaletteCodec {
+
+	private static final int COUNT = 4096;
+
+	@Test
+	public void testSingleState() throws IOException {
+		int[] ids = new int[COUNT];
+		Arrays.fill(ids, 1 << 4);
+		byte[] data = write(ids);
+		// palette size and a single palette entry
+		assertEquals(2 + 4, data.length);
+		assertArrayEquals(ids, read(data));
+	}
+
+	@Test
+	public void testAllAir() throws IOException {
+		int[] ids = new int[COUNT];
+		assertArrayEquals(ids, read(write(ids)));
+	}
+
+	@Test
+	public void testPaletteSizes() throws IOException {
+		Random rand = new Random(42);
+		for (int paletteSize : new int[]{2, 3, 5, 16, 17, 100, 1000, COUNT}) {
+			int[] palette = new int[paletteSize];
+			for (int i = 0; i < paletteSize; i++) {
+				palette[i] = rand.nextInt(1 << 16);
+			}
+			int[] ids = new int[COUNT];
+			for (int i = 0; i < COUNT; i++) {
+				// make sure every palette entry is used at least once
+				ids[i] = i < paletteSize ? palette[i] : palette[rand.nextInt(paletteSize)];
+			}
+			byte[] data = write(ids);
+			assertArrayEquals(ids, read(data));
+			// smaller than block ids and metadata arrays
+			assertTrue(paletteSize > 16 || data.length < COUNT + COUNT/2);
+		}
+	}
+
+	private static byte[] write(int[] ids) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		BlockPaletteCodec.write(ids, new DataOutputStream(buf));
+		return buf.toByteArray();
+	}
+
+	private static int[] read(byte[] data) throws IOException {
+		return BlockPaletteCodec.read(new DataInputStream(new ByteArrayInputStream(data)), COUNT);
+	}
+}
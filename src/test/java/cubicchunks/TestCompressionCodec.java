@@ -0,0 +1,108 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import cubicchunks.server.chunkio.CompressionCodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestCompressionCodec {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Random rand = new Random(42);
+		for (CompressionCodec codec : CompressionCodec.values()) {
+			for (int size : new int[]{0, 1, 100, 4096, 100000}) {
+				byte[] raw = new byte[size];
+				// mostly repeated bytes, like a real cube
+				for (int i = 0; i < size; i++) {
+					raw[i] = (byte) (rand.nextInt(8) == 0 ? rand.nextInt() : 0);
+				}
+				byte[] compressed = codec.compress(raw);
+				assertEquals(codec, CompressionCodec.getCodec(compressed));
+				assertArrayEquals(raw, CompressionCodec.decompress(compressed));
+			}
+		}
+	}
+
+	@Test
+	public void testReadLegacyGzip() throws IOException {
+		byte[] raw = new byte[10000];
+		new Random(42).nextBytes(raw);
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+			out.write(raw);
+		}
+		byte[] legacy = buf.toByteArray();
+
+		assertEquals(CompressionCodec.GZIP, CompressionCodec.getCodec(legacy));
+		assertArrayEquals(raw, CompressionCodec.decompress(legacy));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownCodec() throws IOException {
+		CompressionCodec.decompress(new byte[]{(byte) 200, 1, 2, 3});
+	}
+
+	@Test(expected = IOException.class)
+	public void testLz4HugeLength() throws IOException {
+		// codec id, then a raw length of 2 GB
+		CompressionCodec.decompress(new byte[]{2, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0});
+	}
+
+	@Test(expected = IOException.class)
+	public void testLz4Truncated() throws IOException {
+		byte[] raw = new byte[4096];
+		new Random(42).nextBytes(raw);
+		byte[] compressed = CompressionCodec.LZ4.compress(raw);
+		byte[] truncated = new byte[compressed.length/2];
+		System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+		CompressionCodec.decompress(truncated);
+	}
+
+	@Test(expected = IOException.class)
+	public void testGzipTooLong() throws IOException {
+		// compresses to a few KB, but is longer than the 16 MB limit
+		byte[] raw = new byte[20*1024*1024];
+		CompressionCodec.decompress(CompressionCodec.GZIP.compress(raw));
+	}
+
+	@Test
+	public void testByName() {
+		assertEquals(CompressionCodec.LZ4, CompressionCodec.byName("LZ4"));
+		assertEquals(CompressionCodec.GZIP, CompressionCodec.byName("gzip"));
+		assertEquals(CompressionCodec.NONE, CompressionCodec.byName(" None "));
+		assertNull(CompressionCodec.byName("lz5"));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import cubicchunks.server.chunkio.CubeDataCache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestCubeDataCache {
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		CubeDataCache cache = new CubeDataCache(300);
+		cache.putWritten(1, new byte[100]);
+		cache.putWritten(2, new byte[100]);
+		cache.putWritten(3, new byte[100]);
+		cache.get(1);
+		cache.putWritten(4, new byte[100]);
+
+		assertNull(cache.get(2));
+		assertEquals(100, cache.get(1).length);
+		assertEquals(100, cache.get(3).length);
+		assertEquals(100, cache.get(4).length);
+		assertEquals(300, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(4, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testReplaceUpdatesSize() {
+		CubeDataCache cache = new CubeDataCache(1000);
+		cache.putWritten(1, new byte[100]);
+		cache.putWritten(1, new byte[300]);
+		assertEquals(300, cache.getBytes());
+		assertEquals(1, cache.getSize());
+
+		// too big to be cached, and the old version must not stay
+		cache.putWritten(1, new byte[2000]);
+		assertNull(cache.get(1));
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testReadRacingWithWrite() {
+		CubeDataCache cache = new CubeDataCache(1000);
+		long writeCount = cache.getWriteCount();
+		byte[] written = {2};
+		cache.putWritten(1, written);
+		// data read from disk before the write completed is outdated
+		cache.putRead(1, new byte[]{1}, writeCount);
+		assertArrayEquals(written, cache.get(1));
+
+		writeCount = cache.getWriteCount();
+		byte[] read = {3};
+		cache.putRead(2, read, writeCount);
+		assertArrayEquals(read, cache.get(2));
+	}
+
+	@Test
+	public void testShrink() {
+		CubeDataCache cache = new CubeDataCache(1000);
+		for (int i = 0; i < 10; i++) {
+			cache.putWritten(i, new byte[100]);
+		}
+		cache.setMaxBytes(250);
+		assertEquals(2, cache.getSize());
+		assertEquals(8, cache.getEvictions());
+	}
+}
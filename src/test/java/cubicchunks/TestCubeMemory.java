@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.WorldProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compacting a cube of a single block state has to keep what it reads like, and has to drop the block storage. The
+ * heap actually used per cube is measured by {@link cubicchunks.benchmark.CubeMemoryBenchmark}.
+ */
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeMemory {
+
+	private Column column;
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+		column = mockColumn();
+	}
+
+	/**
+	 * @return a column of a client world, so that setting blocks in its cubes doesn't need a real world
+	 */
+	public static Column mockColumn() {
+		WorldProvider provider = mock(WorldProvider.class);
+		when(provider.getHasNoSky()).thenReturn(false);
+		ICubicWorld world = mock(ICubicWorld.class);
+		when(world.getProvider()).thenReturn(provider);
+		when(world.isRemote()).thenReturn(true);
+
+		Column column = mock(Column.class);
+		when(column.getCubicWorld()).thenReturn(world);
+		when(column.getX()).thenReturn(0);
+		when(column.getZ()).thenReturn(0);
+		return column;
+	}
+
+	@Test
+	public void testCompactedCubeReadsTheSame() {
+		IBlockState stone = Blocks.STONE.getDefaultState();
+		Cube cube = newStoneCube(0);
+		assertTrue(cube.compactStorage());
+		assertNull(cube.getStorage());
+
+		BlockPos pos = new BlockPos(3, 7, 11);
+		assertEquals(stone, cube.getBlockState(pos));
+		assertEquals(15, cube.getLightFor(EnumSkyBlock.SKY, pos));
+		assertEquals(0, cube.getLightFor(EnumSkyBlock.BLOCK, pos));
+		assertEquals(stone, cube.getReadableStorage().get(15, 15, 15));
+
+		// the first write that changes something brings back the storage
+		cube.setLightFor(EnumSkyBlock.BLOCK, pos, 4);
+		assertEquals(stone, cube.getStorage().get(0, 0, 0));
+		assertEquals(15, cube.getLightFor(EnumSkyBlock.SKY, pos));
+		assertEquals(4, cube.getLightFor(EnumSkyBlock.BLOCK, pos));
+	}
+
+	@Test
+	public void testCompactingReducesEstimate() {
+		Cube cube = newStoneCube(0);
+		int full = cube.estimateMemoryUsage();
+		// block states, palette, block light and sky light
+		assertTrue(full >= 4096 + 2048*2);
+
+		assertTrue(cube.compactStorage());
+		assertNull(cube.getStorage());
+		int compacted = cube.estimateMemoryUsage();
+		assertTrue(compacted*4 < full);
+
+		// nothing left to compact
+		assertFalse(cube.compactStorage());
+		assertEquals(compacted, cube.estimateMemoryUsage());
+	}
+
+	@Test
+	public void testMixedCubeIsNotCompacted() {
+		Cube cube = newStoneCube(0);
+		cube.setBlockStateDirect(new BlockPos(1, 2, 3), Blocks.DIRT.getDefaultState());
+		int full = cube.estimateMemoryUsage();
+
+		assertFalse(cube.compactStorage());
+		assertNotNull(cube.getStorage());
+		assertEquals(full, cube.estimateMemoryUsage());
+	}
+
+	public static Cube newStoneCube(Column column, int cubeY) {
+		Cube cube = new Cube(column, cubeY);
+		IBlockState stone = Blocks.STONE.getDefaultState();
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					BlockPos pos = new BlockPos(x, cubeY*16 + y, z);
+					cube.setBlockStateDirect(pos, stone);
+					cube.setLightFor(EnumSkyBlock.SKY, pos, 15);
+				}
+			}
+		}
+		return cube;
+	}
+
+	private Cube newStoneCube(int cubeY) {
+		return newStoneCube(column, cubeY);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import net.minecraft.init.Biomes;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ReflectionUtil;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.type.CustomCubicWorldType;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+import cubicchunks.worldgen.generator.ICubePrimer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Generating cubes with the generator of the custom world type on several threads has to give the same terrain as
+ * generating them one by one
+ */
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestGeneratorThreadSafety {
+
+	private static final Biome[] BIOMES = {Biomes.PLAINS, Biomes.OCEAN, Biomes.EXTREME_HILLS, Biomes.DESERT};
+	private static final int THREADS = 4;
+	// world types take one of the few world type ids, create it only once
+	private static final CustomCubicWorldType WORLD_TYPE = new CustomCubicWorldType();
+
+	private ICubicWorld world;
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+
+		BiomeProvider biomeProvider = mock(BiomeProvider.class);
+		// a fixed patchwork of biomes, so that the biome smoothing has something to do
+		when(biomeProvider.getBiomesForGeneration(any(), anyInt(), anyInt(), anyInt(), anyInt())).thenAnswer(invocation -> {
+			Object[] args = invocation.getArguments();
+			int x = (Integer) args[1];
+			int z = (Integer) args[2];
+			int width = (Integer) args[3];
+			int length = (Integer) args[4];
+			Biome[] biomes = new Biome[width*length];
+			for (int dz = 0; dz < length; dz++) {
+				for (int dx = 0; dx < width; dx++) {
+					biomes[dx + dz*width] = BIOMES[Math.floorMod((x + dx)/3*31 + (z + dz)/3, BIOMES.length)];
+				}
+			}
+			return biomes;
+		});
+		WorldProvider provider = mock(WorldProvider.class);
+		when(provider.getBiomeProvider()).thenReturn(biomeProvider);
+		// default generator settings, population reads them
+		ReflectionUtil.setFieldValueSrg(provider, "field_82913_c", "");
+
+		world = mock(ICubicWorld.class);
+		when(world.getSeed()).thenReturn(1234L);
+		when(world.getProvider()).thenReturn(provider);
+	}
+
+	@Test
+	public void testParallelGenerationMatchesSerial() throws Exception {
+		Map<CubePos, ICubePrimer> serial = generateSerial();
+
+		// each worker prepares and generates its cubes, so every thread gets its own terrain and feature processors
+		ICubeGenerator generator = WORLD_TYPE.createCubeGenerator(world);
+		List<CubePos> positions = shuffledPositions();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		Map<CubePos, Future<ICubePrimer>> parallel = new HashMap<>();
+		try {
+			for (CubePos pos : positions) {
+				parallel.put(pos, executor.submit(() -> prepare(generator, pos).get()));
+			}
+			for (CubePos pos : positions) {
+				assertSamePrimer(pos, serial.get(pos), parallel.get(pos).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPreparedOnServerThread() throws Exception {
+		Map<CubePos, ICubePrimer> serial = generateSerial();
+
+		// like AsyncTerrainGenerator: prepared on the calling thread, generated on the workers in a different order
+		ICubeGenerator generator = WORLD_TYPE.createCubeGenerator(world);
+		List<CubePos> positions = shuffledPositions();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		Map<CubePos, Future<ICubePrimer>> parallel = new HashMap<>();
+		try {
+			for (CubePos pos : positions) {
+				parallel.put(pos, executor.submit(prepare(generator, pos)::get));
+			}
+			for (CubePos pos : positions) {
+				assertSamePrimer(pos, serial.get(pos), parallel.get(pos).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Map<CubePos, ICubePrimer> generateSerial() {
+		ICubeGenerator generator = WORLD_TYPE.createCubeGenerator(world);
+		Map<CubePos, ICubePrimer> serial = new HashMap<>();
+		for (CubePos pos : positions()) {
+			serial.put(pos, generator.generateCube(pos.getX(), pos.getY(), pos.getZ()));
+		}
+		return serial;
+	}
+
+	private static Supplier<ICubePrimer> prepare(ICubeGenerator generator, CubePos pos) {
+		Supplier<ICubePrimer> supplier = generator.prepareAsyncGeneration(pos.getX(), pos.getY(), pos.getZ());
+		assertNotNull(supplier);
+		return supplier;
+	}
+
+	private static List<CubePos> shuffledPositions() {
+		List<CubePos> positions = positions();
+		Collections.shuffle(positions, new Random(42));
+		return positions;
+	}
+
+	private static List<CubePos> positions() {
+		List<CubePos> positions = new ArrayList<>();
+		for (int x = -2; x <= 2; x++) {
+			for (int y = -3; y <= 2; y++) {
+				for (int z = -2; z <= 2; z++) {
+					positions.add(new CubePos(x, y, z));
+				}
+			}
+		}
+		return positions;
+	}
+
+	private static void assertSamePrimer(CubePos pos, ICubePrimer expected, ICubePrimer actual) {
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					assertEquals("Block " + x + ", " + y + ", " + z + " of cube " + pos,
+						expected.getBlockState(x, y, z), actual.getBlockState(x, y, z));
+				}
+			}
+		}
+	}
+}
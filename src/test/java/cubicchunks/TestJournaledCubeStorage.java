@@ -0,0 +1,180 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import cubicchunks.server.chunkio.storage.JournaledCubeStorage;
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestJournaledCubeStorage {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReplayAfterCrash() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path journal = root.resolve("test.journal");
+		byte[] cube = randomBytes(new Random(42), 1000);
+		byte[] column = randomBytes(new Random(43), 3000);
+
+		// never closed, like after a crash
+		JournaledCubeStorage crashed = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("a")), journal);
+		crashed.writeCube(1, -2, 3, cube);
+		crashed.writeColumn(1, 3, column);
+		crashed.flush();
+
+		// pretend none of the writes made it into the region files
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("b")), journal)) {
+			assertArrayEquals(cube, storage.readCube(1, -2, 3));
+			assertArrayEquals(column, storage.readColumn(1, 3));
+		}
+		assertEquals(0, Files.size(journal));
+	}
+
+	@Test
+	public void testReplayIgnoresTornRecord() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path journal = root.resolve("test.journal");
+		byte[] first = randomBytes(new Random(42), 1000);
+		byte[] second = randomBytes(new Random(43), 1000);
+
+		JournaledCubeStorage crashed = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("a")), journal);
+		crashed.writeCube(0, 0, 0, first);
+		crashed.flush();
+		crashed.writeCube(0, 1, 0, second);
+		crashed.flush();
+
+		// cut the second record in half
+		long size = Files.size(journal);
+		byte[] data = Files.readAllBytes(journal);
+		Files.write(journal, Arrays.copyOf(data, (int) (size - 500)), StandardOpenOption.TRUNCATE_EXISTING);
+
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("b")), journal)) {
+			assertArrayEquals(first, storage.readCube(0, 0, 0));
+			assertNull(storage.readCube(0, 1, 0));
+		}
+	}
+
+	@Test
+	public void testUncommittedRecordsAreNotReplayed() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path journal = root.resolve("test.journal");
+		byte[] first = randomBytes(new Random(42), 1000);
+		byte[] second = randomBytes(new Random(43), 200*1024);
+
+		JournaledCubeStorage crashed = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("a")), journal);
+		crashed.writeCube(0, 0, 0, first);
+		crashed.flush();
+		// bigger than the journal buffer, so it's in the file without being committed
+		crashed.writeCube(0, 1, 0, second);
+		assertTrue(Files.size(journal) > second.length);
+
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("b")), journal)) {
+			assertArrayEquals(first, storage.readCube(0, 0, 0));
+			assertNull(storage.readCube(0, 1, 0));
+		}
+	}
+
+	@Test
+	public void testNoRegionWriteBeforeFlush() throws IOException {
+		Path root = folder.getRoot().toPath();
+		byte[] cube = randomBytes(new Random(42), 1000);
+
+		JournaledCubeStorage crashed = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("a")), root.resolve("test.journal"));
+		crashed.writeCube(1, 2, 3, cube);
+		// reads see the write before it's flushed
+		assertArrayEquals(cube, crashed.readCube(1, 2, 3));
+
+		// but the region files don't, the journal isn't on disk yet
+		try (RegionCubeStorage storage = new RegionCubeStorage(root.resolve("a"))) {
+			assertNull(storage.readCube(1, 2, 3));
+		}
+	}
+
+	@Test
+	public void testReplayRestoresTornRegionWrite() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path regions = root.resolve("a");
+		Path journal = root.resolve("test.journal");
+		byte[] oldCube = randomBytes(new Random(42), 1000);
+		byte[] newCube = randomBytes(new Random(43), 1000);
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(regions), journal)) {
+			storage.writeCube(1, 2, 3, oldCube);
+		}
+
+		// crash after the flush wrote to the region file, but before a checkpoint flushed it
+		JournaledCubeStorage crashed = new JournaledCubeStorage(new RegionCubeStorage(regions), journal);
+		crashed.writeCube(1, 2, 3, newCube);
+		crashed.flush();
+
+		// the region file write was torn, pretend none of it made it to disk
+		try (Stream<Path> files = Files.walk(regions)) {
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				Files.write(file, new byte[(int) Files.size(file)]);
+			}
+		}
+
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(regions), journal)) {
+			assertArrayEquals(newCube, storage.readCube(1, 2, 3));
+		}
+	}
+
+	@Test
+	public void testCloseCheckpoints() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path journal = root.resolve("test.journal");
+		byte[] cube = randomBytes(new Random(42), 1000);
+		try (JournaledCubeStorage storage = new JournaledCubeStorage(new RegionCubeStorage(root.resolve("a")), journal)) {
+			storage.writeCube(5, 5, 5, cube);
+			storage.flush();
+		}
+		assertEquals(0, Files.size(journal));
+		try (RegionCubeStorage storage = new RegionCubeStorage(root.resolve("a"))) {
+			assertArrayEquals(cube, storage.readCube(5, 5, 5));
+		}
+	}
+
+	private static byte[] randomBytes(Random rand, int size) {
+		byte[] data = new byte[size];
+		rand.nextBytes(data);
+		return data;
+	}
+}
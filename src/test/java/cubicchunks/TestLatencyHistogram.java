@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import cubicchunks.util.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLatencyHistogram {
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(3000000); // 3ms
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(100000000); // 100ms
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.takeSnapshot();
+		assertEquals(100, snapshot.getCount());
+		// upper bounds of the power of two microsecond buckets
+		assertEquals(4096*1000L, snapshot.getPercentileNanos(50));
+		assertEquals(4096*1000L, snapshot.getPercentileNanos(90));
+		assertEquals(131072*1000L, snapshot.getPercentileNanos(95));
+		assertEquals(131072*1000L, snapshot.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testSnapshotResets() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(500);
+		assertEquals(1, histogram.takeSnapshot().getCount());
+		LatencyHistogram.Snapshot empty = histogram.takeSnapshot();
+		assertEquals(0, empty.getCount());
+		assertEquals(0, empty.getPercentileNanos(99));
+	}
+
+	@Test
+	public void testHugeValuesGoToLastBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-1);
+		assertEquals(2, histogram.takeSnapshot().getCount());
+	}
+}
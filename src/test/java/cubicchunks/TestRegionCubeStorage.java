@@ -0,0 +1,153 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
+import cubicchunks.util.AddressTools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRegionCubeStorage {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReadMissing() throws IOException {
+		try (RegionCubeStorage storage = new RegionCubeStorage(folder.getRoot().toPath())) {
+			assertNull(storage.readCube(0, 0, 0));
+			assertNull(storage.readColumn(0, 0));
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		try (RegionCubeStorage storage = new RegionCubeStorage(folder.getRoot().toPath())) {
+			byte[] cube = randomBytes(new Random(42), 1000);
+			byte[] column = randomBytes(new Random(43), 3000);
+			storage.writeCube(-17, 5, 33, cube);
+			storage.writeColumn(-17, 33, column);
+			assertArrayEquals(cube, storage.readCube(-17, 5, 33));
+			assertArrayEquals(column, storage.readColumn(-17, 33));
+			assertNull(storage.readCube(-17, 6, 33));
+		}
+	}
+
+	@Test
+	public void testOverwriteGrowAndShrink() throws IOException {
+		Random rand = new Random(42);
+		try (RegionCubeStorage storage = new RegionCubeStorage(folder.getRoot().toPath())) {
+			for (int size : new int[]{100, 5000, 600, 20000, 1}) {
+				byte[] first = randomBytes(rand, size);
+				byte[] second = randomBytes(rand, size + 1);
+				storage.writeCube(1, 2, 3, first);
+				storage.writeCube(1, 2, 4, second);
+				assertArrayEquals(first, storage.readCube(1, 2, 3));
+				assertArrayEquals(second, storage.readCube(1, 2, 4));
+			}
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Map<Long, byte[]> expected = new HashMap<>();
+		Random rand = new Random(42);
+		try (RegionCubeStorage storage = new RegionCubeStorage(dir)) {
+			for (int i = 0; i < 500; i++) {
+				int x = rand.nextInt(64) - 32, y = rand.nextInt(64) - 32, z = rand.nextInt(64) - 32;
+				byte[] data = randomBytes(rand, 1 + rand.nextInt(4000));
+				storage.writeCube(x, y, z, data);
+				expected.put(AddressTools.getAddress(x, y, z), data);
+			}
+		}
+		try (RegionCubeStorage storage = new RegionCubeStorage(dir)) {
+			for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+				long address = entry.getKey();
+				assertArrayEquals(entry.getValue(),
+					storage.readCube(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address)));
+			}
+			Map<Long, byte[]> found = new HashMap<>();
+			storage.forEachCube((x, y, z, data) -> found.put(AddressTools.getAddress(x, y, z), data));
+			assertEquals(expected.keySet(), found.keySet());
+		}
+	}
+
+	@Test
+	public void testReadCubes() throws IOException {
+		Map<Long, byte[]> expected = new HashMap<>();
+		Random rand = new Random(42);
+		try (RegionCubeStorage storage = new RegionCubeStorage(folder.getRoot().toPath())) {
+			for (int y = -20; y < 20; y++) {
+				if (rand.nextInt(4) != 0) {
+					byte[] data = randomBytes(rand, 1 + rand.nextInt(4000));
+					storage.writeCube(3, y, -7, data);
+					expected.put(AddressTools.getAddress(3, y, -7), data);
+				}
+			}
+			long[] addresses = new long[40];
+			for (int y = -20; y < 20; y++) {
+				addresses[y + 20] = AddressTools.getAddress(3, y, -7);
+			}
+			Map<Long, byte[]> read = new HashMap<>();
+			storage.readCubes(addresses, (x, y, z, data) -> assertNull(read.put(AddressTools.getAddress(x, y, z), data)));
+			assertEquals(expected.size(), read.size());
+			for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+				assertArrayEquals(entry.getValue(), read.get(entry.getKey()));
+			}
+		}
+	}
+
+	@Test
+	public void testDeleteRegion() throws IOException {
+		try (RegionCubeStorage storage = new RegionCubeStorage(folder.getRoot().toPath())) {
+			storage.writeCube(-1, -1, -1, new byte[]{1});
+			storage.writeCube(-16, -16, -16, new byte[]{2});
+			storage.writeCube(0, 0, 0, new byte[]{3});
+			assertTrue(storage.deleteCubeRegion(-1, -1, -1));
+			assertNull(storage.readCube(-1, -1, -1));
+			assertNull(storage.readCube(-16, -16, -16));
+			assertArrayEquals(new byte[]{3}, storage.readCube(0, 0, 0));
+		}
+	}
+
+	private static byte[] randomBytes(Random rand, int size) {
+		byte[] data = new byte[size];
+		rand.nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import cubicchunks.util.RegionTable;
+import cubicchunks.util.XYZAddressable;
+import cubicchunks.util.XYZMap;
+import cubicchunks.util.XZAddressable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestRegionTable {
+
+	@Test
+	public void testColumns() {
+		RegionTable<Pos, Pos> table = new RegionTable<>(1);
+		Pos a = new Pos(0, 0, 0);
+		Pos b = new Pos(-17, 0, 33);
+		assertNull(table.putColumn(a));
+		assertNull(table.putColumn(b));
+		assertSame(a, table.getColumn(0, 0));
+		assertSame(b, table.getColumn(-17, 33));
+		assertNull(table.getColumn(-1, 0));
+		assertNull(table.getCube(0, 0, 0));
+		assertEquals(2, table.getColumnCount());
+
+		assertSame(a, table.removeColumn(0, 0));
+		assertNull(table.removeColumn(0, 0));
+		assertNull(table.getColumn(0, 0));
+		assertSame(b, table.getColumn(-17, 33));
+		assertEquals(1, table.getColumnCount());
+	}
+
+	@Test
+	public void testRandomCubesMatchXYZMap() {
+		RegionTable<Pos, Pos> table = new RegionTable<>(1);
+		XYZMap<Pos> map = new XYZMap<>(0.7f, 10);
+		Random rand = new Random(42);
+		List<Pos> added = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			if (!added.isEmpty() && rand.nextInt(3) == 0) {
+				Pos pos = added.remove(rand.nextInt(added.size()));
+				assertSame(map.remove(pos), table.removeCube(pos.getX(), pos.getY(), pos.getZ()));
+			} else {
+				Pos pos = new Pos(rand.nextInt(200) - 100, rand.nextInt(200) - 100, rand.nextInt(200) - 100);
+				Pos old = map.put(pos);
+				assertSame(old, table.putCube(pos));
+				added.remove(old);
+				added.add(pos);
+			}
+			assertEquals(map.getSize(), table.getCubeCount());
+		}
+		for (int x = -100; x < 100; x += 3) {
+			for (int y = -100; y < 100; y += 3) {
+				for (int z = -100; z < 100; z += 3) {
+					assertSame(map.get(x, y, z), table.getCube(x, y, z));
+				}
+			}
+		}
+		Set<Pos> all = new HashSet<>();
+		table.forEachCube(cube -> assertTrue(all.add(cube)));
+		assertEquals(new HashSet<>(added), all);
+
+		for (Pos pos : added) {
+			assertSame(pos, table.removeCube(pos.getX(), pos.getY(), pos.getZ()));
+		}
+		assertEquals(0, table.getCubeCount());
+		table.forEachCube(cube -> {
+			throw new AssertionError("Cube left after removing all: " + cube);
+		});
+	}
+
+	@Test
+	public void testForEachCubeInBox() {
+		RegionTable<Pos, Pos> table = new RegionTable<>(1);
+		XYZMap<Pos> map = new XYZMap<>(0.7f, 10);
+		Random rand = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			Pos pos = new Pos(rand.nextInt(60) - 30, rand.nextInt(60) - 30, rand.nextInt(60) - 30);
+			table.putCube(pos);
+			map.put(pos);
+		}
+		for (int i = 0; i < 200; i++) {
+			int minX = rand.nextInt(70) - 35;
+			int minY = rand.nextInt(70) - 35;
+			int minZ = rand.nextInt(70) - 35;
+			int maxX = minX + rand.nextInt(20);
+			int maxY = minY + rand.nextInt(20);
+			int maxZ = minZ + rand.nextInt(20);
+
+			Set<Pos> expected = new HashSet<>();
+			for (int x = minX; x <= maxX; x++) {
+				for (int y = minY; y <= maxY; y++) {
+					for (int z = minZ; z <= maxZ; z++) {
+						Pos pos = map.get(x, y, z);
+						if (pos != null) {
+							expected.add(pos);
+						}
+					}
+				}
+			}
+			Set<Pos> found = new HashSet<>();
+			table.forEachCubeInBox(minX, minY, minZ, maxX, maxY, maxZ, cube -> assertTrue(found.add(cube)));
+			assertEquals(expected, found);
+		}
+	}
+
+	private static class Pos implements XYZAddressable, XZAddressable {
+		private final int x;
+		private final int y;
+		private final int z;
+
+		Pos(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override public int getX() {
+			return x;
+		}
+
+		@Override public int getY() {
+			return y;
+		}
+
+		@Override public int getZ() {
+			return z;
+		}
+
+		@Override public String toString() {
+			return "Pos{" + x + ", " + y + ", " + z + "}";
+		}
+	}
+}
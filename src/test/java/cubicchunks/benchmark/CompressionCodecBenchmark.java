@@ -0,0 +1,194 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import cubicchunks.server.chunkio.CompressionCodec;
+
+/**
+ * Compares save (compress) and load (decompress) throughput and compressed size of every {@link CompressionCodec}, on
+ * data laid out like binary cubes: block state indices, block light, sky light and the last height map. Solid cubes are
+ * mostly one value, surface cubes have layers of a few blocks with light fading out, cave cubes are close to noise.
+ * The data is generated so that this runs without Minecraft. Timing depends on the machine, so this isn't part of the
+ * tests.
+ */
+public class CompressionCodecBenchmark {
+
+	private static final int CUBES = 2000;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		for (Kind kind : Kind.values()) {
+			Random rand = new Random(42);
+			byte[][] cubes = new byte[CUBES][];
+			long rawBytes = 0;
+			for (int i = 0; i < CUBES; i++) {
+				cubes[i] = kind.generate(rand);
+				rawBytes += cubes[i].length;
+			}
+			for (CompressionCodec codec : CompressionCodec.values()) {
+				byte[][] compressed = new byte[CUBES][];
+				for (int round = 0; round < WARMUP_ROUNDS; round++) {
+					compressAll(codec, cubes, compressed);
+					decompressAll(compressed);
+				}
+
+				long saveTime = 0;
+				long loadTime = 0;
+				long checksum = 0;
+				for (int round = 0; round < ROUNDS; round++) {
+					long start = System.nanoTime();
+					compressAll(codec, cubes, compressed);
+					saveTime += System.nanoTime() - start;
+
+					start = System.nanoTime();
+					checksum += decompressAll(compressed);
+					loadTime += System.nanoTime() - start;
+				}
+				long compressedBytes = 0;
+				for (byte[] data : compressed) {
+					compressedBytes += data.length;
+				}
+				// print the checksum, so that decompressing can't be optimized away
+				System.out.println(String.format("%-7s %-5s: %5.1f%% of raw size, save %7.1f MB/s, load %7.1f MB/s (%d)",
+					kind, codec, compressedBytes*100.0/rawBytes,
+					megabytesPerSecond(rawBytes*ROUNDS, saveTime), megabytesPerSecond(rawBytes*ROUNDS, loadTime), checksum));
+			}
+		}
+	}
+
+	private static void compressAll(CompressionCodec codec, byte[][] cubes, byte[][] compressed) throws IOException {
+		for (int i = 0; i < cubes.length; i++) {
+			compressed[i] = codec.compress(cubes[i]);
+		}
+	}
+
+	private static long decompressAll(byte[][] compressed) throws IOException {
+		long length = 0;
+		for (byte[] data : compressed) {
+			length += CompressionCodec.decompress(data).length;
+		}
+		return length;
+	}
+
+	private static double megabytesPerSecond(long bytes, long nanos) {
+		return bytes/(1024.0*1024.0)/(nanos/1e9);
+	}
+
+	private enum Kind {
+		SOLID {
+			@Override
+			int block(Random rand, int x, int y, int z) {
+				// some ore in stone
+				return rand.nextInt(200) == 0 ? 1 + rand.nextInt(3) : 0;
+			}
+
+			@Override
+			int blockLight(Random rand, int y) {
+				return 0;
+			}
+
+			@Override
+			int skyLight(Random rand, int y) {
+				return 0;
+			}
+		},
+		SURFACE {
+			@Override
+			int block(Random rand, int x, int y, int z) {
+				int height = 8 + (x + z)/8;
+				if (y > height) {
+					return rand.nextInt(50) == 0 ? 4 : 0; // air and some grass
+				}
+				return y == height ? 1 : y > height - 3 ? 2 : 3; // grass, dirt, stone
+			}
+
+			@Override
+			int blockLight(Random rand, int y) {
+				return rand.nextInt(100) == 0 ? 14 : 0;
+			}
+
+			@Override
+			int skyLight(Random rand, int y) {
+				return y > 10 ? 15 : Math.max(0, 15 - (10 - y)*3);
+			}
+		},
+		CAVES {
+			@Override
+			int block(Random rand, int x, int y, int z) {
+				return rand.nextInt(40);
+			}
+
+			@Override
+			int blockLight(Random rand, int y) {
+				return rand.nextInt(16);
+			}
+
+			@Override
+			int skyLight(Random rand, int y) {
+				return rand.nextInt(4);
+			}
+		};
+
+		abstract int block(Random rand, int x, int y, int z);
+
+		abstract int blockLight(Random rand, int y);
+
+		abstract int skyLight(Random rand, int y);
+
+		byte[] generate(Random rand) {
+			// header, palette, 8 bit indices, both light arrays, height map and a small NBT compound
+			ByteBuffer buf = ByteBuffer.allocate(15 + 64 + 4096 + 2*2048 + 4 + 256*4 + 64);
+			buf.put((byte) 0xCC).put((byte) 2).putInt(0).putInt(rand.nextInt(32)).putInt(0).put((byte) 0x2f);
+			for (int i = 0; i < 16; i++) {
+				buf.putInt(i*16);
+			}
+			for (int i = 0; i < 4096; i++) {
+				buf.put((byte) block(rand, i & 0xF, i >> 8, (i >> 4) & 0xF));
+			}
+			for (int i = 0; i < 2048; i++) {
+				int y = i >> 7;
+				buf.put((byte) (blockLight(rand, y) | blockLight(rand, y) << 4));
+			}
+			for (int i = 0; i < 2048; i++) {
+				int y = i >> 7;
+				buf.put((byte) (skyLight(rand, y) | skyLight(rand, y) << 4));
+			}
+			buf.putInt(256);
+			int surface = rand.nextInt(1000);
+			for (int i = 0; i < 256; i++) {
+				buf.putInt(surface + rand.nextInt(3));
+			}
+			// entities, tile entities and ticks, usually empty
+			while (buf.hasRemaining()) {
+				buf.put((byte) 0);
+			}
+			return buf.array();
+		}
+	}
+}
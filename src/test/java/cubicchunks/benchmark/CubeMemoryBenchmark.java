@@ -0,0 +1,78 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cubicchunks.TestCubeMemory;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Measures the heap used by cubes of solid stone, with full block storage and compacted. The numbers depend on the
+ * JVM and the garbage collector, so this isn't part of the tests. Run it with the test classpath.
+ */
+public class CubeMemoryBenchmark {
+
+	private static final int CUBES = 4096;
+
+	public static void main(String[] args) {
+		MinecraftEnvironment.init();
+		Column column = TestCubeMemory.mockColumn();
+
+		List<Cube> cubes = new ArrayList<>(CUBES);
+		long before = usedMemory();
+		long estimated = 0;
+		for (int i = 0; i < CUBES; i++) {
+			Cube cube = TestCubeMemory.newStoneCube(column, i);
+			estimated += cube.estimateMemoryUsage();
+			cubes.add(cube);
+		}
+		long full = (usedMemory() - before)/CUBES;
+		long fullEstimate = estimated/CUBES;
+
+		estimated = 0;
+		for (Cube cube : cubes) {
+			cube.compactStorage();
+			estimated += cube.estimateMemoryUsage();
+		}
+		long compacted = (usedMemory() - before)/CUBES;
+		long compactedEstimate = estimated/CUBES;
+
+		System.out.println("Bytes per stone cube with storage: " + full + " measured, " + fullEstimate + " estimated");
+		System.out.println("Bytes per compacted stone cube: " + compacted + " measured, " + compactedEstimate + " estimated");
+		// keep them reachable until measured
+		System.out.println(cubes.size() + " cubes");
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
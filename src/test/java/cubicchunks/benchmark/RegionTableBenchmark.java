@@ -0,0 +1,142 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.benchmark;
+
+import cubicchunks.util.RegionTable;
+import cubicchunks.util.XYZAddressable;
+import cubicchunks.util.XYZMap;
+import cubicchunks.util.XZAddressable;
+
+/**
+ * Compares neighbourhood lookups like the lighting code does them, one by one and as box scans, between
+ * {@link RegionTable} and {@link XYZMap}. With a few players worth of cubes all are about as fast, with more cubes than
+ * fit in the cpu cache the table is faster. Timing depends on the machine, so this isn't part of the tests.
+ */
+public class RegionTableBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		for (int radius : new int[]{16, 64}) {
+			RegionTable<Pos, Pos> table = new RegionTable<>(256);
+			XYZMap<Pos> map = new XYZMap<>(0.7f, 8000);
+			for (int x = -radius; x < radius; x++) {
+				for (int y = -8; y < 8; y++) {
+					for (int z = -radius; z < radius; z++) {
+						Pos pos = new Pos(x, y, z);
+						table.putCube(pos);
+						map.put(pos);
+					}
+				}
+			}
+			for (int round = 0; round < WARMUP_ROUNDS; round++) {
+				lookupNeighbours(radius, table::getCube);
+				lookupNeighbours(radius, map::get);
+				scanNeighbours(radius, table);
+			}
+
+			long found = 0;
+			long tableTime = 0;
+			long mapTime = 0;
+			long boxTime = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				found += lookupNeighbours(radius, table::getCube);
+				tableTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				found += lookupNeighbours(radius, map::get);
+				mapTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				found += scanNeighbours(radius, table);
+				boxTime += System.nanoTime() - start;
+			}
+			// print the result, so that the lookups can't be optimized away
+			System.out.println("Neighbourhood lookups of " + table.getCubeCount() + " cubes (" + found + " found): RegionTable "
+				+ tableTime/1000000 + " ms, RegionTable box scans " + boxTime/1000000 + " ms, XYZMap " + mapTime/1000000 + " ms");
+		}
+	}
+
+	private static int lookupNeighbours(int radius, Lookup lookup) {
+		int found = 0;
+		for (int x = -radius + 1; x < radius - 1; x++) {
+			for (int y = -7; y < 7; y++) {
+				for (int z = -radius + 1; z < radius - 1; z++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							for (int dz = -1; dz <= 1; dz++) {
+								if (lookup.get(x + dx, y + dy, z + dz) != null) {
+									found++;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private static int scanNeighbours(int radius, RegionTable<Pos, Pos> table) {
+		int[] found = {0};
+		for (int x = -radius + 1; x < radius - 1; x++) {
+			for (int y = -7; y < 7; y++) {
+				for (int z = -radius + 1; z < radius - 1; z++) {
+					table.forEachCubeInBox(x - 1, y - 1, z - 1, x + 1, y + 1, z + 1, cube -> found[0]++);
+				}
+			}
+		}
+		return found[0];
+	}
+
+	private interface Lookup {
+		Object get(int x, int y, int z);
+	}
+
+	private static class Pos implements XYZAddressable, XZAddressable {
+		private final int x;
+		private final int y;
+		private final int z;
+
+		Pos(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override public int getX() {
+			return x;
+		}
+
+		@Override public int getY() {
+			return y;
+		}
+
+		@Override public int getZ() {
+			return z;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.Box;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ticket.TicketList;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the generation pipeline against a fake cube cache: nothing is stored on disk, cubes are generated right away
+ * and population needs the cubes in {@link #populationRequirement}. Columns at x = {@link #MISSING_COLUMN_X} never
+ * load, cubes depending on them never get populated.
+ */
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeGenerationPipeline {
+
+	private static final int MISSING_COLUMN_X = 5;
+
+	private CubeGenerationPipeline pipeline;
+	private CubeProviderServer cache;
+	private final Map<CubePos, FakeCube> cubes = new HashMap<>();
+	private Box populationRequirement = new Box(0, 0, 0, 0, 0, 0);
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+
+		cache = mock(CubeProviderServer.class);
+		Column column = mock(Column.class);
+		ICubeGenerator generator = mock(ICubeGenerator.class);
+
+		when(cache.getLoadedCube(any(CubePos.class))).thenAnswer(invocation -> loaded((CubePos) invocation.getArguments()[0]));
+		when(cache.getLoadedCube(anyInt(), anyInt(), anyInt())).thenAnswer(invocation -> {
+			Object[] args = invocation.getArguments();
+			return loaded(new CubePos((Integer) args[0], (Integer) args[1], (Integer) args[2]));
+		});
+		when(cache.getLoadedColumn(anyInt(), anyInt())).thenAnswer(invocation ->
+			(Integer) invocation.getArguments()[0] == MISSING_COLUMN_X ? null : column);
+		// nothing is stored
+		doAnswer(invocation -> {
+			@SuppressWarnings("unchecked")
+			Consumer<Cube> callback = (Consumer<Cube>) invocation.getArguments()[4];
+			callback.accept(null);
+			return null;
+		}).when(cache).asyncGetCube(anyInt(), anyInt(), anyInt(), eq(Requirement.LOAD), any(), any(), any());
+		when(cache.generateCube(anyInt(), anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+			Object[] args = invocation.getArguments();
+			CubePos pos = new CubePos((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+			FakeCube cube = new FakeCube(pos);
+			cubes.put(pos, cube);
+			return cube.cube;
+		});
+		when(cache.getCubeGenerator()).thenReturn(generator);
+		when(generator.getPopulationRequirement(any())).thenAnswer(invocation -> populationRequirement);
+		doAnswer(invocation -> {
+			find((Cube) invocation.getArguments()[0]).populated = true;
+			return null;
+		}).when(cache).populateCube(any());
+		doAnswer(invocation -> {
+			find((Cube) invocation.getArguments()[0]).lit = true;
+			return null;
+		}).when(cache).calculateDiffuseSkylight(any());
+
+		pipeline = new CubeGenerationPipeline(cache);
+		pipeline.setTickBudget(1000);
+	}
+
+	@Test
+	public void testStageProgression() {
+		List<Cube> done = new ArrayList<>();
+		pipeline.request(0, 0, 0, Requirement.LIGHT, done::add, null, null);
+		assertEquals(1, pipeline.getPendingCount());
+
+		tick(5);
+		assertEquals(1, done.size());
+		FakeCube cube = cubes.get(new CubePos(0, 0, 0));
+		assertTrue(done.get(0) == cube.cube);
+		assertTrue(cube.populated);
+		assertTrue(cube.lit);
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testRaisingTarget() {
+		List<Cube> done = new ArrayList<>();
+		pipeline.request(0, 0, 0, Requirement.GENERATE, cube -> done.add(cube), null, null);
+		pipeline.request(0, 0, 0, Requirement.POPULATE, cube -> done.add(cube), null, null);
+
+		tick(5);
+		// both are called when the higher target is reached
+		assertEquals(2, done.size());
+		assertTrue(cubes.get(new CubePos(0, 0, 0)).populated);
+	}
+
+	@Test
+	public void testCancelledRequestIsDropped() {
+		boolean[] cancelled = {false};
+		List<Cube> done = new ArrayList<>();
+		populationRequirement = new Box(0, 0, 0, 1, 0, 0);
+		pipeline.request(MISSING_COLUMN_X - 1, 0, 0, Requirement.POPULATE, done::add, null, () -> cancelled[0]);
+		tick(5);
+		assertEquals(2, pipeline.getPendingCount()); // the cube and the one it depends on
+
+		cancelled[0] = true;
+		tick(1);
+		assertEquals(0, pipeline.getPendingCount());
+		assertTrue(done.isEmpty());
+		// the dependency was never stored, its terrain generation is cancelled
+		verify(cache).cancelCubeTerrain(MISSING_COLUMN_X, 0, 0);
+	}
+
+	@Test
+	public void testDependenciesStayLoadedUntilDropped() {
+		boolean[] cancelled = {false};
+		// (1, 0, 0) and (2, 0, 0) can be generated, (MISSING_COLUMN_X, 0, 0) can't
+		populationRequirement = new Box(0, 0, 0, MISSING_COLUMN_X - 1, 0, 0);
+		pipeline.request(1, 0, 0, Requirement.POPULATE, cube -> {
+		}, null, () -> cancelled[0]);
+		tick(5);
+
+		TicketList own = cubes.get(new CubePos(1, 0, 0)).tickets;
+		TicketList dependency = cubes.get(new CubePos(2, 0, 0)).tickets;
+		assertFalse(own.canUnload());
+		assertFalse(dependency.canUnload());
+
+		cancelled[0] = true;
+		tick(1);
+		assertTrue(own.canUnload());
+		assertTrue(dependency.canUnload());
+	}
+
+	@Test
+	public void testTicketsReleasedWhenFinished() {
+		populationRequirement = new Box(-1, 0, -1, 1, 0, 1);
+		List<Cube> done = new ArrayList<>();
+		pipeline.request(0, 0, 0, Requirement.POPULATE, done::add, null, null);
+		tick(10);
+
+		assertEquals(1, done.size());
+		assertEquals(9, cubes.size());
+		for (FakeCube cube : cubes.values()) {
+			assertTrue("Ticket left on " + cube.pos, cube.tickets.canUnload());
+		}
+	}
+
+	private void tick(int count) {
+		for (int i = 0; i < count; i++) {
+			pipeline.tick();
+		}
+	}
+
+	private Cube loaded(CubePos pos) {
+		FakeCube cube = cubes.get(pos);
+		return cube == null ? null : cube.cube;
+	}
+
+	private FakeCube find(Cube cube) {
+		for (FakeCube fake : cubes.values()) {
+			if (fake.cube == cube) {
+				return fake;
+			}
+		}
+		throw new AssertionError("Not a loaded cube: " + cube);
+	}
+
+	private static class FakeCube {
+		final CubePos pos;
+		final Cube cube = mock(Cube.class);
+		final TicketList tickets = new TicketList();
+		boolean populated;
+		boolean lit;
+
+		FakeCube(CubePos pos) {
+			this.pos = pos;
+			when(cube.getX()).thenReturn(pos.getX());
+			when(cube.getY()).thenReturn(pos.getY());
+			when(cube.getZ()).thenReturn(pos.getZ());
+			when(cube.getTickets()).thenReturn(tickets);
+			when(cube.isFullyPopulated()).thenAnswer(invocation -> populated);
+			when(cube.isInitialLightingDone()).thenAnswer(invocation -> lit);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockColored;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.item.EnumDyeColor;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import cubicchunks.TestCubeMemory;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.Coords;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestBinaryCubeFormat {
+
+	private Column column;
+	private int[] heightMap;
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+		column = TestCubeMemory.mockColumn();
+		heightMap = new int[Cube.SIZE*Cube.SIZE];
+		Random rand = new Random(42);
+		for (int i = 0; i < heightMap.length; i++) {
+			heightMap[i] = rand.nextInt(1000) - 500;
+		}
+		when(column.getHeightMap()).thenReturn(heightMap);
+	}
+
+	@Test
+	public void testBlocksAndLight() throws IOException {
+		Cube cube = newCube(5, true);
+		Random rand = new Random(42);
+		fillLight(cube.getStorage().getBlocklightArray(), rand);
+		fillLight(cube.getStorage().getSkylightArray(), rand);
+		cube.setPopulated(true);
+		cube.setInitialLightingDone(true);
+
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(cube));
+		assertEquals(CubeMetaIndex.EXISTS | CubeMetaIndex.POPULATED | CubeMetaIndex.INITIAL_LIGHTING_DONE,
+			BinaryCubeFormat.readStatus(raw));
+
+		CubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, 0, 5, 0, raw);
+		assertNotNull(read);
+		assertTrue(read.getCube().isPopulated());
+		assertFalse(read.getCube().isFullyPopulated());
+		assertTrue(read.getCube().isInitialLightingDone());
+		assertSameStorage(cube.getStorage(), read.getCube().getStorage());
+		assertArrayEquals(heightMap, read.lastHeightMap);
+	}
+
+	@Test
+	public void testUniformLight() throws IOException {
+		Cube cube = newCube(-3, true);
+		fill(cube.getStorage().getBlocklightArray(), 0);
+		fill(cube.getStorage().getSkylightArray(), 15);
+
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(cube));
+		// a byte for each uniform light array instead of 2 KB
+		byte[] nonUniform = writeWithBlockLightAt(cube, 1);
+		assertEquals(raw.length - 1 + 2048, nonUniform.length);
+
+		CubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, 0, -3, 0, raw);
+		assertNotNull(read);
+		assertSameStorage(cube.getStorage(), read.getCube().getStorage());
+		assertEquals(15, read.getCube().getStorage().getExtSkylightValue(7, 7, 7));
+	}
+
+	@Test
+	public void testNoSkyLight() throws IOException {
+		when(column.getCubicWorld().getProvider().getHasNoSky()).thenReturn(true);
+		Cube cube = newCube(1, false);
+		fillLight(cube.getStorage().getBlocklightArray(), new Random(42));
+
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(cube));
+		CubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, 0, 1, 0, raw);
+		assertNotNull(read);
+		assertSameStorage(cube.getStorage(), read.getCube().getStorage());
+		assertNull(read.getCube().getStorage().getSkylightArray());
+	}
+
+	@Test
+	public void testNoBlocks() throws IOException {
+		Cube cube = new Cube(column, 2);
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(cube));
+		CubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, 0, 2, 0, raw);
+		assertNotNull(read);
+		assertNull(read.getCube().getStorage());
+		assertArrayEquals(heightMap, read.lastHeightMap);
+	}
+
+	@Test
+	public void testVersion1() throws IOException {
+		// blocks as ids and metadata, both light arrays in full
+		final int flags = 1 | 1 << 3 | 1 << 5; // populated, has blocks, has sky light
+		byte[] ids = new byte[4096];
+		NibbleArray meta = new NibbleArray();
+		for (int i = 0; i < ids.length; i += 2) {
+			ids[i] = (byte) Block.getIdFromBlock(Blocks.STONE);
+			meta.set(i & 0xF, i >> 8, (i >> 4) & 0xF, i%4 == 0 ? 1 : 0);
+		}
+		byte[] blockLight = new byte[2048];
+		Arrays.fill(blockLight, (byte) 0x21);
+		byte[] skyLight = new byte[2048];
+		Arrays.fill(skyLight, (byte) 0xFF);
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		out.writeByte(0xCC);
+		out.writeByte(1);
+		out.writeInt(0);
+		out.writeInt(7);
+		out.writeInt(0);
+		out.writeByte(flags);
+		out.write(ids);
+		out.write(meta.getData());
+		out.write(blockLight);
+		out.write(skyLight);
+		out.writeInt(heightMap.length);
+		for (int height : heightMap) {
+			out.writeInt(height);
+		}
+		CompressedStreamTools.write(new NBTTagCompound(), out);
+		byte[] raw = buf.toByteArray();
+
+		assertEquals(CubeMetaIndex.EXISTS | CubeMetaIndex.POPULATED, BinaryCubeFormat.readStatus(raw));
+		CubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, 0, 7, 0, raw);
+		assertNotNull(read);
+		ExtendedBlockStorage storage = read.getCube().getStorage();
+		IBlockState stone = Blocks.STONE.getDefaultState();
+		IBlockState granite = Blocks.STONE.getStateFromMeta(1);
+		for (int i = 0; i < ids.length; i++) {
+			IBlockState expected = i%2 != 0 ? Blocks.AIR.getDefaultState() : i%4 == 0 ? granite : stone;
+			assertEquals(expected, storage.get(i & 0xF, i >> 8, (i >> 4) & 0xF));
+		}
+		assertEquals(1, storage.getExtBlocklightValue(0, 0, 0));
+		assertEquals(2, storage.getExtBlocklightValue(1, 0, 0));
+		assertEquals(15, storage.getExtSkylightValue(3, 4, 5));
+		assertArrayEquals(heightMap, read.lastHeightMap);
+	}
+
+	@Test
+	public void testInvalidHeightMapLength() throws IOException {
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(new Cube(column, 0)));
+		// FORMAT_ID, version, position and flags come before it in a cube without blocks
+		for (int length : new int[]{-1, 0, 255, Integer.MAX_VALUE}) {
+			ByteBuffer.wrap(raw).putInt(2 + 3*4 + 1, length);
+			try {
+				BinaryCubeFormat.readAsyncPart(column, 0, 0, 0, raw);
+				fail("Read height map of length " + length);
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	/**
+	 * @return a cube with more than 16 different block states, so that the block state container needs more than 4
+	 * bits per block
+	 */
+	private Cube newCube(int cubeY, boolean hasSky) {
+		IBlockState[] states = new IBlockState[33];
+		for (EnumDyeColor color : EnumDyeColor.values()) {
+			states[color.getMetadata()] = Blocks.WOOL.getDefaultState().withProperty(BlockColored.COLOR, color);
+			states[16 + color.getMetadata()] = Blocks.STAINED_HARDENED_CLAY.getDefaultState().withProperty(BlockColored.COLOR, color);
+		}
+		states[32] = Blocks.AIR.getDefaultState();
+
+		ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSky);
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					storage.set(x, y, z, states[(x*7 + y*13 + z*3)%states.length]);
+				}
+			}
+		}
+		Cube cube = new Cube(column, cubeY);
+		cube.setStorage(storage);
+		return cube;
+	}
+
+	private byte[] writeWithBlockLightAt(Cube cube, int light) throws IOException {
+		cube.getStorage().getBlocklightArray().set(1, 2, 3, light);
+		byte[] raw = BinaryCubeFormat.write(CubeSnapshot.of(cube));
+		cube.getStorage().getBlocklightArray().set(1, 2, 3, 0);
+		return raw;
+	}
+
+	private static void fillLight(NibbleArray light, Random rand) {
+		for (int i = 0; i < 4096; i++) {
+			light.set(i & 0xF, i >> 8, (i >> 4) & 0xF, rand.nextInt(16));
+		}
+	}
+
+	private static void fill(NibbleArray light, int value) {
+		for (int i = 0; i < 4096; i++) {
+			light.set(i & 0xF, i >> 8, (i >> 4) & 0xF, value);
+		}
+	}
+
+	private static void assertSameStorage(ExtendedBlockStorage expected, ExtendedBlockStorage actual) {
+		assertNotNull(actual);
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					assertEquals(expected.get(x, y, z), actual.get(x, y, z));
+				}
+			}
+		}
+		assertArrayEquals(expected.getBlocklightArray().getData(), actual.getBlocklightArray().getData());
+		if (expected.getSkylightArray() != null) {
+			assertArrayEquals(expected.getSkylightArray().getData(), actual.getSkylightArray().getData());
+		}
+	}
+}
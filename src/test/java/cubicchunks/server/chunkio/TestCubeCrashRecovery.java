@@ -0,0 +1,175 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import cubicchunks.server.chunkio.storage.ICubeStorage;
+import cubicchunks.server.chunkio.storage.JournaledCubeStorage;
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.AddressTools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes cubes in the order {@link CubeIO} does, and checks that after the process is killed the cube index knows
+ * about every cube the journal replays
+ */
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeCrashRecovery {
+
+	private static final int BATCH_SIZE = 100;
+	// big enough that a batch spills out of the journal buffer
+	private static final int CUBE_BYTES = 2048;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private final Random rand = new Random(42);
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		MinecraftEnvironment.init();
+		directory = folder.newFolder("world").toPath();
+		// an existing, empty index, so that it's read instead of rebuilt
+		try (ICubeStorage storage = openStorage(directory)) {
+			CubeMetaIndex index = CubeMetaIndex.open(storage, directory.resolve("index.dat"));
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!Files.exists(directory.resolve("index.dat"))) {
+				assertTrue("Index not written", System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+			index.close();
+		}
+	}
+
+	@Test
+	public void testKilledBeforeIndexFlush() throws IOException {
+		ICubeStorage storage = openStorage(directory);
+		CubeMetaIndex index = CubeMetaIndex.open(storage, directory.resolve("index.dat"));
+		writeBatch(storage, index, 0, true);
+		// the next batch is recorded, but the index isn't flushed yet
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			index.put(address(BATCH_SIZE + i), CubeMetaIndex.POPULATED);
+		}
+
+		Set<Long> replayed = checkAfterKill();
+		assertEquals(BATCH_SIZE, replayed.size());
+	}
+
+	@Test
+	public void testKilledWhileWritingCubes() throws IOException {
+		ICubeStorage storage = openStorage(directory);
+		CubeMetaIndex index = CubeMetaIndex.open(storage, directory.resolve("index.dat"));
+		writeBatch(storage, index, 0, true);
+		// killed before the storage commits the batch
+		writeBatch(storage, index, BATCH_SIZE, false);
+
+		Set<Long> replayed = checkAfterKill();
+		assertEquals(BATCH_SIZE, replayed.size());
+	}
+
+	@Test
+	public void testKilledAfterCommit() throws IOException {
+		ICubeStorage storage = openStorage(directory);
+		CubeMetaIndex index = CubeMetaIndex.open(storage, directory.resolve("index.dat"));
+		writeBatch(storage, index, 0, true);
+		writeBatch(storage, index, BATCH_SIZE, true);
+
+		Set<Long> replayed = checkAfterKill();
+		assertEquals(2*BATCH_SIZE, replayed.size());
+	}
+
+	private void writeBatch(ICubeStorage storage, CubeMetaIndex index, int start, boolean commit) throws IOException {
+		// like CubeIO: recorded when saving, the index is flushed when the batch is collected, then the cubes are written
+		for (int i = start; i < start + BATCH_SIZE; i++) {
+			index.put(address(i), CubeMetaIndex.POPULATED);
+		}
+		index.flush();
+		for (int i = start; i < start + BATCH_SIZE; i++) {
+			byte[] data = new byte[CUBE_BYTES];
+			rand.nextBytes(data);
+			long address = address(i);
+			storage.writeCube(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address), data);
+		}
+		if (commit) {
+			storage.flush();
+		}
+	}
+
+	/**
+	 * Copies the files as they are on disk right now, which is what is left when the process is killed, and opens them
+	 *
+	 * @return addresses of all cubes stored after the restart
+	 */
+	private Set<Long> checkAfterKill() throws IOException {
+		Path copy = folder.newFolder("restarted").toPath();
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Path target = copy.resolve(directory.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(file, target);
+				}
+			}
+		}
+
+		Set<Long> stored = new HashSet<>();
+		try (ICubeStorage storage = openStorage(copy)) {
+			CubeMetaIndex index = CubeMetaIndex.open(storage, copy.resolve("index.dat"));
+			assertTrue(index.isReady());
+			storage.forEachCube((x, y, z, data) -> {
+				assertTrue("Cube " + x + ", " + y + ", " + z + " is stored, but not in the index", index.mightExist(x, y, z));
+				stored.add(AddressTools.getAddress(x, y, z));
+			});
+			index.close();
+		}
+		return stored;
+	}
+
+	private static ICubeStorage openStorage(Path directory) throws IOException {
+		return new JournaledCubeStorage(new RegionCubeStorage(directory.resolve("region3d")), directory.resolve("cubes.journal"));
+	}
+
+	private static long address(int i) {
+		return AddressTools.getAddress(i%10, i/100, i/10%10);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import cubicchunks.server.chunkio.storage.ICubeStorage;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.AddressTools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeMetaIndex {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// an empty storage, the index is only rebuilt from it when creating the file
+	private final ICubeStorage storage = mock(ICubeStorage.class);
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+	}
+
+	@Test
+	public void testStatusBits() throws IOException, InterruptedException {
+		Path file = newIndexFile();
+		CubeMetaIndex index = CubeMetaIndex.open(storage, file);
+		assertTrue(index.isReady());
+
+		index.put(AddressTools.getAddress(0, 0, 0), CubeMetaIndex.POPULATED);
+		index.put(AddressTools.getAddress(-1, 15, 16), CubeMetaIndex.POPULATED | CubeMetaIndex.INITIAL_LIGHTING_DONE);
+		index.put(AddressTools.getAddress(1, 0, 0), 0);
+
+		assertEquals(CubeMetaIndex.EXISTS | CubeMetaIndex.POPULATED, index.getStatus(0, 0, 0));
+		assertTrue(index.hasStatus(-1, 15, 16, CubeMetaIndex.POPULATED | CubeMetaIndex.INITIAL_LIGHTING_DONE));
+		assertEquals(CubeMetaIndex.EXISTS, index.getStatus(1, 0, 0));
+		// neighbours in the same bitmap
+		assertEquals(0, index.getStatus(0, 0, 1));
+		assertEquals(0, index.getStatus(-1, 15, 15));
+		assertFalse(index.mightExist(2, 0, 0));
+		assertEquals(3, index.size());
+
+		// updating a cube doesn't count it again
+		index.put(AddressTools.getAddress(1, 0, 0), CubeMetaIndex.FULLY_POPULATED);
+		assertEquals(3, index.size());
+		index.close();
+	}
+
+	@Test
+	public void testReopen() throws IOException, InterruptedException {
+		Path file = newIndexFile();
+		CubeMetaIndex index = CubeMetaIndex.open(storage, file);
+		Random rand = new Random(42);
+		int[] statuses = new int[1000];
+		for (int i = 0; i < statuses.length; i++) {
+			statuses[i] = 1 + rand.nextInt(15);
+			index.put(AddressTools.getAddress(i%37 - 18, i/37 - 13, i%7), statuses[i]);
+		}
+		index.flush();
+
+		// without closing, like after a crash
+		CubeMetaIndex reopened = CubeMetaIndex.open(storage, file);
+		assertTrue(reopened.isReady());
+		assertEquals(index.size(), reopened.size());
+		for (int i = 0; i < statuses.length; i++) {
+			int x = i%37 - 18, y = i/37 - 13, z = i%7;
+			assertEquals(index.getStatus(x, y, z), reopened.getStatus(x, y, z));
+		}
+		index.close();
+		reopened.close();
+	}
+
+	@Test
+	public void testTornRecordIsDropped() throws IOException, InterruptedException {
+		Path file = newIndexFile();
+		CubeMetaIndex index = CubeMetaIndex.open(storage, file);
+		index.put(AddressTools.getAddress(1, 2, 3), CubeMetaIndex.POPULATED);
+		index.put(AddressTools.getAddress(4, 5, 6), CubeMetaIndex.POPULATED);
+		index.close();
+
+		// cut the last record in half
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 5);
+		}
+		index = CubeMetaIndex.open(storage, file);
+		assertTrue(index.isReady());
+		assertTrue(index.hasStatus(1, 2, 3, CubeMetaIndex.POPULATED));
+		assertEquals(0, index.getStatus(4, 5, 6));
+
+		// and appending continues after the last complete one
+		index.put(AddressTools.getAddress(7, 8, 9), CubeMetaIndex.POPULATED);
+		index.close();
+		index = CubeMetaIndex.open(storage, file);
+		assertTrue(index.hasStatus(1, 2, 3, CubeMetaIndex.POPULATED));
+		assertTrue(index.hasStatus(7, 8, 9, CubeMetaIndex.POPULATED));
+		assertEquals(2, index.size());
+		index.close();
+	}
+
+	@Test
+	public void testCompaction() throws IOException, InterruptedException {
+		Path file = newIndexFile();
+		CubeMetaIndex index = CubeMetaIndex.open(storage, file);
+		// the same few cubes over and over, until the appended changes are rewritten
+		for (int i = 0; i < 300000; i++) {
+			index.put(AddressTools.getAddress(i%20, 0, 0), 1 + i%15);
+			if (i%1000 == 0) {
+				index.flush();
+			}
+		}
+		index.flush();
+		// 3 MB of changes without rewriting
+		assertTrue(Files.size(file) < 2*1024*1024);
+		index.close();
+
+		index = CubeMetaIndex.open(storage, file);
+		assertEquals(20, index.size());
+		for (int x = 0; x < 20; x++) {
+			int last = 299980 + x;
+			assertEquals(1 + last%15 | CubeMetaIndex.EXISTS, index.getStatus(x, 0, 0));
+		}
+		index.close();
+	}
+
+	@Test
+	public void testRebuildWritesFile() throws IOException, InterruptedException {
+		Path file = newIndexFile();
+		assertTrue(Files.size(file) > 0);
+	}
+
+	/**
+	 * @return the index file of an empty storage
+	 */
+	private Path newIndexFile() throws IOException, InterruptedException {
+		Path file = folder.newFolder().toPath().resolve("index.dat");
+		CubeMetaIndex index = CubeMetaIndex.open(storage, file);
+		// rebuilt in the background, and written once it's done
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!Files.exists(file)) {
+			assertTrue("Index not written", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		assertTrue(index.isReady());
+		index.close();
+		return file;
+	}
+}
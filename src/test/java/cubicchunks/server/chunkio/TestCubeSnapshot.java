@@ -0,0 +1,133 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cubicchunks.TestCubeMemory;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+/**
+ * The snapshot copies the block state container internals, these have to decode to the same blocks for every number of
+ * bits per block
+ */
+@SuppressWarnings("deprecation") // Block.BLOCK_STATE_IDS
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeSnapshot {
+
+	private Column column;
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+		column = TestCubeMemory.mockColumn();
+		when(column.getHeightMap()).thenReturn(new int[Cube.SIZE*Cube.SIZE]);
+	}
+
+	@Test
+	public void testFewStates() {
+		checkBlockIds(4);
+	}
+
+	@Test
+	public void testLocalPalette() {
+		// 6 bits per block, values span two longs
+		checkBlockIds(40);
+	}
+
+	@Test
+	public void testGlobalPalette() {
+		// more than 8 bits per block, the container uses the global registry
+		checkBlockIds(300);
+	}
+
+	@Test
+	public void testSnapshotIsCopy() {
+		Cube cube = newCube(states(40));
+		CubeSnapshot snapshot = CubeSnapshot.of(cube);
+		int[] ids = snapshot.getBlockIds();
+		for (int i = 0; i < 200; i++) {
+			cube.getStorage().set(i & 0xF, 15, (i >> 4) & 0xF, Blocks.BEDROCK.getDefaultState());
+		}
+		assertEquals(ids.length, snapshot.getBlockIds().length);
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], snapshot.getBlockIds()[i]);
+		}
+	}
+
+	private void checkBlockIds(int stateCount) {
+		Cube cube = newCube(states(stateCount));
+		int[] ids = CubeSnapshot.of(cube).getBlockIds();
+		ExtendedBlockStorage storage = cube.getStorage();
+		assertEquals(4096, ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			IBlockState state = storage.get(i & 0xF, i >> 8, (i >> 4) & 0xF);
+			assertEquals("Block " + i, Block.BLOCK_STATE_IDS.get(state), ids[i]);
+		}
+	}
+
+	private static List<IBlockState> states(int count) {
+		List<IBlockState> states = new ArrayList<>();
+		for (IBlockState state : Block.BLOCK_STATE_IDS) {
+			if (state != null && state.getBlock() != Blocks.AIR) {
+				states.add(state);
+			}
+			if (states.size() == count) {
+				break;
+			}
+		}
+		assertEquals(count, states.size());
+		return states;
+	}
+
+	private Cube newCube(List<IBlockState> states) {
+		ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				for (int z = 0; z < 16; z++) {
+					storage.set(x, y, z, states.get((x*7 + y*13 + z*3)%states.size()));
+				}
+			}
+		}
+		Cube cube = new Cube(column, 0);
+		cube.setStorage(storage);
+		return cube;
+	}
+}
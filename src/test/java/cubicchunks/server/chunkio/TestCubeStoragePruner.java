@@ -0,0 +1,184 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cubicchunks.server.chunkio.storage.RegionCubeStorage;
+import cubicchunks.testutil.MinecraftEnvironment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeStoragePruner {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path sourceDirectory;
+
+	@Before
+	public void setUp() throws IOException {
+		MinecraftEnvironment.init();
+		sourceDirectory = folder.newFolder("source").toPath();
+	}
+
+	@Test
+	public void testOutside() throws IOException {
+		try (RegionCubeStorage source = new RegionCubeStorage(sourceDirectory)) {
+			writeCube(source, 0, 0, 0, false);
+			writeCube(source, 1, -1, 1, false);
+			writeCube(source, 2, 0, 0, false);
+			writeCube(source, 5, 5, 5, false);
+			source.writeColumn(0, 0, new byte[]{1});
+			source.writeColumn(1, 1, new byte[]{1});
+			source.writeColumn(2, 0, new byte[]{1});
+			source.writeColumn(5, 5, new byte[]{1});
+
+			try (RegionCubeStorage target = prune(source, "--outside", "0", "-1", "0", "1", "1", "1")) {
+				assertNotNull(target.readCube(0, 0, 0));
+				assertNotNull(target.readCube(1, -1, 1));
+				assertNull(target.readCube(2, 0, 0));
+				assertNull(target.readCube(5, 5, 5));
+				// columns without cubes are removed with them
+				assertNotNull(target.readColumn(0, 0));
+				assertNotNull(target.readColumn(1, 1));
+				assertNull(target.readColumn(2, 0));
+				assertNull(target.readColumn(5, 5));
+			}
+		}
+	}
+
+	@Test
+	public void testUnpopulated() throws IOException {
+		try (RegionCubeStorage source = new RegionCubeStorage(sourceDirectory)) {
+			writeCube(source, 0, 0, 0, true);
+			writeCube(source, 1, 1, 1, false); // touched by populating its neighbour
+			writeCube(source, -1, 0, 0, false); // same
+			writeCube(source, 2, 0, 0, false);
+			writeCube(source, 10, 0, 10, false);
+
+			try (RegionCubeStorage target = prune(source, "--unpopulated")) {
+				assertNotNull(target.readCube(0, 0, 0));
+				assertNotNull(target.readCube(1, 1, 1));
+				assertNotNull(target.readCube(-1, 0, 0));
+				assertNull(target.readCube(2, 0, 0));
+				assertNull(target.readCube(10, 0, 10));
+			}
+		}
+	}
+
+	@Test
+	public void testOlderThanIsPerRegion() throws IOException {
+		try (RegionCubeStorage source = new RegionCubeStorage(sourceDirectory)) {
+			// two cubes in each of two regions
+			writeCube(source, 0, 0, 0, true);
+			writeCube(source, 1, 0, 0, true);
+			writeCube(source, 16, 0, 0, true);
+			writeCube(source, 17, 0, 0, true);
+			source.flush();
+
+			FileTime old = FileTime.from(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10), TimeUnit.MILLISECONDS);
+			for (Path file : regionFiles()) {
+				Files.setLastModifiedTime(file, old);
+			}
+			// saving one cube keeps the whole region, even the cube that wasn't saved
+			writeCube(source, 16, 0, 0, true);
+			source.flush();
+
+			try (RegionCubeStorage target = prune(source, "--older-than", "5")) {
+				assertNull(target.readCube(0, 0, 0));
+				assertNull(target.readCube(1, 0, 0));
+				assertNotNull(target.readCube(16, 0, 0));
+				assertNotNull(target.readCube(17, 0, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testPoliciesCombine() throws IOException {
+		try (RegionCubeStorage source = new RegionCubeStorage(sourceDirectory)) {
+			writeCube(source, 0, 0, 0, true);
+			writeCube(source, 5, 0, 0, true);
+			writeCube(source, 0, 5, 0, false);
+
+			// a cube matching any of them is removed
+			try (RegionCubeStorage target = prune(source, "--unpopulated", "--outside", "0", "0", "0", "3", "3", "3")) {
+				assertNotNull(target.readCube(0, 0, 0));
+				assertNull(target.readCube(5, 0, 0));
+				assertNull(target.readCube(0, 5, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidOptions() {
+		assertNull(CubeStoragePruner.parseOptions(new String[]{"--older-than"}, 0));
+		assertNull(CubeStoragePruner.parseOptions(new String[]{"--older-than", "a week"}, 0));
+		assertNull(CubeStoragePruner.parseOptions(new String[]{"--outside", "1", "2", "3"}, 0));
+		assertNull(CubeStoragePruner.parseOptions(new String[]{"--everything"}, 0));
+		assertNotNull(CubeStoragePruner.parseOptions(new String[]{"--unpopulated", "--threads", "2"}, 0));
+	}
+
+	private RegionCubeStorage prune(RegionCubeStorage source, String... options) throws IOException {
+		CubeStoragePruner pruner = CubeStoragePruner.parseOptions(options, 0);
+		assertNotNull(pruner);
+		RegionCubeStorage target = new RegionCubeStorage(folder.newFolder().toPath());
+		pruner.copy(source, target);
+		return target;
+	}
+
+	private List<Path> regionFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(sourceDirectory)) {
+			List<Path> regions = files.filter(Files::isRegularFile).collect(Collectors.toList());
+			assertFalse(regions.isEmpty());
+			return regions;
+		}
+	}
+
+	private static void writeCube(RegionCubeStorage storage, int cubeX, int cubeY, int cubeZ, boolean populated)
+		throws IOException {
+		NBTTagCompound nbt = new NBTTagCompound();
+		nbt.setBoolean("populated", populated);
+		storage.writeCube(cubeX, cubeY, cubeZ, IONbtWriter.writeNbtBytes(nbt, CompressionCodec.NONE));
+	}
+}
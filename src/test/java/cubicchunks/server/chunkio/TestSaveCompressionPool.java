@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.testutil.MinecraftEnvironment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestSaveCompressionPool {
+
+	@Before
+	public void setUp() {
+		MinecraftEnvironment.init();
+	}
+
+	@Test
+	public void testBatchRoundTrip() throws IOException {
+		// like a batch in CubeIO.writeNextIO: everything is submitted first, then the results are read in order
+		Random rand = new Random(42);
+		List<NBTTagCompound> batch = new ArrayList<>();
+		List<CompletableFuture<byte[]>> compressed = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			NBTTagCompound nbt = new NBTTagCompound();
+			nbt.setInteger("index", i);
+			byte[] blocks = new byte[4096];
+			for (int j = 0; j < blocks.length; j++) {
+				blocks[j] = (byte) (rand.nextInt(8) == 0 ? rand.nextInt() : 0);
+			}
+			nbt.setByteArray("Blocks", blocks);
+			batch.add(nbt);
+			compressed.add(SaveCompressionPool.compress(nbt));
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			byte[] data = compressed.get(i).join();
+			assertEquals(CubicChunks.Config.DEFAULT_COMPRESSION_CODEC, CompressionCodec.getCodec(data));
+			// each future has the data of the NBT it was created for
+			assertEquals(batch.get(i), IONbtReader.readNbtBytes(data));
+		}
+	}
+
+	@Test
+	public void testDecompress() throws IOException {
+		byte[] raw = new byte[10000];
+		new Random(42).nextBytes(raw);
+		List<CompletableFuture<byte[]>> decompressed = new ArrayList<>();
+		for (CompressionCodec codec : CompressionCodec.values()) {
+			decompressed.add(SaveCompressionPool.decompress(codec.compress(raw)));
+		}
+		for (CompletableFuture<byte[]> future : decompressed) {
+			assertArrayEquals(raw, future.join());
+		}
+	}
+
+	@Test
+	public void testDecompressGoesFirst() throws IOException {
+		byte[] raw = new byte[10000];
+		new Random(42).nextBytes(raw);
+		List<NBTTagCompound> batch = new ArrayList<>();
+		Random rand = new Random(43);
+		for (int i = 0; i < 500; i++) {
+			NBTTagCompound nbt = new NBTTagCompound();
+			byte[] blocks = new byte[64*1024];
+			rand.nextBytes(blocks);
+			nbt.setByteArray("Blocks", blocks);
+			batch.add(nbt);
+		}
+
+		AtomicInteger finished = new AtomicInteger();
+		for (NBTTagCompound nbt : batch) {
+			SaveCompressionPool.compress(nbt).thenRun(finished::incrementAndGet);
+		}
+		// queued behind the whole save batch, but it only waits for the saves that already run
+		byte[] decompressed = SaveCompressionPool.decompress(CompressionCodec.NONE.compress(raw)).join();
+		assertArrayEquals(raw, decompressed);
+		assertTrue(finished.get() < batch.size()/2);
+	}
+
+	@Test
+	public void testFailureIsReported() {
+		CompletableFuture<byte[]> future = SaveCompressionPool.decompress(new byte[]{(byte) 200, 1, 2, 3});
+		try {
+			future.join();
+			fail("Corrupted data decompressed");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		// the pool keeps working after a failed task
+		assertEquals(0, SaveCompressionPool.decompress(new byte[]{0}).join().length);
+	}
+}